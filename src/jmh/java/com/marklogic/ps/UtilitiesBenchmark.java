@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2007-2022 MarkLogic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UtilitiesBenchmark {
+
+    @Param({ "4096", "1048576" })
+    public int size;
+
+    private byte[] bytes;
+    private String text;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() {
+        bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        char[] chars = new char[size];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + (bytes[i] & 0x0f));
+        }
+        text = new String(chars);
+        out = new ByteArrayOutputStream(size);
+    }
+
+    @Benchmark
+    public byte[] catInputStream() throws IOException {
+        return Utilities.cat(new ByteArrayInputStream(bytes));
+    }
+
+    @Benchmark
+    public String catReader() throws IOException {
+        return Utilities.cat(new StringReader(text));
+    }
+
+    @Benchmark
+    public long copyInputStream() throws IOException {
+        out.reset();
+        return Utilities.copy(new ByteArrayInputStream(bytes), out);
+    }
+
+    @Benchmark
+    public long copyReader() throws IOException {
+        out.reset();
+        return Utilities.copy(new StringReader(text), out);
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2007-2022 MarkLogic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.Random;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.xcc.ContentPermission;
+
+/**
+ * Shared setup for benchmarks: configurations and sample content that do
+ * not need a MarkLogic server.
+ */
+public class BenchmarkConfiguration {
+
+    private BenchmarkConfiguration() {
+    }
+
+    /**
+     * @return properties for a quiet path-to-path configuration
+     */
+    public static Properties newProperties() {
+        Properties properties = new Properties();
+        properties.setProperty(SimpleLogger.LOG_LEVEL, "WARNING");
+        properties.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        properties.setProperty(Configuration.INPUT_PATH_KEY, "/dev/null");
+        properties.setProperty(Configuration.OUTPUT_PATH_KEY, "/dev/null");
+        return properties;
+    }
+
+    /**
+     * @param properties
+     * @return
+     * @throws Exception
+     */
+    public static Configuration newConfiguration(Properties properties) throws Exception {
+        Configuration configuration = new Configuration();
+        configuration.setLogger(SimpleLogger.getSimpleLogger());
+        configuration.setProperties(properties);
+        configuration.configure();
+        return configuration;
+    }
+
+    /**
+     * @return
+     * @throws Exception
+     */
+    public static Configuration newConfiguration() throws Exception {
+        return newConfiguration(newProperties());
+    }
+
+    /**
+     * @return metadata resembling a typical XML document
+     */
+    public static XQSyncDocumentMetadata newMetadata() {
+        XQSyncDocumentMetadata metadata = new XQSyncDocumentMetadata();
+        metadata.setFormat("xml");
+        metadata.addCollection("http://example.com/collections/benchmark");
+        metadata.addCollection("http://example.com/collections/2022");
+        metadata.addPermission(new ContentPermission(ContentPermission.READ, "reader"));
+        metadata.addPermission(new ContentPermission(ContentPermission.UPDATE, "writer"));
+        metadata.setQuality(1);
+        metadata.setProperties("<prop:properties xmlns:prop=\"http://marklogic.com/xdmp/property\">"
+                + "<status>published</status></prop:properties>");
+        return metadata;
+    }
+
+    /**
+     * @param size
+     * @return repeatable XML content of roughly the requested size
+     */
+    public static byte[] newXmlContent(int size) {
+        Random random = new Random(size);
+        StringBuilder xml = new StringBuilder(size + 64);
+        xml.append("<doc>");
+        while (xml.length() < size) {
+            xml.append("<p id=\"").append(random.nextInt(1000)).append("\">");
+            for (int i = 0; i < 8; i++) {
+                xml.append((char) ('a' + random.nextInt(26)));
+            }
+            xml.append(" lorem ipsum dolor sit amet</p>");
+        }
+        xml.append("</doc>");
+        try {
+            return xml.toString().getBytes(XQSyncDocument.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param prefix
+     * @return a new temporary directory, deleted on exit
+     * @throws IOException
+     */
+    public static File newTempDirectory(String prefix) throws IOException {
+        File directory = Files.createTempDirectory(prefix).toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2007-2022 MarkLogic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PackageBenchmark {
+
+    @Param({ "1000" })
+    public int entries;
+
+    @Param({ "4096", "262144" })
+    public int contentSize;
+
+    private Configuration configuration;
+    private File directory;
+    private byte[] content;
+    private XQSyncDocumentMetadata metadata;
+    private InputPackage inputPackage;
+    private String[] paths;
+    private OutputPackage outputPackage;
+    private int counter = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        configuration = BenchmarkConfiguration.newConfiguration();
+        directory = BenchmarkConfiguration.newTempDirectory("PackageBenchmark");
+        content = BenchmarkConfiguration.newXmlContent(contentSize);
+        metadata = BenchmarkConfiguration.newMetadata();
+
+        // write the input package directly, so it is complete before use
+        File inputFile = new File(directory, "input" + OutputPackage.EXTENSION);
+        inputFile.deleteOnExit();
+        byte[] metadataBytes = metadata.toXML().getBytes(XQSyncDocument.UTF_8);
+        paths = new String[entries];
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(inputFile))) {
+            for (int i = 0; i < entries; i++) {
+                paths[i] = "/benchmark/" + i + ".xml";
+                zos.putNextEntry(new ZipEntry(paths[i]));
+                zos.write(content);
+                zos.closeEntry();
+                zos.putNextEntry(new ZipEntry(XQSyncDocument.getMetadataPath(paths[i])));
+                zos.write(metadataBytes);
+                zos.closeEntry();
+            }
+        }
+        inputPackage = new InputPackage(inputFile.getPath(), configuration);
+        inputPackage.addReference();
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        File outputFile = new File(directory, "output-" + System.nanoTime() + OutputPackage.EXTENSION);
+        outputFile.deleteOnExit();
+        outputPackage = new OutputPackage(outputFile, configuration);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        outputPackage.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        inputPackage.closeReference();
+    }
+
+    @Benchmark
+    public long outputPackageWrite() throws IOException {
+        return outputPackage.write("/benchmark/" + (counter++) + ".xml", content, metadata);
+    }
+
+    @Benchmark
+    public List<String> inputPackageList() throws IOException {
+        return inputPackage.list();
+    }
+
+    @Benchmark
+    public byte[] inputPackageGetContent() throws IOException {
+        return inputPackage.getContent(paths[(counter++ & Integer.MAX_VALUE) % paths.length]);
+    }
+
+    @Benchmark
+    public XQSyncDocumentMetadata inputPackageGetMetadataEntry() throws IOException {
+        return inputPackage.getMetadataEntry(paths[(counter++ & Integer.MAX_VALUE) % paths.length]);
+    }
+}
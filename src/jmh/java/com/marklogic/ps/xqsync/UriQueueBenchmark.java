@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2007-2022 MarkLogic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures adding uris to the queue and polling them back out, without
+ * starting the queue thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UriQueueBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({ "memory", "file", "spill" })
+    public String mode;
+
+    private Configuration configuration;
+    private ThreadPoolExecutor pool;
+    private Monitor monitor;
+    private UriQueue queue;
+    private String[] uris;
+
+    @Setup
+    public void setup() throws Exception {
+        Properties properties = BenchmarkConfiguration.newProperties();
+        properties.setProperty(Configuration.TMP_DIR_KEY, BenchmarkConfiguration.newTempDirectory("UriQueueBenchmark").getPath());
+        configuration = BenchmarkConfiguration.newConfiguration(properties);
+        pool = new ThreadPoolExecutor(1, 1, 16, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        uris = new String[BATCH];
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = "/benchmark/documents/2022/" + (i % 37) + "/" + i + ".xml";
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() throws Exception {
+        monitor = new Monitor(configuration, pool, false);
+        queue = new UriQueue(configuration, monitor.getCompletionService(), pool, new TaskFactory(configuration, monitor), monitor);
+        queue.useQueueFile = "file".equals(mode);
+        if ("spill".equals(mode)) {
+            // room for about one block
+            queue.memoryBudget = 2048;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void addPoll(Blackhole blackhole) {
+        for (String uri : uris) {
+            queue.add(uri);
+        }
+        for (int i = 0; i < uris.length; i++) {
+            blackhole.consume(queue.poll());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2007-2022 MarkLogic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Output uri composition runs in the XQSyncDocument constructor, so the
+ * composeOutputUris benchmark measures construction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class XQSyncDocumentBenchmark {
+
+    @Param({ "1", "100" })
+    public int batchSize;
+
+    @Param({ "65536" })
+    public int contentSize;
+
+    private Configuration configuration;
+    private FilePathReader reader;
+    private FilePathWriter writer;
+    private String[] uris;
+    private byte[] content;
+    private byte[] contentWithBom;
+
+    @Setup
+    public void setup() throws Exception {
+        Properties properties = BenchmarkConfiguration.newProperties();
+        properties.setProperty(Configuration.URI_PREFIX_STRIP_KEY, "/space/export");
+        properties.setProperty(Configuration.URI_PREFIX_KEY, "/benchmark");
+        properties.setProperty(Configuration.URI_SUFFIX_KEY, ".xml");
+        properties.setProperty(Configuration.ENCODE_OUTPUT_URI_KEY, "true");
+        configuration = BenchmarkConfiguration.newConfiguration(properties);
+        reader = new FilePathReader(configuration);
+        writer = new FilePathWriter(configuration);
+        uris = new String[batchSize];
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = "/space/export/documents/" + i + "/record number " + i;
+        }
+        content = BenchmarkConfiguration.newXmlContent(contentSize);
+        contentWithBom = new byte[content.length + 3];
+        contentWithBom[0] = (byte) 0xEF;
+        contentWithBom[1] = (byte) 0xBB;
+        contentWithBom[2] = (byte) 0xBF;
+        System.arraycopy(content, 0, contentWithBom, 3, content.length);
+    }
+
+    @Benchmark
+    public XQSyncDocument composeOutputUris() {
+        return new XQSyncDocument(uris, reader, writer, configuration);
+    }
+
+    @Benchmark
+    public byte[] stripBom() {
+        return XQSyncDocument.stripBom(contentWithBom);
+    }
+
+    @Benchmark
+    public byte[] stripBomAbsent() {
+        return XQSyncDocument.stripBom(content);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs every task on a new thread from the supplied factory, with the
+ * number of concurrent tasks bounded by a semaphore instead of a pool.
+ * Callers of execute() block until a permit is available.
+ *
+ * Intended for cheap threads, such as virtual threads.
+ */
+public class BoundedExecutor extends AbstractExecutorService {
+
+    protected final int concurrency;
+    protected final Semaphore permits;
+    protected final ThreadFactory threadFactory;
+    protected final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    protected final Object terminationMutex = new Object();
+    protected int running = 0;
+    protected volatile boolean shutdown = false;
+
+    /**
+     * @param concurrency
+     * @param threadFactory
+     */
+    public BoundedExecutor(int concurrency, ThreadFactory threadFactory) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+        }
+        this.concurrency = concurrency;
+        this.threadFactory = threadFactory;
+        permits = new Semaphore(concurrency);
+    }
+
+    public void execute(Runnable task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("executor is shut down");
+        }
+        try {
+            // block until a permit becomes available
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+        synchronized (terminationMutex) {
+            running++;
+        }
+        Thread thread = null;
+        try {
+            thread = threadFactory.newThread(() -> {
+                try {
+                    task.run();
+                } finally {
+                    threads.remove(Thread.currentThread());
+                    release();
+                }
+            });
+            if (null == thread) {
+                throw new RejectedExecutionException("no thread for task");
+            }
+            threads.add(thread);
+            thread.start();
+        } catch (RuntimeException | Error e) {
+            // for example, unable to create native thread
+            if (null != thread) {
+                threads.remove(thread);
+            }
+            release();
+            throw e;
+        }
+    }
+
+    private void release() {
+        permits.release();
+        synchronized (terminationMutex) {
+            running--;
+            terminationMutex.notifyAll();
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        synchronized (terminationMutex) {
+            terminationMutex.notifyAll();
+        }
+    }
+
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        // tasks are never queued, so there is nothing to return
+        return new ArrayList<>();
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public boolean isTerminated() {
+        synchronized (terminationMutex) {
+            return shutdown && 0 == running;
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (terminationMutex) {
+            while (!(shutdown && 0 == running)) {
+                long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (millis <= 0) {
+                    return false;
+                }
+                terminationMutex.wait(millis);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of tasks that are running now
+     */
+    public int getActiveCount() {
+        return concurrency - permits.availablePermits();
+    }
+
+    /**
+     * @return the maximum number of concurrent tasks
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reusable byte buffers, in power-of-two sizes, so that large copies do
+ * not allocate a new buffer each time. Buffers larger than the maximum are
+ * allocated as needed, and never kept. Each size keeps at most a few
+ * buffers, up to a fixed number of bytes, and the pool as a whole keeps no
+ * more than a small fraction of the maximum heap.
+ */
+public class BufferPool {
+
+    public static final int MIN_SIZE = 32 * 1024;
+    public static final int MAX_SIZE = 16 * 1024 * 1024;
+    public static final long MAX_BYTES_PER_SIZE = 64L * 1024 * 1024;
+    public static final int MAX_BUFFERS_PER_SIZE = 64;
+    /** the shared pool keeps at most this fraction of the maximum heap */
+    public static final int HEAP_FRACTION = 32;
+
+    private static final BufferPool instance = new BufferPool();
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+
+    private final ConcurrentLinkedDeque<byte[]>[] free;
+    private final AtomicInteger[] freeCount;
+    private final int[] maxCount;
+    private final long maxBytes;
+    private final AtomicLong freeBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    protected BufferPool() {
+        this(Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+    }
+
+    /**
+     * @param maxBytes
+     *            the most bytes to keep in free buffers, of all sizes
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected BufferPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+        int sizes = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+        free = new ConcurrentLinkedDeque[sizes];
+        freeCount = new AtomicInteger[sizes];
+        maxCount = new int[sizes];
+        for (int i = 0; i < sizes; i++) {
+            free[i] = new ConcurrentLinkedDeque<>();
+            freeCount[i] = new AtomicInteger();
+            maxCount[i] = (int) Math.max(1, Math.min(MAX_BUFFERS_PER_SIZE, MAX_BYTES_PER_SIZE >> (MIN_SHIFT + i)));
+        }
+    }
+
+    /**
+     * @return the shared pool
+     */
+    public static BufferPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param minSize
+     * @return a buffer of at least minSize bytes, with arbitrary content
+     */
+    public byte[] acquire(int minSize) {
+        int index = index(minSize);
+        if (index < 0) {
+            misses.increment();
+            return new byte[minSize];
+        }
+        byte[] buffer = free[index].pollFirst();
+        if (null == buffer) {
+            misses.increment();
+            return new byte[MIN_SIZE << index];
+        }
+        freeCount[index].decrementAndGet();
+        freeBytes.addAndGet(-buffer.length);
+        hits.increment();
+        return buffer;
+    }
+
+    /**
+     * @param buffer
+     *            from acquire(), and no longer used by the caller
+     */
+    public void release(byte[] buffer) {
+        if (null == buffer) {
+            return;
+        }
+        int index = index(buffer.length);
+        if (index < 0 || buffer.length != MIN_SIZE << index) {
+            // not one of ours
+            return;
+        }
+        if (freeCount[index].incrementAndGet() > maxCount[index]) {
+            freeCount[index].decrementAndGet();
+            return;
+        }
+        if (freeBytes.addAndGet(buffer.length) > maxBytes) {
+            freeBytes.addAndGet(-buffer.length);
+            freeCount[index].decrementAndGet();
+            return;
+        }
+        // most recently used first, while it may still be in cache
+        free[index].offerFirst(buffer);
+    }
+
+    /**
+     * @return bytes held in free buffers
+     */
+    public long getFreeBytes() {
+        return freeBytes.get();
+    }
+
+    /**
+     * @return acquired buffers that were reused
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return acquired buffers that had to be allocated
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @param size
+     * @return the size class that holds size bytes, or -1 if it is too large
+     */
+    static int index(int size) {
+        if (size > MAX_SIZE) {
+            return -1;
+        }
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+}
@@ -30,6 +30,7 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
+import com.marklogic.ps.memory.MemoryContentSource;
 import com.marklogic.xcc.ContentSource;
 import com.marklogic.xcc.ContentSourceFactory;
 import com.marklogic.xcc.SecurityOptions;
@@ -89,6 +90,11 @@ public class Connection implements ContentSource {
                 throw new UnimplementedFeatureException("bad URI: cannot parse host from " + uris[i]);
             }
             uri[i] = uris[i];
+            // in-process database, for testing
+            if (MemoryContentSource.isMemoryUri(uri[i])) {
+                cs[i] = new MemoryContentSource(uri[i]);
+                continue;
+            }
             // support SSL
             boolean ssl = uri[i].getScheme().equals("xccs");
             cs[i] = ssl ? ContentSourceFactory.newContentSource(uri[i], getSecurityOptions()) : ContentSourceFactory.newContentSource(uri[i]);
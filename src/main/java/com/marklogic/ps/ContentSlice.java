@@ -0,0 +1,133 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Content bytes at the start of a buffer, which may belong to a BufferPool.
+ * Reading content of unknown length into a pooled buffer, then copying out
+ * exactly the bytes needed, allocates one array per document instead of a
+ * growing series. Close the slice to return its buffer to the pool.
+ * Utilities.cat() reads every document this way, and documents keep their
+ * own byte arrays.
+ */
+public class ContentSlice implements Closeable {
+
+    protected final BufferPool pool;
+    protected byte[] buffer;
+    protected int length;
+
+    /**
+     * @param buffer
+     * @param length
+     * @param pool
+     *            the owner of the buffer, or null
+     */
+    protected ContentSlice(byte[] buffer, int length, BufferPool pool) {
+        this.buffer = buffer;
+        this.length = length;
+        this.pool = pool;
+    }
+
+    /**
+     * Read the stream to its end. A size hint that is right fills a new
+     * array of exactly that size. Otherwise the bytes go into pooled buffers.
+     *
+     * @param in
+     * @param sizeHint
+     *            the expected length, or 0 if unknown
+     * @param pool
+     * @return the slice
+     * @throws IOException
+     */
+    public static ContentSlice read(InputStream in, int sizeHint, BufferPool pool) throws IOException {
+        if (null == in) {
+            throw new IOException("null InputStream");
+        }
+        boolean pooled = sizeHint <= 0;
+        byte[] buffer = pooled ? pool.acquire(BufferPool.MIN_SIZE) : new byte[sizeHint];
+        int length = 0;
+        try {
+            while (true) {
+                if (length == buffer.length) {
+                    // full: check for the end before growing
+                    int b = in.read();
+                    if (b < 0) {
+                        break;
+                    }
+                    if (buffer.length >= Utilities.MAX_ARRAY_SIZE) {
+                        throw new IOException("content too large for an array");
+                    }
+                    byte[] larger = pool.acquire((int) Math.min(2L * buffer.length, Utilities.MAX_ARRAY_SIZE));
+                    System.arraycopy(buffer, 0, larger, 0, length);
+                    if (pooled) {
+                        pool.release(buffer);
+                    }
+                    buffer = larger;
+                    pooled = true;
+                    buffer[length++] = (byte) b;
+                }
+                int n = in.read(buffer, length, buffer.length - length);
+                if (n < 0) {
+                    break;
+                }
+                length += n;
+            }
+        } catch (IOException | RuntimeException e) {
+            if (pooled) {
+                pool.release(buffer);
+            }
+            throw e;
+        }
+        return new ContentSlice(buffer, length, pooled ? pool : null);
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the bytes, without a copy if they fill an unpooled buffer
+     */
+    public byte[] toByteArray() {
+        if (null == pool && length == buffer.length) {
+            return buffer;
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Return the buffer to its pool. The slice may not be used again.
+     */
+    @Override
+    public void close() {
+        if (null != pool && null != buffer) {
+            pool.release(buffer);
+        }
+        buffer = null;
+    }
+}
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * @author Michael Blakeley, MarkLogic Corporation
@@ -140,17 +141,20 @@ public class FileFinder {
 
     public void find() throws IOException {
         if (filter == null) {
-            if (includePattern == null && excludePattern == null) {
+            // compile once, rather than once per file with String.matches()
+            final Pattern include = null == includePattern ? null : Pattern.compile(includePattern);
+            final Pattern exclude = null == excludePattern ? null : Pattern.compile(excludePattern);
+            if (include == null && exclude == null) {
                 // find any file
                 filter = file -> file.isDirectory() || file.isFile();
-            } else if (excludePattern == null) {
-                filter = file -> file.isDirectory() || (file.isFile() && file.getName().matches(includePattern));
-            } else if (includePattern == null) {
+            } else if (exclude == null) {
+                filter = file -> file.isDirectory() || (file.isFile() && include.matcher(file.getName()).matches());
+            } else if (include == null) {
                 // exclude only
-                filter = file -> file.isDirectory() || (file.isFile() && !file.getName().matches(excludePattern));
+                filter = file -> file.isDirectory() || (file.isFile() && !exclude.matcher(file.getName()).matches());
             } else {
                 // both are defined
-                filter = file -> file.isDirectory() || (file.isFile() && file.getName().matches(includePattern) && !file.getName().matches(excludePattern));
+                filter = file -> file.isDirectory() || (file.isFile() && include.matcher(file.getName()).matches() && !exclude.matcher(file.getName()).matches());
             }
         }
 
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Streams regular files under a directory to a consumer as they are found,
+ * listing directories in parallel. Unlike FileFinder, it never holds the
+ * whole tree in memory, and matches names with precompiled patterns.
+ *
+ * The consumer is called from several threads, so it must be thread-safe.
+ * Files arrive in no particular order. Symbolic links to files are followed,
+ * but symbolic links to directories are skipped, to avoid cycles.
+ */
+public class FileWalker {
+
+    private static final SimpleLogger logger = SimpleLogger.getSimpleLogger();
+
+    protected final Path root;
+    protected final Pattern includePattern;
+    protected final Pattern excludePattern;
+    protected final int threads;
+    protected final AtomicLong count = new AtomicLong();
+    protected final AtomicLong errors = new AtomicLong();
+
+    /**
+     * @param root
+     * @param includePattern
+     *            file names to include, or null for all
+     * @param excludePattern
+     *            file names to exclude, or null for none
+     * @param threads
+     */
+    public FileWalker(Path root, Pattern includePattern, Pattern excludePattern, int threads) {
+        if (root == null) {
+            throw new NullPointerException("starting path cannot be null");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.root = root;
+        this.includePattern = includePattern;
+        this.excludePattern = excludePattern;
+        this.threads = threads;
+    }
+
+    /**
+     * @param consumer
+     *            receives the real path of every matching file
+     * @return the number of files passed to the consumer
+     * @throws IOException
+     *             if the root cannot be resolved
+     */
+    public long walk(Consumer<Path> consumer) throws IOException {
+        // resolve once: children of a real directory are already canonical
+        Path realRoot = root.toRealPath();
+        if (!Files.isDirectory(realRoot)) {
+            if (matches(realRoot)) {
+                consumer.accept(realRoot);
+                count.incrementAndGet();
+            }
+            return count.get();
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new DirectoryTask(realRoot, consumer));
+        } finally {
+            pool.shutdown();
+        }
+        return count.get();
+    }
+
+    /**
+     * @return the number of directories that could not be listed
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * @param path
+     * @return true if the file name passes the include and exclude patterns
+     */
+    protected boolean matches(Path path) {
+        String name = path.getFileName().toString();
+        return (null == includePattern || includePattern.matcher(name).matches())
+                && (null == excludePattern || !excludePattern.matcher(name).matches());
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final Path directory;
+        private final transient Consumer<Path> consumer;
+
+        DirectoryTask(Path directory, Consumer<Path> consumer) {
+            this.directory = directory;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        // dangling link, or removed since listing
+                        logger.fine("skipping " + path + ": " + e);
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        if (Files.isSymbolicLink(path)) {
+                            logger.warning("skipping linked directory " + path);
+                            continue;
+                        }
+                        DirectoryTask task = new DirectoryTask(path, consumer);
+                        task.fork();
+                        subtasks.add(task);
+                    } else if (attributes.isRegularFile() && matches(path)) {
+                        consumer.accept(path);
+                        count.incrementAndGet();
+                    }
+                }
+            } catch (IOException e) {
+                // like File.listFiles(), skip what we cannot read
+                errors.incrementAndGet();
+                logger.warning("cannot list " + directory + ": " + e);
+            }
+            for (DirectoryTask task : subtasks) {
+                task.join();
+            }
+        }
+    }
+}
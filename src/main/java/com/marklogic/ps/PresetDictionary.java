@@ -0,0 +1,255 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A preset dictionary for deflating many small, similar entries, such as
+ * XML documents, which compress badly on their own because each starts
+ * with an empty window. The dictionary is trained from sample entries by
+ * picking the segments that cover the most byte sequences common to many
+ * samples. Entries deflated with it are stored in the archive as raw
+ * deflate streams, marked with an EXTRA_TAG field that gives their
+ * uncompressed size, and can only be read back with the same dictionary.
+ */
+public class PresetDictionary {
+
+    /** extra field tag, "XD" */
+    public static final int EXTRA_TAG = 0x4458;
+
+    /** the deflate window */
+    public static final int MAX_SIZE = 32 * 1024;
+
+    // training: byte sequences of GRAM bytes, in segments of SEGMENT bytes
+    private static final int GRAM = 8;
+    private static final int SEGMENT = 64;
+    // only the start of each sample is used
+    private static final int MAX_SAMPLE = 8 * 1024;
+
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal
+            .withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    protected final byte[] bytes;
+
+    /**
+     * @param bytes
+     *            at most MAX_SIZE
+     */
+    public PresetDictionary(byte[] bytes) {
+        if (bytes.length > MAX_SIZE) {
+            throw new IllegalArgumentException("dictionary too large: " + bytes.length);
+        }
+        this.bytes = bytes;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @param samples
+     * @param size
+     *            the largest dictionary to build, at most MAX_SIZE
+     * @return a dictionary, which may be empty if the samples have nothing
+     *         in common
+     */
+    public static PresetDictionary train(List<byte[]> samples, int size) {
+        size = Math.min(size, MAX_SIZE);
+        // how many samples contain each sequence
+        Map<Long, Integer> frequencies = new HashMap<>();
+        Set<Long> seen = new HashSet<>();
+        for (byte[] sample : samples) {
+            seen.clear();
+            int length = Math.min(sample.length, MAX_SAMPLE);
+            for (int i = 0; i + GRAM <= length; i++) {
+                Long gram = gram(sample, i);
+                if (seen.add(gram)) {
+                    frequencies.merge(gram, 1, Integer::sum);
+                }
+            }
+        }
+
+        // greedy cover: scores only fall, so a candidate whose new score
+        // still beats the next best one is the best
+        PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> Long.compare(b[0], a[0]));
+        for (int s = 0; s < samples.size(); s++) {
+            int length = Math.min(samples.get(s).length, MAX_SAMPLE);
+            for (int offset = 0; offset + SEGMENT <= length; offset += SEGMENT / 2) {
+                long score = score(samples.get(s), offset, frequencies);
+                if (score > 0) {
+                    queue.add(new long[] { score, s, offset });
+                }
+            }
+        }
+        List<long[]> chosen = new ArrayList<>();
+        int total = 0;
+        while (total + SEGMENT <= size && !queue.isEmpty()) {
+            long[] candidate = queue.poll();
+            byte[] sample = samples.get((int) candidate[1]);
+            int offset = (int) candidate[2];
+            long score = score(sample, offset, frequencies);
+            if (score <= 0) {
+                continue;
+            }
+            if (!queue.isEmpty() && score < queue.peek()[0]) {
+                candidate[0] = score;
+                queue.add(candidate);
+                continue;
+            }
+            chosen.add(candidate);
+            total += SEGMENT;
+            // covered: do not count these sequences again
+            for (int i = offset; i + GRAM <= offset + SEGMENT; i++) {
+                frequencies.remove(gram(sample, i));
+            }
+        }
+
+        // the best segments go last, nearest the data
+        byte[] dictionary = new byte[total];
+        int position = total;
+        for (long[] segment : chosen) {
+            position -= SEGMENT;
+            System.arraycopy(samples.get((int) segment[1]), (int) segment[2], dictionary, position, SEGMENT);
+        }
+        return new PresetDictionary(dictionary);
+    }
+
+    private static long score(byte[] sample, int offset, Map<Long, Integer> frequencies) {
+        long score = 0;
+        for (int i = offset; i + GRAM <= offset + SEGMENT; i++) {
+            Integer frequency = frequencies.get(gram(sample, i));
+            // a sequence in only one sample is not worth a place
+            if (null != frequency && frequency > 1) {
+                score += frequency;
+            }
+        }
+        return score;
+    }
+
+    private static long gram(byte[] bytes, int offset) {
+        long gram = 0;
+        for (int i = 0; i < GRAM; i++) {
+            gram = (gram << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return gram;
+    }
+
+    /**
+     * @param content
+     * @return a raw deflate stream, using the dictionary
+     */
+    public byte[] deflate(byte[] content) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setDictionary(bytes);
+        deflater.setInput(content);
+        deflater.finish();
+        byte[] buffer = new byte[content.length + (content.length >> 12) + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * @param stream
+     *            from deflate()
+     * @param offset
+     * @param length
+     *            of the stream
+     * @param size
+     *            the uncompressed size
+     * @return the content
+     * @throws IOException
+     */
+    public byte[] inflate(byte[] stream, int offset, int length, int size) throws IOException {
+        if (offset + length >= stream.length) {
+            // the inflater needs a spare byte after raw deflate data
+            stream = Arrays.copyOfRange(stream, offset, offset + length + 1);
+            offset = 0;
+        }
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setDictionary(bytes);
+        inflater.setInput(stream, offset, length + 1);
+        byte[] content = new byte[size];
+        int position = 0;
+        try {
+            while (position < size) {
+                int n = inflater.inflate(content, position, size - position);
+                if (0 == n && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                position += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("bad compressed data", e);
+        }
+        if (position != size) {
+            throw new IOException("inflated to " + position + " bytes, expected " + size);
+        }
+        return content;
+    }
+
+    /**
+     * @param name
+     * @param stream
+     *            from deflate()
+     * @param size
+     *            the uncompressed size
+     * @return a stored entry for the stream, marked with the EXTRA_TAG
+     */
+    public static ZipEntry newEntry(String name, byte[] stream, int size) {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(stream.length);
+        entry.setCompressedSize(stream.length);
+        CRC32 crc = new CRC32();
+        crc.update(stream);
+        entry.setCrc(crc.getValue());
+        byte[] extra = new byte[8];
+        extra[0] = (byte) EXTRA_TAG;
+        extra[1] = (byte) (EXTRA_TAG >>> 8);
+        extra[2] = 4;
+        for (int i = 0; i < 4; i++) {
+            extra[4 + i] = (byte) (size >>> (8 * i));
+        }
+        entry.setExtra(extra);
+        return entry;
+    }
+}
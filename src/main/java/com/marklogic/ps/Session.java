@@ -344,6 +344,41 @@ public class Session implements com.marklogic.xcc.Session {
         session.submitRequest(req);
     }
 
+    /**
+     * Delete a batch of documents in one request.
+     *
+     * @param uris
+     *            may end with nulls, which are ignored
+     * @throws XccException
+     */
+    public void deleteDocuments(String[] uris) throws XccException {
+        int count = 0;
+        while (count < uris.length && null != uris[count]) {
+            count++;
+        }
+        if (0 == count) {
+            return;
+        }
+        // ignore documents that do not exist
+        StringBuilder query = new StringBuilder(XQUERY_VERSION_1_0_ML);
+        for (int i = 0; i < count; i++) {
+            query.append("declare variable $URI-").append(i).append(" as xs:string external;\n");
+        }
+        query.append("for $uri in (");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                query.append(", ");
+            }
+            query.append("$URI-").append(i);
+        }
+        query.append(")\nwhere boolean(doc($uri))\nreturn xdmp:document-delete($uri)\n");
+        AdhocQuery req = session.newAdhocQuery(query.toString());
+        for (int i = 0; i < count; i++) {
+            req.setNewStringVariable("URI-" + i, uris[i]);
+        }
+        session.submitRequest(req);
+    }
+
     /**
      * @param uri
      * @throws XccException
@@ -18,7 +18,6 @@
  */
 package com.marklogic.ps;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -39,6 +38,8 @@ import java.util.List;
 public class Utilities {
 
     private static final int BUFFER_SIZE = 32 * 1024;
+    // some VMs reserve header words in an array
+    static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
 
     /**
      * @param path
@@ -101,16 +102,17 @@ public class Utilities {
         }
         long totalBytes = 0;
         int len = 0;
-        byte[] buf = new byte[BUFFER_SIZE];
-        // int available = _in.available();
-        // System.err.println("DEBUG: " + _in + ": available " + available);
-        while ((len = in.read(buf, 0, BUFFER_SIZE)) > -1) {
-            out.write(buf, 0, len);
-            out.flush();
-            totalBytes += len;
-            // System.err.println("DEBUG: " + _out + ": wrote " + len);
+        BufferPool pool = BufferPool.getInstance();
+        byte[] buf = pool.acquire(BUFFER_SIZE);
+        try {
+            while ((len = in.read(buf, 0, buf.length)) > -1) {
+                out.write(buf, 0, len);
+                totalBytes += len;
+            }
+        } finally {
+            pool.release(buf);
         }
-        // System.err.println("DEBUG: " + _in + ": last read " + len);
+        out.flush();
         // caller MUST close the stream for us
         return totalBytes;
     }
@@ -270,7 +272,9 @@ public class Utilities {
      * @throws IOException
      */
     public static byte[] cat(File contentFile) throws IOException {
-        return cat(new FileInputStream(contentFile));
+        try (InputStream is = new FileInputStream(contentFile)) {
+            return cat(is, (int) Math.min(contentFile.length(), MAX_ARRAY_SIZE));
+        }
     }
 
     /**
@@ -279,9 +283,22 @@ public class Utilities {
      * @throws IOException
      */
     public static byte[] cat(InputStream is) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(BUFFER_SIZE);
-        copy(is, bos);
-        return bos.toByteArray();
+        return cat(is, 0);
+    }
+
+    /**
+     * @param is
+     * @param sizeHint
+     *            the expected length, or 0 if unknown. If it is right, the
+     *            bytes are read into one array, with no copies. Otherwise
+     *            they are read into pooled buffers, and copied once.
+     * @return
+     * @throws IOException
+     */
+    public static byte[] cat(InputStream is, int sizeHint) throws IOException {
+        try (ContentSlice slice = ContentSlice.read(is, sizeHint, BufferPool.getInstance())) {
+            return slice.toByteArray();
+        }
     }
 
     public static long getSize(InputStream is) throws IOException {
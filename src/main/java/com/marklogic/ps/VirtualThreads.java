@@ -0,0 +1,59 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual thread support, without requiring a newer JDK at build time.
+ * The JDK 21 API is resolved by reflection, so the same classes run on
+ * Java 8 and simply report that virtual threads are unavailable.
+ */
+public class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @param namePrefix
+     * @return a factory for virtual threads, or null if this JVM does not
+     *         support them
+     */
+    public static ThreadFactory newThreadFactory(String namePrefix) {
+        try {
+            // Thread.ofVirtual().name(namePrefix, 0).factory()
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // older JVM, or preview feature not enabled
+            return null;
+        }
+    }
+
+    /**
+     * @return true if this JVM supports virtual threads
+     */
+    public static boolean isSupported() {
+        return null != newThreadFactory("probe-");
+    }
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A read-only index of a zip archive, built from its central directory,
+ * that reads entries with positional reads. Unlike ZipFile, which
+ * serializes every getEntry() and getInputStream() on one lock, lookups
+ * need no lock and every thread reads through one shared channel, with
+ * its own Inflater, so many threads can inflate entries of one archive at
+ * once.
+ * The entry count in the end record is ignored, so archives with 65536 or
+ * more entries are indexed in full. Entries marked as deflated with a
+ * PresetDictionary are inflated with the one given to setDictionary().
+ */
+public class ZipIndex {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_SIZE = 46;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_SIZE = 30;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int MAX_COMMENT = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int FLAG_ENCRYPTED = 0x0001;
+
+    /** not a zip method: stored raw deflate, with a preset dictionary */
+    public static final int DEFLATED_PRESET = 0x108;
+
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    /**
+     * An entry of the archive.
+     */
+    public static class Entry {
+
+        protected final String name;
+        protected final int method;
+        protected final int flags;
+        protected final long compressedSize;
+        protected final long size;
+        protected final long headerOffset;
+
+        /**
+         * @param name
+         * @param method
+         * @param flags
+         * @param compressedSize
+         * @param size
+         * @param headerOffset
+         *            of the entry's local header
+         */
+        public Entry(String name, int method, int flags, long compressedSize, long size, long headerOffset) {
+            this.name = name;
+            this.method = method;
+            this.flags = flags;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.headerOffset = headerOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public long getHeaderOffset() {
+            return headerOffset;
+        }
+
+        /**
+         * @return true if the name ends with a '/'
+         */
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    protected final File file;
+    protected final List<Entry> entries;
+    protected final Map<String, Entry> names;
+    protected final Object channelLock = new Object();
+    protected volatile FileChannel channel;
+    protected volatile boolean closed = false;
+    protected volatile PresetDictionary dictionary;
+
+    /**
+     * @param file
+     * @throws IOException
+     *             if the file is not a zip archive
+     */
+    public ZipIndex(File file) throws IOException {
+        this.file = file;
+        List<Entry> list = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long[] directory = findCentralDirectory(channel);
+            readCentralDirectory(channel, directory[0], directory[1], list);
+        }
+        entries = Collections.unmodifiableList(list);
+        names = newNameMap(list);
+    }
+
+    /**
+     * @param file
+     * @param entries
+     *            known from elsewhere, so the central directory is not read
+     */
+    public ZipIndex(File file, List<Entry> entries) {
+        this.file = file;
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        names = newNameMap(entries);
+    }
+
+    private static Map<String, Entry> newNameMap(List<Entry> list) {
+        Map<String, Entry> map = new HashMap<>(2 * list.size());
+        for (Entry entry : list) {
+            // like ZipFile, the first of any duplicates wins
+            map.putIfAbsent(entry.name, entry);
+        }
+        return map;
+    }
+
+    /**
+     * @return the entries, in central directory order
+     */
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * @param name
+     * @return the entry, or null
+     */
+    public Entry getEntry(String name) {
+        return names.get(name);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @param dictionary
+     *            for DEFLATED_PRESET entries
+     */
+    public void setDictionary(PresetDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @param entry
+     * @param stored
+     *            the entry's bytes as stored in the archive, such as from a
+     *            ZipInputStream
+     * @return the entry's content
+     * @throws IOException
+     */
+    public byte[] decode(Entry entry, byte[] stored) throws IOException {
+        if (DEFLATED_PRESET != entry.method) {
+            return stored;
+        }
+        return presetDictionary(entry).inflate(stored, 0, stored.length, (int) entry.size);
+    }
+
+    private PresetDictionary presetDictionary(Entry entry) throws IOException {
+        PresetDictionary preset = dictionary;
+        if (null == preset) {
+            throw new IOException("no preset dictionary for " + entry.name + " in " + file);
+        }
+        return preset;
+    }
+
+    /**
+     * @param entry
+     * @return the entry's uncompressed content
+     * @throws IOException
+     */
+    public byte[] read(Entry entry) throws IOException {
+        while (true) {
+            try {
+                return readEntry(entry);
+            } catch (ClosedChannelException e) {
+                // another thread's interrupt closed the shared channel
+                if (closed || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private byte[] readEntry(Entry entry) throws IOException {
+        if (0 != (entry.flags & FLAG_ENCRYPTED)) {
+            throw new IOException("encrypted entry " + entry.name + " in " + file);
+        }
+        if (entry.size > Utilities.MAX_ARRAY_SIZE || entry.compressedSize > Utilities.MAX_ARRAY_SIZE) {
+            throw new IOException("entry " + entry.name + " too large for an array: " + entry.size);
+        }
+        FileChannel channel = channel();
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, entry.headerOffset);
+        if (LOCAL_SIGNATURE != header.getInt(0)) {
+            throw new IOException("bad local header for " + entry.name + " in " + file);
+        }
+        long dataOffset = entry.headerOffset + LOCAL_SIZE + (header.getShort(26) & 0xFFFF)
+                + (header.getShort(28) & 0xFFFF);
+        if (DEFLATED_PRESET == entry.method) {
+            return inflatePreset(channel, entry, dataOffset);
+        }
+        byte[] content = new byte[(int) entry.size];
+        switch (entry.method) {
+        case ZipEntry.STORED:
+            readFully(channel, ByteBuffer.wrap(content), dataOffset);
+            return content;
+        case ZipEntry.DEFLATED:
+            return inflate(channel, entry, dataOffset, content);
+        default:
+            throw new IOException("unsupported compression method " + entry.method + " for " + entry.name + " in "
+                    + file);
+        }
+    }
+
+    private byte[] inflatePreset(FileChannel channel, Entry entry, long dataOffset) throws IOException {
+        PresetDictionary preset = presetDictionary(entry);
+        BufferPool pool = BufferPool.getInstance();
+        byte[] stream = pool.acquire((int) entry.compressedSize + 1);
+        try {
+            readFully(channel, ByteBuffer.wrap(stream, 0, (int) entry.compressedSize), dataOffset);
+            stream[(int) entry.compressedSize] = 0;
+            return preset.inflate(stream, 0, (int) entry.compressedSize, (int) entry.size);
+        } catch (IOException e) {
+            throw new IOException(entry.name + " in " + file + ": " + e.getMessage(), e);
+        } finally {
+            pool.release(stream);
+        }
+    }
+
+    private byte[] inflate(FileChannel channel, Entry entry, long dataOffset, byte[] content) throws IOException {
+        BufferPool pool = BufferPool.getInstance();
+        // one spare byte, as the inflater may ask for more input at the end
+        byte[] compressed = pool.acquire((int) entry.compressedSize + 1);
+        try {
+            readFully(channel, ByteBuffer.wrap(compressed, 0, (int) entry.compressedSize), dataOffset);
+            compressed[(int) entry.compressedSize] = 0;
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(compressed, 0, (int) entry.compressedSize + 1);
+            int length = 0;
+            while (length < content.length) {
+                int n = inflater.inflate(content, length, content.length - length);
+                if (0 == n && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != content.length) {
+                throw new IOException("entry " + entry.name + " in " + file + " inflated to " + length
+                        + " bytes, expected " + content.length);
+            }
+            return content;
+        } catch (DataFormatException e) {
+            throw new IOException("bad compressed data for " + entry.name + " in " + file, e);
+        } finally {
+            pool.release(compressed);
+        }
+    }
+
+    /**
+     * @return the shared channel, reopened if an interrupt closed it
+     * @throws IOException
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel current = channel;
+        if (null != current && current.isOpen()) {
+            return current;
+        }
+        synchronized (channelLock) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (null == channel || !channel.isOpen()) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Close the shared channel.
+     */
+    public void close() {
+        synchronized (channelLock) {
+            closed = true;
+            if (null == channel) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing more to read
+            }
+            channel = null;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("unexpected end of file at " + position);
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * @return the offset and size of the central directory
+     */
+    private long[] findCentralDirectory(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int tail = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT);
+        ByteBuffer buffer = ByteBuffer.allocate(tail).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buffer, fileSize - tail);
+        for (int i = tail - END_SIZE; i >= 0; i--) {
+            if (END_SIGNATURE != buffer.getInt(i)) {
+                continue;
+            }
+            long size = buffer.getInt(i + 12) & ZIP64_MAGIC;
+            long offset = buffer.getInt(i + 16) & ZIP64_MAGIC;
+            long end = fileSize - tail + i;
+            if (ZIP64_MAGIC == size || ZIP64_MAGIC == offset) {
+                return findZip64CentralDirectory(channel, end);
+            }
+            return new long[] { offset, size };
+        }
+        throw new IOException("zip END header not found in " + file);
+    }
+
+    private long[] findZip64CentralDirectory(FileChannel channel, long end) throws IOException {
+        ByteBuffer locator = ByteBuffer.allocate(ZIP64_LOCATOR_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, locator, end - ZIP64_LOCATOR_SIZE);
+        if (ZIP64_LOCATOR_SIGNATURE != locator.getInt(0)) {
+            throw new IOException("zip64 locator not found in " + file);
+        }
+        ByteBuffer record = ByteBuffer.allocate(ZIP64_END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, record, locator.getLong(8));
+        if (ZIP64_END_SIGNATURE != record.getInt(0)) {
+            throw new IOException("zip64 END header not found in " + file);
+        }
+        return new long[] { record.getLong(48), record.getLong(40) };
+    }
+
+    private void readCentralDirectory(FileChannel channel, long offset, long size, List<Entry> list)
+            throws IOException {
+        if (size > Utilities.MAX_ARRAY_SIZE) {
+            throw new IOException("central directory too large in " + file + ": " + size);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buffer, offset);
+        int i = 0;
+        while (i + CENTRAL_SIZE <= size) {
+            if (CENTRAL_SIGNATURE != buffer.getInt(i)) {
+                throw new IOException("bad central directory header at " + (offset + i) + " in " + file);
+            }
+            int flags = buffer.getShort(i + 8) & 0xFFFF;
+            int method = buffer.getShort(i + 10) & 0xFFFF;
+            long compressedSize = buffer.getInt(i + 20) & ZIP64_MAGIC;
+            long uncompressedSize = buffer.getInt(i + 24) & ZIP64_MAGIC;
+            int nameLength = buffer.getShort(i + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(i + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(i + 32) & 0xFFFF;
+            long headerOffset = buffer.getInt(i + 42) & ZIP64_MAGIC;
+            int next = i + CENTRAL_SIZE + nameLength + extraLength + commentLength;
+            if (next > size) {
+                throw new IOException("truncated central directory in " + file);
+            }
+            String name = new String(buffer.array(), i + CENTRAL_SIZE, nameLength, StandardCharsets.UTF_8);
+
+            // zip64 values appear in order, only for the fields that overflowed
+            int extra = i + CENTRAL_SIZE + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int tag = buffer.getShort(extra) & 0xFFFF;
+                int length = buffer.getShort(extra + 2) & 0xFFFF;
+                int field = extra + 4;
+                int fieldEnd = Math.min(field + length, extraEnd);
+                extra = field + length;
+                if (PresetDictionary.EXTRA_TAG == tag && ZipEntry.STORED == method && field + 4 <= fieldEnd) {
+                    method = DEFLATED_PRESET;
+                    uncompressedSize = buffer.getInt(field) & ZIP64_MAGIC;
+                } else if (ZIP64_EXTRA == tag) {
+                    if (ZIP64_MAGIC == uncompressedSize && field + 8 <= fieldEnd) {
+                        uncompressedSize = buffer.getLong(field);
+                        field += 8;
+                    }
+                    if (ZIP64_MAGIC == compressedSize && field + 8 <= fieldEnd) {
+                        compressedSize = buffer.getLong(field);
+                        field += 8;
+                    }
+                    if (ZIP64_MAGIC == headerOffset && field + 8 <= fieldEnd) {
+                        headerOffset = buffer.getLong(field);
+                    }
+                }
+            }
+
+            list.add(new Entry(name, method, flags, compressedSize, uncompressedSize, headerOffset));
+            i = next;
+        }
+    }
+}
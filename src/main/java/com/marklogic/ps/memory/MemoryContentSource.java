@@ -0,0 +1,119 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.memory;
+
+import java.net.URI;
+import java.util.logging.Logger;
+
+import com.marklogic.xcc.ContentSource;
+import com.marklogic.xcc.Session;
+import com.marklogic.xcc.spi.ConnectionProvider;
+
+/**
+ * An in-process ContentSource for the mem:// scheme, so that the whole
+ * XQSync pipeline can run without a server. The uri host names the
+ * MemoryDatabase, and the uri query configures it.
+ *
+ * @see MemoryDatabase
+ */
+public class MemoryContentSource implements ContentSource {
+
+    public static final String SCHEME = "mem";
+
+    private final URI uri;
+    private final MemoryDatabase database;
+    private Logger logger = Logger.getLogger(MemoryContentSource.class.getName());
+    private boolean authenticationPreemptive = false;
+
+    /**
+     * @param uri
+     */
+    public MemoryContentSource(URI uri) {
+        if (!SCHEME.equals(uri.getScheme())) {
+            throw new IllegalArgumentException("not a " + SCHEME + " uri: " + uri);
+        }
+        this.uri = uri;
+        database = MemoryDatabase.getInstance(uri.getHost());
+        database.configure(uri.getRawQuery());
+    }
+
+    /**
+     * @param uri
+     * @return true if this uri uses the mem scheme
+     */
+    public static boolean isMemoryUri(URI uri) {
+        return SCHEME.equals(uri.getScheme());
+    }
+
+    public MemoryDatabase getDatabase() {
+        return database;
+    }
+
+    public Session newSession() {
+        return MemorySession.newSession(this, database, uri);
+    }
+
+    public Session newSession(String contentbaseId) {
+        // forest ids and database names are ignored
+        return newSession();
+    }
+
+    public Session newSession(String userName, char[] password) {
+        return newSession();
+    }
+
+    public Session newSession(String userName, char[] password, String contentbaseId) {
+        return newSession();
+    }
+
+    @Deprecated
+    public Session newSession(String userName, String password) {
+        return newSession();
+    }
+
+    @Deprecated
+    public Session newSession(String userName, String password, String contentbaseId) {
+        return newSession();
+    }
+
+    public Logger getDefaultLogger() {
+        return logger;
+    }
+
+    public void setDefaultLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    public boolean isAuthenticationPreemptive() {
+        return authenticationPreemptive;
+    }
+
+    public void setAuthenticationPreemptive(boolean value) {
+        authenticationPreemptive = value;
+    }
+
+    public ConnectionProvider getConnectionProvider() {
+        // there is no connection
+        return null;
+    }
+
+    public String toString() {
+        return "MemoryContentSource[" + uri + "]";
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.memory;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.marklogic.xcc.Request;
+import com.marklogic.xcc.exceptions.ServerConnectionException;
+
+/**
+ * A named, process-wide document store for the mem:// scheme.
+ *
+ * Connection strings may set these query parameters:
+ * <ul>
+ * <li>documents: number of synthetic XML documents, listed before any
+ * inserted documents</li>
+ * <li>size: approximate size of each synthetic document, in bytes</li>
+ * <li>latency: milliseconds added to every request</li>
+ * <li>failures: fraction of requests that fail, from 0 to 1</li>
+ * <li>streamFailures: fraction of streamed document batches whose
+ * connection drops halfway through the results, from 0 to 1</li>
+ * </ul>
+ * For example, mem://user@source/?documents=1000000&amp;latency=1
+ */
+public class MemoryDatabase {
+
+    public static final String DOCUMENTS_PARAM = "documents";
+    public static final String SIZE_PARAM = "size";
+    public static final String LATENCY_PARAM = "latency";
+    public static final String FAILURES_PARAM = "failures";
+    public static final String STREAM_FAILURES_PARAM = "streamFailures";
+
+    public static final String SYNTHETIC_PREFIX = "/synthetic/";
+    public static final String SYNTHETIC_SUFFIX = ".xml";
+    private static final int SYNTHETIC_DIGITS = 10;
+
+    private static final Map<String, MemoryDatabase> databases = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final ConcurrentSkipListMap<String, MemoryDocument> documents = new ConcurrentSkipListMap<>();
+    private final Set<String> deletedSynthetic = ConcurrentHashMap.newKeySet();
+    private final Map<String, Long> lastModified = new ConcurrentHashMap<>();
+    private final AtomicLong timestamp = new AtomicLong(1);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private volatile long syntheticCount = 0;
+    private volatile int syntheticSize = 1024;
+    private volatile long latencyMillis = 0;
+    private volatile double failureRate = 0;
+    private volatile double streamFailureRate = 0;
+
+    /**
+     * @param name
+     */
+    protected MemoryDatabase(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param name
+     * @return the database with this name, created if necessary
+     */
+    public static MemoryDatabase getInstance(String name) {
+        return databases.computeIfAbsent(name, MemoryDatabase::new);
+    }
+
+    /**
+     * Discard a database and all its documents.
+     *
+     * @param name
+     */
+    public static void remove(String name) {
+        databases.remove(name);
+    }
+
+    /**
+     * @param query
+     *            URI query string, such as documents=10&amp;latency=5
+     */
+    public void configure(String query) {
+        if (null == query || query.isEmpty()) {
+            return;
+        }
+        for (String pair : query.split("&")) {
+            int index = pair.indexOf('=');
+            if (index < 1) {
+                throw new IllegalArgumentException("bad parameter: " + pair);
+            }
+            String key = pair.substring(0, index);
+            String value = pair.substring(index + 1);
+            switch (key) {
+            case DOCUMENTS_PARAM:
+                setSyntheticCount(Long.parseLong(value));
+                break;
+            case SIZE_PARAM:
+                syntheticSize = Integer.parseInt(value);
+                break;
+            case LATENCY_PARAM:
+                latencyMillis = Long.parseLong(value);
+                break;
+            case FAILURES_PARAM:
+                failureRate = Double.parseDouble(value);
+                break;
+            case STREAM_FAILURES_PARAM:
+                streamFailureRate = Double.parseDouble(value);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown parameter: " + key);
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param count
+     */
+    public void setSyntheticCount(long count) {
+        if (count >= Math.pow(10, SYNTHETIC_DIGITS)) {
+            throw new IllegalArgumentException("too many synthetic documents: " + count);
+        }
+        syntheticCount = count;
+    }
+
+    /**
+     * @param millis
+     */
+    public void setLatencyMillis(long millis) {
+        latencyMillis = millis;
+    }
+
+    /**
+     * @param rate
+     */
+    public void setFailureRate(double rate) {
+        failureRate = rate;
+    }
+
+    /**
+     * Simulate a round trip to the server, which may fail.
+     *
+     * @param request
+     * @throws ServerConnectionException
+     */
+    protected void roundTrip(Request request) throws ServerConnectionException {
+        requests.incrementAndGet();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServerConnectionException("interrupted", request);
+            }
+        }
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            failures.incrementAndGet();
+            throw new ServerConnectionException("injected failure in " + name, request);
+        }
+    }
+
+    /**
+     * @return true if a streamed result should fail partway through, which
+     *         counts as a failure
+     */
+    protected boolean isStreamFailure() {
+        if (streamFailureRate > 0 && ThreadLocalRandom.current().nextDouble() < streamFailureRate) {
+            failures.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of requests, including failures
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of injected failures
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * @param bytes
+     *            document content returned to a client
+     */
+    protected void addBytesRead(long bytes) {
+        bytesRead.addAndGet(bytes);
+    }
+
+    /**
+     * @return the total document content returned to clients, in bytes
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * @return the current point in time, which advances on every update
+     */
+    public BigInteger getTimestamp() {
+        return BigInteger.valueOf(timestamp.get());
+    }
+
+    /**
+     * @param uri
+     * @return the document, or null if it does not exist
+     */
+    public MemoryDocument get(String uri) {
+        MemoryDocument document = documents.get(uri);
+        if (null != document) {
+            return document;
+        }
+        long index = syntheticIndex(uri);
+        if (index < 0 || deletedSynthetic.contains(uri)) {
+            return null;
+        }
+        return newSyntheticDocument(uri, index);
+    }
+
+    /**
+     * @param uri
+     * @return true if the document exists
+     */
+    public boolean exists(String uri) {
+        return null != get(uri);
+    }
+
+    /**
+     * @param document
+     */
+    public void put(MemoryDocument document) {
+        documents.put(document.getUri(), document);
+        deletedSynthetic.remove(document.getUri());
+        lastModified.put(document.getUri(), timestamp.incrementAndGet());
+    }
+
+    /**
+     * @param uri
+     */
+    public void delete(String uri) {
+        documents.remove(uri);
+        lastModified.remove(uri);
+        if (syntheticIndex(uri) > -1) {
+            deletedSynthetic.add(uri);
+        }
+        timestamp.incrementAndGet();
+    }
+
+    /**
+     * @param uri
+     * @param properties
+     */
+    public void setProperties(String uri, String properties) {
+        MemoryDocument document = get(uri);
+        if (null != document) {
+            put(document.withProperties(properties));
+        }
+    }
+
+    /**
+     * @param uri
+     * @return the timestamp of the last update, or 0 for synthetic documents
+     *         that were never updated
+     */
+    public long getLastModified(String uri) {
+        Long modified = lastModified.get(uri);
+        return null == modified ? 0 : modified;
+    }
+
+    /**
+     * @return the number of documents
+     */
+    public long count() {
+        long count = syntheticCount - deletedSynthetic.size();
+        for (String uri : documents.keySet()) {
+            if (syntheticIndex(uri) < 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param collection
+     *            collection to match, or null
+     * @param directory
+     *            directory to match, or null
+     * @return document uris in uri order, like the uri lexicon
+     */
+    public Iterator<String> uris(final String collection, final String directory) {
+        final Iterator<String> stored = documents.keySet().iterator();
+        return new Iterator<String>() {
+            long index = 0;
+            String synthetic = null;
+            String inserted = null;
+            String next = null;
+
+            public boolean hasNext() {
+                while (null == next) {
+                    // merge the two sorted sequences
+                    while (null == synthetic && index < syntheticCount) {
+                        synthetic = syntheticUri(index++);
+                        if (deletedSynthetic.contains(synthetic)) {
+                            synthetic = null;
+                        }
+                    }
+                    while (null == inserted && stored.hasNext()) {
+                        inserted = stored.next();
+                        if (syntheticIndex(inserted) > -1) {
+                            // listed with the synthetic documents
+                            inserted = null;
+                        }
+                    }
+                    String uri;
+                    if (null == synthetic && null == inserted) {
+                        return false;
+                    } else if (null == inserted || (null != synthetic && synthetic.compareTo(inserted) < 0)) {
+                        uri = synthetic;
+                        synthetic = null;
+                    } else {
+                        uri = inserted;
+                        inserted = null;
+                    }
+                    if (matches(uri, collection, directory)) {
+                        next = uri;
+                    }
+                }
+                return true;
+            }
+
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String uri = next;
+                next = null;
+                return uri;
+            }
+        };
+    }
+
+    /**
+     * @param collection
+     */
+    public void deleteCollection(String collection) {
+        Iterator<String> iter = uris(collection, null);
+        while (iter.hasNext()) {
+            delete(iter.next());
+        }
+    }
+
+    private boolean matches(String uri, String collection, String directory) {
+        if (null != directory && !uri.startsWith(directory)) {
+            return false;
+        }
+        if (null == collection) {
+            return true;
+        }
+        MemoryDocument document = get(uri);
+        return null != document && Arrays.asList(document.getCollections()).contains(collection);
+    }
+
+    /**
+     * @param index
+     * @return the uri of a synthetic document
+     */
+    protected static String syntheticUri(long index) {
+        String digits = Long.toString(index);
+        StringBuilder uri = new StringBuilder(SYNTHETIC_PREFIX);
+        for (int i = digits.length(); i < SYNTHETIC_DIGITS; i++) {
+            uri.append('0');
+        }
+        return uri.append(digits).append(SYNTHETIC_SUFFIX).toString();
+    }
+
+    /**
+     * @param uri
+     * @return the synthetic index, or -1 if this uri is not synthetic
+     */
+    protected long syntheticIndex(String uri) {
+        int length = SYNTHETIC_PREFIX.length() + SYNTHETIC_DIGITS + SYNTHETIC_SUFFIX.length();
+        if (length != uri.length() || !uri.startsWith(SYNTHETIC_PREFIX) || !uri.endsWith(SYNTHETIC_SUFFIX)) {
+            return -1;
+        }
+        long index = 0;
+        for (int i = SYNTHETIC_PREFIX.length(); i < SYNTHETIC_PREFIX.length() + SYNTHETIC_DIGITS; i++) {
+            char c = uri.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = 10 * index + (c - '0');
+        }
+        return index < syntheticCount ? index : -1;
+    }
+
+    private MemoryDocument newSyntheticDocument(String uri, long index) {
+        StringBuilder xml = new StringBuilder(syntheticSize + 64);
+        xml.append("<synthetic id=\"").append(index).append("\">");
+        while (xml.length() < syntheticSize - 13) {
+            xml.append("<p>").append(index).append(" lorem ipsum dolor sit amet</p>");
+        }
+        xml.append("</synthetic>");
+        return new MemoryDocument(uri, MemoryDocument.KIND_ELEMENT,
+                xml.toString().getBytes(StandardCharsets.UTF_8), null, null, 0, null);
+    }
+}
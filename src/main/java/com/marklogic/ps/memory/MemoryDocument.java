@@ -0,0 +1,117 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.memory;
+
+import java.util.zip.CRC32;
+
+import com.marklogic.xcc.ContentPermission;
+
+/**
+ * An immutable document, with the metadata that SessionReader asks for.
+ */
+public class MemoryDocument {
+
+    public static final String KIND_ELEMENT = "element";
+    public static final String KIND_TEXT = "text";
+    public static final String KIND_BINARY = "binary";
+
+    protected static final String[] NO_COLLECTIONS = new String[0];
+    protected static final ContentPermission[] NO_PERMISSIONS = new ContentPermission[0];
+
+    private final String uri;
+    private final String nodeKind;
+    private final byte[] content;
+    private final String[] collections;
+    private final ContentPermission[] permissions;
+    private final int quality;
+    private final String properties;
+
+    /**
+     * @param uri
+     * @param nodeKind
+     *            one of element, text, or binary
+     * @param content
+     * @param collections
+     * @param permissions
+     * @param quality
+     * @param properties
+     *            serialized prop:properties element, or null
+     */
+    public MemoryDocument(String uri, String nodeKind, byte[] content,
+            String[] collections, ContentPermission[] permissions,
+            int quality, String properties) {
+        this.uri = uri;
+        this.nodeKind = null == nodeKind ? KIND_ELEMENT : nodeKind;
+        this.content = null == content ? new byte[0] : content;
+        this.collections = null == collections ? NO_COLLECTIONS : collections;
+        this.permissions = null == permissions ? NO_PERMISSIONS : permissions;
+        this.quality = quality;
+        this.properties = properties;
+    }
+
+    /**
+     * @param properties
+     * @return a copy of this document, with new properties
+     */
+    public MemoryDocument withProperties(String properties) {
+        return new MemoryDocument(uri, nodeKind, content, collections,
+                permissions, quality, properties);
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public String getNodeKind() {
+        return nodeKind;
+    }
+
+    public boolean isBinary() {
+        return KIND_BINARY.equals(nodeKind);
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public String[] getCollections() {
+        return collections;
+    }
+
+    public ContentPermission[] getPermissions() {
+        return permissions;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public String getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return a stand-in for the result of a checksum module
+     */
+    public String getChecksum() {
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        return Long.toHexString(crc.getValue());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.memory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.marklogic.xcc.AdhocQuery;
+import com.marklogic.xcc.Request;
+import com.marklogic.xcc.RequestOptions;
+import com.marklogic.xcc.Session;
+
+/**
+ * An adhoc query with its external variables, as seen by MemorySession.
+ */
+public class MemoryRequest implements InvocationHandler {
+
+    private final Session session;
+    private String query;
+    private RequestOptions options;
+    private final Map<String, Object> variables = new HashMap<>();
+
+    /**
+     * @param session
+     * @param query
+     * @param options
+     */
+    protected MemoryRequest(Session session, String query, RequestOptions options) {
+        this.session = session;
+        this.query = query;
+        this.options = options;
+    }
+
+    /**
+     * @param session
+     * @param query
+     * @param options
+     * @return a new adhoc query
+     */
+    public static AdhocQuery newAdhocQuery(Session session, String query, RequestOptions options) {
+        return (AdhocQuery) Proxy.newProxyInstance(
+                MemoryRequest.class.getClassLoader(),
+                new Class<?>[] { AdhocQuery.class },
+                new MemoryRequest(session, query, options));
+    }
+
+    /**
+     * @param request
+     * @return the handler behind a request from this package
+     */
+    public static MemoryRequest unwrap(Request request) {
+        if (null == request || !Proxy.isProxyClass(request.getClass())
+                || !(Proxy.getInvocationHandler(request) instanceof MemoryRequest)) {
+            throw new IllegalArgumentException("not a memory request: " + request);
+        }
+        return (MemoryRequest) Proxy.getInvocationHandler(request);
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @param name
+     * @return the variable value, or null
+     */
+    public Object getVariable(String name) {
+        return variables.get(name);
+    }
+
+    /**
+     * @param name
+     * @return the variable value as a string, or null
+     */
+    public String getString(String name) {
+        Object value = variables.get(name);
+        return null == value ? null : value.toString();
+    }
+
+    /**
+     * @return the number of variables named URI-0, URI-1, etc
+     */
+    public int getUriCount() {
+        int count = 0;
+        while (variables.containsKey("URI-" + count)) {
+            count++;
+        }
+        return count;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (name.startsWith("setNew") && name.endsWith("Variable")) {
+            // setNewStringVariable(name, value),
+            // setNewVariable(name, type, value), etc
+            Object key = args[0];
+            variables.put(key instanceof String ? (String) key : key.toString(), args[args.length - 1]);
+            return null;
+        }
+        switch (name) {
+        case "getQuery":
+            return query;
+        case "setQuery":
+            query = (String) args[0];
+            return null;
+        case "setOptions":
+            options = (RequestOptions) args[0];
+            return null;
+        case "getOptions":
+        case "getEffectiveOptions":
+            return options;
+        case "getSession":
+            return session;
+        case "clearVariables":
+            variables.clear();
+            return null;
+        case "toString":
+            return "MemoryRequest" + variables;
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "equals":
+            return proxy == args[0];
+        default:
+            throw new UnsupportedOperationException(name);
+        }
+    }
+}
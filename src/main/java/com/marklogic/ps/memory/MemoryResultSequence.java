@@ -0,0 +1,280 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.memory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import com.marklogic.xcc.Request;
+import com.marklogic.xcc.ResultItem;
+import com.marklogic.xcc.ResultSequence;
+import com.marklogic.xcc.types.ValueType;
+import com.marklogic.xcc.types.XSBoolean;
+import com.marklogic.xcc.types.XSInteger;
+import com.marklogic.xcc.types.XdmElement;
+
+/**
+ * A lazily-evaluated ResultSequence. The XCC result and item interfaces are
+ * large, so they are implemented with dynamic proxies: only the methods
+ * that a client of this package can reach are supported.
+ */
+public class MemoryResultSequence implements InvocationHandler {
+
+    /**
+     * One value in a result sequence.
+     */
+    public static class Item {
+        final ValueType type;
+        final Object value;
+
+        /**
+         * @param type
+         * @param value
+         *            a String, Long, Boolean, or byte[]
+         */
+        public Item(ValueType type, Object value) {
+            this.type = type;
+            this.value = value;
+        }
+
+        public static Item ofString(String value) {
+            return new Item(ValueType.XS_STRING, value);
+        }
+
+        public static Item ofInteger(long value) {
+            return new Item(ValueType.XS_INTEGER, value);
+        }
+
+        public static Item ofBoolean(boolean value) {
+            return new Item(ValueType.XS_BOOLEAN, value);
+        }
+
+        public static Item ofElement(String xml) {
+            return new Item(ValueType.ELEMENT, xml);
+        }
+
+        public static Item ofDocument(byte[] content) {
+            return new Item(ValueType.DOCUMENT, content);
+        }
+    }
+
+    private final Request request;
+    private final Iterator<Item> items;
+    private List<ResultItem> cached = null;
+    private int index = 0;
+    private boolean closed = false;
+
+    /**
+     * @param request
+     * @param items
+     */
+    protected MemoryResultSequence(Request request, Iterator<Item> items) {
+        this.request = request;
+        this.items = items;
+    }
+
+    /**
+     * @param request
+     * @param items
+     * @return a new result sequence
+     */
+    public static ResultSequence newResultSequence(Request request, Iterator<Item> items) {
+        return (ResultSequence) Proxy.newProxyInstance(
+                MemoryResultSequence.class.getClassLoader(),
+                new Class<?>[] { ResultSequence.class },
+                new MemoryResultSequence(request, items));
+    }
+
+    /**
+     * @param request
+     * @param items
+     * @return a new result sequence
+     */
+    public static ResultSequence newResultSequence(Request request, List<Item> items) {
+        return newResultSequence(request, items.iterator());
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "hasNext":
+            return null == cached ? items.hasNext() : index < cached.size();
+        case "next":
+            return next();
+        case "toResultItemArray":
+            return cache().toArray(new ResultItem[0]);
+        case "size":
+            return cache().size();
+        case "isEmpty":
+            return cache().isEmpty();
+        case "resultItemAt":
+        case "itemAt":
+            return cache().get((Integer) args[0]);
+        case "iterator":
+            return cache().iterator();
+        case "asString":
+            StringBuilder buffer = new StringBuilder();
+            for (ResultItem item : cache()) {
+                buffer.append(buffer.length() > 0 ? "\n" : "").append(item.asString());
+            }
+            return buffer.toString();
+        case "close":
+            closed = true;
+            return null;
+        case "isClosed":
+            return closed;
+        case "isCached":
+            return true;
+        case "toCached":
+            return proxy;
+        case "getRequest":
+            return request;
+        case "toString":
+            return "MemoryResultSequence[" + index + "]";
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "equals":
+            return proxy == args[0];
+        default:
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private ResultItem next() {
+        if (null != cached) {
+            if (index >= cached.size()) {
+                throw new NoSuchElementException();
+            }
+            return cached.get(index++);
+        }
+        return newResultItem(items.next(), index++);
+    }
+
+    private List<ResultItem> cache() {
+        if (null == cached) {
+            // XCC returns the remaining items from a streaming sequence
+            cached = new ArrayList<>();
+            while (items.hasNext()) {
+                cached.add(newResultItem(items.next(), index + cached.size()));
+            }
+            index = 0;
+        }
+        return cached;
+    }
+
+    /**
+     * @param item
+     * @param index
+     * @return a proxy that implements ResultItem and the matching XDM type
+     */
+    protected static ResultItem newResultItem(final Item item, final int index) {
+        Class<?> typeClass = null;
+        if (ValueType.XS_INTEGER == item.type) {
+            typeClass = XSInteger.class;
+        } else if (ValueType.XS_BOOLEAN == item.type) {
+            typeClass = XSBoolean.class;
+        } else if (ValueType.ELEMENT == item.type) {
+            typeClass = XdmElement.class;
+        }
+        Class<?>[] interfaces = null == typeClass
+                ? new Class<?>[] { ResultItem.class }
+                : new Class<?>[] { ResultItem.class, typeClass };
+        return (ResultItem) Proxy.newProxyInstance(
+                MemoryResultSequence.class.getClassLoader(), interfaces,
+                (proxy, method, args) -> invokeItem(proxy, item, index, method, args));
+    }
+
+    private static Object invokeItem(Object proxy, Item item, int index, Method method, Object[] args)
+            throws ParserConfigurationException, IOException, SAXException {
+        switch (method.getName()) {
+        case "getItem":
+            return proxy;
+        case "getItemType":
+            return item.type;
+        case "getIndex":
+            return index;
+        case "isCached":
+            return true;
+        case "isFetchable":
+            return false;
+        case "cache":
+            return null;
+        case "asString":
+        case "toString":
+            return asString(item);
+        case "asInputStream":
+            return new ByteArrayInputStream(asBytes(item));
+        case "asReader":
+            if (item.value instanceof byte[]) {
+                return new InputStreamReader(new ByteArrayInputStream((byte[]) item.value), StandardCharsets.UTF_8);
+            }
+            return new StringReader(asString(item));
+        case "asPrimitiveInt":
+            return ((Long) item.value).intValue();
+        case "asPrimitiveLong":
+            return item.value;
+        case "asBigInteger":
+            return BigInteger.valueOf((Long) item.value);
+        case "asPrimitiveBoolean":
+            return item.value;
+        case "asW3cElement":
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            return factory.newDocumentBuilder()
+                    .parse(new InputSource(new StringReader(asString(item))))
+                    .getDocumentElement();
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "equals":
+            return proxy == args[0];
+        default:
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private static String asString(Item item) {
+        if (item.value instanceof byte[]) {
+            return new String((byte[]) item.value, StandardCharsets.UTF_8);
+        }
+        return String.valueOf(item.value);
+    }
+
+    private static byte[] asBytes(Item item) {
+        if (item.value instanceof byte[]) {
+            return (byte[]) item.value;
+        }
+        return asString(item).getBytes(StandardCharsets.UTF_8);
+    }
+}
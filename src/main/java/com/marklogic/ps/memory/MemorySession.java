@@ -0,0 +1,425 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.memory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import com.marklogic.xcc.Content;
+import com.marklogic.xcc.ContentCreateOptions;
+import com.marklogic.xcc.ContentPermission;
+import com.marklogic.xcc.ContentbaseMetaData;
+import com.marklogic.xcc.DocumentFormat;
+import com.marklogic.xcc.Request;
+import com.marklogic.xcc.RequestOptions;
+import com.marklogic.xcc.ResultSequence;
+import com.marklogic.xcc.Session;
+import com.marklogic.xcc.Version;
+import com.marklogic.xcc.exceptions.RequestException;
+import com.marklogic.xcc.exceptions.StreamingResultException;
+import com.marklogic.ps.memory.MemoryResultSequence.Item;
+
+/**
+ * A Session backed by a MemoryDatabase. Rather than evaluating XQuery, it
+ * recognizes the queries that XQSync itself sends, and answers them from
+ * the database. Any other query fails with a RequestException.
+ */
+public class MemorySession implements InvocationHandler {
+
+    public static final String FOREST_NAME_SUFFIX = "-forest";
+
+    private final MemoryContentSource contentSource;
+    private final MemoryDatabase database;
+    private final URI uri;
+    private RequestOptions defaultOptions = new RequestOptions();
+    private Session.TransactionMode transactionMode = Session.TransactionMode.AUTO;
+    private Session.Update update = null;
+    private int transactionTimeout = 0;
+    private Logger logger;
+    private Object userObject = null;
+    private boolean closed = false;
+
+    /**
+     * @param contentSource
+     * @param database
+     * @param uri
+     */
+    protected MemorySession(MemoryContentSource contentSource, MemoryDatabase database, URI uri) {
+        this.contentSource = contentSource;
+        this.database = database;
+        this.uri = uri;
+        logger = contentSource.getDefaultLogger();
+    }
+
+    /**
+     * @param contentSource
+     * @param database
+     * @param uri
+     * @return a new session
+     */
+    public static Session newSession(MemoryContentSource contentSource, MemoryDatabase database, URI uri) {
+        return (Session) Proxy.newProxyInstance(
+                MemorySession.class.getClassLoader(),
+                new Class<?>[] { Session.class },
+                new MemorySession(contentSource, database, uri));
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws RequestException {
+        switch (method.getName()) {
+        case "submitRequest":
+            return submitRequest((Request) args[0]);
+        case "newAdhocQuery":
+            return MemoryRequest.newAdhocQuery((Session) proxy, (String) args[0],
+                    args.length > 1 && null != args[1] ? (RequestOptions) args[1] : defaultOptions);
+        case "insertContent":
+            if (args[0] instanceof Content[]) {
+                insertContent((Content[]) args[0]);
+            } else {
+                insertContent(new Content[] { (Content) args[0] });
+            }
+            return null;
+        case "insertContentCollectErrors":
+            insertContent((Content[]) args[0]);
+            // no errors
+            return null;
+        case "getContentbaseMetaData":
+            return newMetaData();
+        case "getCurrentServerPointInTime":
+            database.roundTrip(null);
+            return database.getTimestamp();
+        case "getContentSource":
+            return contentSource;
+        case "getContentBaseName":
+            return database.getName();
+        case "getConnectionUri":
+            return uri;
+        case "getUserCredentials":
+        case "getXAResource":
+            return null;
+        case "commit":
+            return true;
+        case "rollback":
+        case "setAutoCommit":
+            return null;
+        case "isAutoCommit":
+            return Session.TransactionMode.AUTO == transactionMode;
+        case "close":
+            closed = true;
+            return null;
+        case "isClosed":
+            return closed;
+        case "setDefaultRequestOptions":
+            defaultOptions = null == args[0] ? new RequestOptions() : (RequestOptions) args[0];
+            return null;
+        case "getDefaultRequestOptions":
+        case "getEffectiveRequestOptions":
+            return defaultOptions;
+        case "setUpdate":
+            update = (Session.Update) args[0];
+            return null;
+        case "getUpdate":
+            return update;
+        case "setTransactionMode":
+            transactionMode = (Session.TransactionMode) args[0];
+            return null;
+        case "getTransactionMode":
+            return transactionMode;
+        case "setTransactionTimeout":
+            transactionTimeout = (Integer) args[0];
+            return null;
+        case "getTransactionTimeout":
+        case "getCachedTxnTimeout":
+            return transactionTimeout;
+        case "setLogger":
+            logger = (Logger) args[0];
+            return null;
+        case "getLogger":
+            return logger;
+        case "setUserObject":
+            userObject = args[0];
+            return null;
+        case "getUserObject":
+            return userObject;
+        case "toString":
+            return "MemorySession[" + database.getName() + "]";
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "equals":
+            return proxy == args[0];
+        default:
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    /**
+     * @param request
+     * @return results for a query that XQSync sends
+     * @throws RequestException
+     */
+    protected ResultSequence submitRequest(Request request) throws RequestException {
+        MemoryRequest memoryRequest = MemoryRequest.unwrap(request);
+        database.roundTrip(request);
+        String query = memoryRequest.getQuery();
+        List<Item> items = new ArrayList<>();
+
+        if (query.contains("xdmp:node-kind($ROOT-")) {
+            // SessionReader batch
+            boolean collections = query.contains("xdmp:document-get-collections(");
+            boolean permissions = query.contains("xdmp:document-get-permissions(");
+            boolean properties = query.contains("xdmp:document-properties(");
+            boolean checksum = query.contains("xdmp:invoke($CHECKSUM-MODULE");
+            for (int i = 0; i < memoryRequest.getUriCount(); i++) {
+                String uri = memoryRequest.getString("URI-" + i);
+                addDocument(items, "".equals(uri) ? null : database.get(uri),
+                        collections, permissions, properties, checksum);
+            }
+            if (database.isStreamFailure()) {
+                return failingResultSequence(request, items);
+            }
+        } else if (query.contains("xdmp:estimate(doc())")) {
+            items.add(Item.ofInteger(database.count()));
+        } else if (query.contains("xdmp:document-delete($uri)")) {
+            // Session.deleteDocuments batch
+            for (int i = 0; i < memoryRequest.getUriCount(); i++) {
+                database.delete(memoryRequest.getString("URI-" + i));
+            }
+        } else if (query.contains("xdmp:document-delete($URI)")) {
+            database.delete(memoryRequest.getString("URI"));
+        } else if (query.contains("xdmp:collection-delete($URI)")) {
+            database.deleteCollection(memoryRequest.getString("URI"));
+        } else if (query.contains("xdmp:document-set-properties($URI")) {
+            database.setProperties(memoryRequest.getString("URI"), memoryRequest.getString("XML-STRING"));
+        } else if (query.contains("boolean(doc($URI))")) {
+            items.add(Item.ofBoolean(database.exists(memoryRequest.getString("URI"))));
+        } else if (query.contains("xdmp:invoke(") && memoryRequest.getUriCount() > 0) {
+            // SessionWriter checksum verification
+            for (int i = 0; i < memoryRequest.getUriCount(); i++) {
+                MemoryDocument document = database.get(memoryRequest.getString("URI-" + i));
+                items.add(Item.ofString(null == document ? "" : document.getChecksum()));
+            }
+        } else if (query.contains("cts:uris(") || query.contains("doc()")
+                || query.contains("collection($uri)") || query.contains("xdmp:directory($uri")) {
+            return listUris(request, memoryRequest, query);
+        } else {
+            throw new RequestException("unsupported query in " + database.getName() + ": " + query, request);
+        }
+        return MemoryResultSequence.newResultSequence(request, items);
+    }
+
+    /**
+     * @param request
+     * @param items
+     * @return results that end with a dropped connection, halfway through
+     */
+    private ResultSequence failingResultSequence(final Request request, final List<Item> items) {
+        final int failAt = items.size() / 2;
+        return MemoryResultSequence.newResultSequence(request, new Iterator<Item>() {
+            int index = 0;
+
+            public boolean hasNext() {
+                return true;
+            }
+
+            public Item next() {
+                if (index >= failAt) {
+                    throw new StreamingResultException("injected stream failure in " + database.getName(),
+                            request, new IOException("connection reset"));
+                }
+                return items.get(index++);
+            }
+        });
+    }
+
+    private ResultSequence listUris(Request request, MemoryRequest memoryRequest, String query) {
+        String collection = null;
+        String directory = null;
+        if (query.contains("collection-query($uri)") || query.contains("collection($uri)")) {
+            collection = memoryRequest.getString("uri");
+        } else if (query.contains("directory-query($uri") || query.contains("xdmp:directory($uri")) {
+            directory = memoryRequest.getString("uri");
+        }
+        Iterator<String> all = database.uris(collection, directory);
+        Object since = memoryRequest.getVariable("SINCE");
+        if (null != since) {
+            // delta listing: the last-modified query is not evaluated
+            all = modifiedSince(all, ((Number) since).longValue());
+        }
+        final Iterator<String> uris = all;
+        Object start = memoryRequest.getVariable("start");
+        if (null != start) {
+            // skip to $start, which is one-based
+            for (long i = 1; i < ((Number) start).longValue() && uris.hasNext(); i++) {
+                uris.next();
+            }
+        }
+        return MemoryResultSequence.newResultSequence(request, new Iterator<Item>() {
+            public boolean hasNext() {
+                return uris.hasNext();
+            }
+
+            public Item next() {
+                return Item.ofString(uris.next());
+            }
+        });
+    }
+
+    private Iterator<String> modifiedSince(final Iterator<String> uris, final long since) {
+        return new Iterator<String>() {
+            String next = null;
+
+            public boolean hasNext() {
+                while (null == next && uris.hasNext()) {
+                    String uri = uris.next();
+                    if (database.getLastModified(uri) > since) {
+                        next = uri;
+                    }
+                }
+                return null != next;
+            }
+
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String uri = next;
+                next = null;
+                return uri;
+            }
+        };
+    }
+
+    private void addDocument(List<Item> items, MemoryDocument document,
+            boolean collections, boolean permissions, boolean properties,
+            boolean checksum) {
+        if (null == document) {
+            // empty document, equivalent to an empty text node
+            items.add(Item.ofString(MemoryDocument.KIND_TEXT));
+            items.add(Item.ofInteger(0));
+            items.add(Item.ofDocument(new byte[0]));
+            items.add(Item.ofInteger(0));
+            return;
+        }
+        items.add(Item.ofString(document.getNodeKind()));
+        if (collections) {
+            for (String collection : document.getCollections()) {
+                items.add(Item.ofString(collection));
+            }
+        }
+        if (permissions) {
+            for (ContentPermission permission : document.getPermissions()) {
+                items.add(Item.ofElement(toXml(permission)));
+            }
+        }
+        items.add(Item.ofInteger(document.getQuality()));
+        items.add(Item.ofDocument(document.getContent()));
+        database.addBytesRead(document.getContent().length);
+        if (properties && null != document.getProperties()) {
+            items.add(Item.ofElement(document.getProperties()));
+        }
+        if (checksum) {
+            items.add(Item.ofString(document.getChecksum()));
+        }
+        // end-of-record marker
+        items.add(Item.ofInteger(0));
+    }
+
+    private static String toXml(ContentPermission permission) {
+        return "<sec:permission xmlns:sec=\"http://marklogic.com/xdmp/security\">"
+                + "<sec:capability>" + permission.getCapability() + "</sec:capability>"
+                + "<sec:role-name>" + permission.getRole() + "</sec:role-name>"
+                + "</sec:permission>";
+    }
+
+    /**
+     * @param contents
+     * @throws RequestException
+     */
+    protected void insertContent(Content[] contents) throws RequestException {
+        database.roundTrip(null);
+        for (Content content : contents) {
+            ContentCreateOptions options = content.getCreateOptions();
+            String nodeKind = MemoryDocument.KIND_ELEMENT;
+            DocumentFormat format = null == options ? null : options.getFormat();
+            if (null != format && DocumentFormat.BINARY.toString().equals(format.toString())) {
+                nodeKind = MemoryDocument.KIND_BINARY;
+            } else if (null != format && DocumentFormat.TEXT.toString().equals(format.toString())) {
+                nodeKind = MemoryDocument.KIND_TEXT;
+            }
+            database.put(new MemoryDocument(content.getUri(), nodeKind,
+                    read(content, contents),
+                    null == options ? null : options.getCollections(),
+                    null == options ? null : options.getPermissions(),
+                    null == options ? 0 : options.getQuality(),
+                    null));
+        }
+    }
+
+    private static byte[] read(Content content, Content[] contents) throws RequestException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (InputStream in = content.openDataStream()) {
+            byte[] chunk = new byte[8192];
+            int length;
+            while ((length = in.read(chunk)) > -1) {
+                buffer.write(chunk, 0, length);
+            }
+        } catch (IOException e) {
+            throw new RequestException("error reading " + content.getUri()
+                    + " in batch of " + contents.length, null, e);
+        }
+        return buffer.toByteArray();
+    }
+
+    private ContentbaseMetaData newMetaData() {
+        return (ContentbaseMetaData) Proxy.newProxyInstance(
+                MemorySession.class.getClassLoader(),
+                new Class<?>[] { ContentbaseMetaData.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getDriverVersionString":
+                        return Version.getVersionString();
+                    case "getServerVersionString":
+                        return "memory";
+                    case "getForestMap":
+                        return Collections.singletonMap(database.getName() + FOREST_NAME_SUFFIX, BigInteger.ONE);
+                    case "getForestIds":
+                        return new BigInteger[] { BigInteger.ONE };
+                    case "toString":
+                        return "MemoryMetaData[" + database.getName() + "]";
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
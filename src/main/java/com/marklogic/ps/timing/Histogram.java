@@ -0,0 +1,152 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.timing;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size, thread-safe histogram of non-negative values, such as
+ * durations in nanoseconds. Unlike Timer, it never keeps individual
+ * events, so memory use is constant. Each power of two is split into
+ * eight buckets, so percentiles are accurate to within 12.5%.
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * (64 - SUB_BITS + 1));
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value
+     *            negative values are recorded as 0
+     */
+    public void add(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @param other
+     *            added to this histogram
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            long n = other.counts.get(i);
+            if (n > 0) {
+                counts.addAndGet(i, n);
+            }
+        }
+        count.add(other.getCount());
+        sum.add(other.getSum());
+        long value = other.getMax();
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean value, or 0 if empty
+     */
+    public long getMean() {
+        long n = getCount();
+        return 0 == n ? 0 : getSum() / n;
+    }
+
+    /**
+     * @param p
+     *            percentile, from 0 to 100
+     * @return the upper bound of the bucket holding that percentile, capped
+     *         at the maximum value, or 0 if empty
+     */
+    public long getPercentile(double p) {
+        long n = getCount();
+        if (0 == n) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * p / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(getMax(), upperBound(i));
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @param value
+     * @return the bucket for the value
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @param index
+     * @return the largest value in the bucket
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+        long upper = lower + (1L << (exponent - SUB_BITS)) - 1;
+        // the top buckets overflow
+        return upper < lower ? Long.MAX_VALUE : upper;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.timing;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe duration histograms and byte counters for the stages of a
+ * pipeline, named by an enum. Stages may nest, so their times need not
+ * add up to the elapsed time.
+ *
+ * @param <E>
+ *            the stages
+ */
+public class StageTimer<E extends Enum<E>> {
+
+    private final E[] stages;
+    private final Histogram[] durations;
+    private final LongAdder[] bytes;
+
+    /**
+     * @param type
+     */
+    public StageTimer(Class<E> type) {
+        stages = type.getEnumConstants();
+        durations = new Histogram[stages.length];
+        bytes = new LongAdder[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            durations[i] = new Histogram();
+            bytes[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return the start time, to pass to record()
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @param stage
+     * @param start
+     *            from start()
+     * @return the current time, which may be the start of the next stage
+     */
+    public long record(E stage, long start) {
+        return record(stage, start, 0);
+    }
+
+    /**
+     * @param stage
+     * @param start
+     *            from start()
+     * @param byteCount
+     * @return the current time, which may be the start of the next stage
+     */
+    public long record(E stage, long start, long byteCount) {
+        long now = System.nanoTime();
+        durations[stage.ordinal()].add(now - start);
+        if (byteCount > 0) {
+            bytes[stage.ordinal()].add(byteCount);
+        }
+        return now;
+    }
+
+    /**
+     * @param stage
+     * @return durations for the stage, in nanoseconds
+     */
+    public Histogram getHistogram(E stage) {
+        return durations[stage.ordinal()];
+    }
+
+    /**
+     * @param stage
+     * @return bytes counted for the stage
+     */
+    public long getBytes(E stage) {
+        return bytes[stage.ordinal()].sum();
+    }
+
+    /**
+     * @return one short entry per active stage: mean and 99th percentile
+     *         milliseconds
+     */
+    public String getProgressMessage() {
+        StringBuilder message = new StringBuilder();
+        for (E stage : stages) {
+            Histogram histogram = durations[stage.ordinal()];
+            if (0 == histogram.getCount()) {
+                continue;
+            }
+            if (message.length() > 0) {
+                message.append(", ");
+            }
+            message.append(stage).append(' ')
+                .append(millis(histogram.getMean())).append('/')
+                .append(millis(histogram.getPercentile(99))).append(" ms");
+        }
+        return message.toString();
+    }
+
+    /**
+     * @return one line per active stage, with count, total time,
+     *         percentiles, and throughput
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (E stage : stages) {
+            Histogram histogram = durations[stage.ordinal()];
+            long count = histogram.getCount();
+            if (0 == count) {
+                continue;
+            }
+            long total = histogram.getSum();
+            summary.append(String.format("%-20s %10d x %10.1f s: mean %s, p50 %s, p90 %s, p99 %s, max %s ms",
+                    stage, count, total / (double) Timer.NANOSECONDS_PER_SECOND,
+                    millis(histogram.getMean()), millis(histogram.getPercentile(50)),
+                    millis(histogram.getPercentile(90)), millis(histogram.getPercentile(99)),
+                    millis(histogram.getMax())));
+            long stageBytes = getBytes(stage);
+            if (stageBytes > 0 && total > 0) {
+                summary.append(String.format(", %d kB, %.0f kB/s",
+                        stageBytes / Timer.BYTES_PER_KILOBYTE,
+                        stageBytes / (double) Timer.BYTES_PER_KILOBYTE
+                                / (total / (double) Timer.NANOSECONDS_PER_SECOND)));
+            }
+            summary.append('\n');
+        }
+        return summary.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / (double) Timer.NANOSECONDS_PER_MILLISECOND);
+    }
+}
@@ -70,6 +70,10 @@ public abstract class AbstractWriter implements WriterInterface {
         int bytes = 0;
         if (null != outputUri) {
             for (int i = 0; i < outputUri.length; i++) {
+                if (null == outputUri[i]) {
+                    // short batch, or skipped
+                    continue;
+                }
                 bytes += write(outputUri[i], contentBytes[i], metadata[i]);
             }
         }
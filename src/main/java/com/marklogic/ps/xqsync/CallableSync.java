@@ -109,8 +109,6 @@ public class CallableSync implements Callable<TimedEvent[]> {
             if (null != reader) {
                 reader.close();
             }
-            // avoid starving other threads
-            Thread.yield();
         }
     }
 
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import com.marklogic.xcc.Request;
+import com.marklogic.xcc.RequestOptions;
+import com.marklogic.xcc.ResultItem;
+import com.marklogic.xcc.ResultSequence;
+import com.marklogic.xcc.Session;
+import com.marklogic.xcc.exceptions.XccException;
+
+/**
+ * Fetches CHECKSUM_MODULE values for a batch of uris in one request.
+ */
+class ChecksumQuery {
+
+    private ChecksumQuery() {
+    }
+
+    /**
+     * @param module
+     * @param uriCount
+     * @return a query returning one string per $URI-n, empty if the
+     *         document does not exist
+     */
+    static String newQuery(String module, int uriCount) {
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < uriCount; i++) {
+            query.append("declare variable $URI-").append(i).append(" external;\n");
+        }
+        query.append("\n");
+        for (int i = 0; i < uriCount; i++) {
+            query.append("string(xdmp:invoke(\"").append(module)
+                .append("\", (xs:QName(\"URI\"), $URI-").append(i).append("))[1])\n");
+            if (i < uriCount - 1) {
+                query.append(",\n");
+            }
+        }
+        return query.toString();
+    }
+
+    /**
+     * @param session
+     * @param query
+     *            from newQuery(), for exactly as many uris
+     * @param uris
+     * @param options
+     *            may be null
+     * @return the checksum for each uri, empty if the document does not exist
+     * @throws XccException
+     * @throws SyncException
+     */
+    static String[] fetch(Session session, String query, String[] uris, RequestOptions options) throws XccException, SyncException {
+        Request request = null == options ? session.newAdhocQuery(query) : session.newAdhocQuery(query, options);
+        for (int i = 0; i < uris.length; i++) {
+            request.setNewStringVariable("URI-" + i, uris[i]);
+        }
+        ResultItem[] items;
+        try (ResultSequence rs = session.submitRequest(request)) {
+            items = rs.toResultItemArray();
+        }
+        if (items.length != uris.length) {
+            throw new SyncException("expected " + uris.length + " checksums, got " + items.length);
+        }
+        String[] checksums = new String[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            checksums[i] = items[i].asString();
+        }
+        return checksums;
+    }
+}
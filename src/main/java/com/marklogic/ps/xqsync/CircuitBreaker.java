@@ -0,0 +1,152 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.marklogic.ps.SimpleLogger;
+
+/**
+ * Stops every worker from sending requests to a host that keeps failing.
+ * After enough consecutive failures the breaker opens, and callers of
+ * await() wait. Once the open interval has passed, one caller is let
+ * through as a probe: if it succeeds the breaker closes, and if it fails
+ * the breaker opens again for twice as long.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    protected final String name;
+    protected final int failureThreshold;
+    protected final long baseOpenMillis;
+    protected final long maxOpenMillis;
+    protected final long jitterMillis;
+    protected final SimpleLogger logger;
+
+    protected State state = State.CLOSED;
+    protected int consecutiveFailures = 0;
+    protected long openMillis;
+    protected long openUntil = 0;
+    protected long probeStarted = 0;
+
+    /**
+     * @param name
+     *            for log messages
+     * @param failureThreshold
+     *            consecutive failures that open the breaker, or 0 to never
+     *            open it
+     * @param openMillis
+     * @param maxOpenMillis
+     * @param jitterMillis
+     *            the maximum random delay for waiters, once the breaker
+     *            closes, so that they do not all resume at once
+     * @param logger
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis, long maxOpenMillis, long jitterMillis, SimpleLogger logger) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.baseOpenMillis = openMillis;
+        this.openMillis = openMillis;
+        this.maxOpenMillis = Math.max(openMillis, maxOpenMillis);
+        this.jitterMillis = jitterMillis;
+        this.logger = logger;
+    }
+
+    /**
+     * Wait until a request may be sent.
+     *
+     * @return true if the caller is the probe. A failed probe only reopens
+     *         the breaker, so it should not count against the caller's
+     *         retries.
+     * @throws InterruptedException
+     */
+    public boolean await() throws InterruptedException {
+        boolean waited = false;
+        synchronized (this) {
+            while (true) {
+                long now = System.currentTimeMillis();
+                if (State.CLOSED == state) {
+                    break;
+                }
+                if (State.OPEN == state && now >= openUntil) {
+                    // this caller is the probe
+                    state = State.HALF_OPEN;
+                    probeStarted = now;
+                    logger.info(name + ": probing");
+                    return true;
+                }
+                if (State.HALF_OPEN == state && now - probeStarted >= openMillis) {
+                    // the probe never reported: try another
+                    probeStarted = now;
+                    return true;
+                }
+                waited = true;
+                wait(Math.max(1, (State.OPEN == state ? openUntil : probeStarted + openMillis) - now));
+            }
+        }
+        if (waited && jitterMillis > 0) {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(jitterMillis + 1));
+        }
+        return false;
+    }
+
+    /**
+     * The host answered, even if with an error of its own.
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (State.CLOSED != state) {
+            logger.info(name + ": closed");
+            state = State.CLOSED;
+            openMillis = baseOpenMillis;
+            notifyAll();
+        }
+    }
+
+    /**
+     * The host could not be reached, or asked for a retry.
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (State.HALF_OPEN == state) {
+            openMillis = Math.min(2 * openMillis, maxOpenMillis);
+            open();
+        } else if (State.CLOSED == state && failureThreshold > 0 && consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + openMillis;
+        logger.warning(name + ": open for " + openMillis + " ms after " + consecutiveFailures + " consecutive failures");
+        notifyAll();
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
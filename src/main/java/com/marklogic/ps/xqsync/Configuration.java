@@ -30,11 +30,15 @@ import java.util.Collection;
 import java.util.Properties;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 
 import com.marklogic.ps.Connection;
 import com.marklogic.ps.Session;
 import com.marklogic.ps.Utilities;
+import com.marklogic.ps.memory.MemoryContentSource;
+import com.marklogic.ps.timing.StageTimer;
+import com.marklogic.ps.timing.Timer;
 import com.marklogic.xcc.ContentCapability;
 import com.marklogic.xcc.ContentPermission;
 import com.marklogic.xcc.exceptions.RequestException;
@@ -65,7 +69,11 @@ public class Configuration extends AbstractConfiguration {
     public static final String INPUT_BATCH_SIZE_KEY = "INPUT_BATCH_SIZE";
     public static final String INPUT_BATCH_SIZE_DEFAULT = "1";
     public static final String OUTPUT_BATCH_SIZE_KEY = "OUTPUT_BATCH_SIZE";
-    public static final String OUTPUT_BATCH_SIZE_DEFAULT = "1";
+    public static final String OUTPUT_BATCH_SIZE_DEFAULT = "0";
+    public static final String OUTPUT_BATCH_BYTES_KEY = "OUTPUT_BATCH_BYTES";
+    public static final String OUTPUT_BATCH_BYTES_DEFAULT = "16777216";
+    public static final String OUTPUT_BATCH_MILLIS_KEY = "OUTPUT_BATCH_MILLIS";
+    public static final String OUTPUT_BATCH_MILLIS_DEFAULT = "100";
     public static final String USE_MULTI_STMT_TXN_KEY = "USE_MULTI_STMT_TXN";
     public static final String USE_MULTI_STMT_TXN_DEFAULT = "false";
     public static final String ENCODE_OUTPUT_URI_KEY = "ENCODE_OUTPUT_URI";
@@ -76,11 +84,26 @@ public class Configuration extends AbstractConfiguration {
     public static final String INPUT_CACHABLE_DEFAULT = "" + false;
     public static final String INPUT_COLLECTION_URI_KEY = "INPUT_COLLECTION_URI";
     public static final String INPUT_CONNECTION_STRING_KEY = "INPUT_CONNECTION_STRING";
+    public static final String INPUT_DELTA_DELETES_KEY = "INPUT_DELTA_DELETES";
+    public static final String INPUT_DELTA_DELETES_DEFAULT = "false";
+    public static final String INPUT_DELTA_OVERLAP_SECONDS_KEY = "INPUT_DELTA_OVERLAP_SECONDS";
+    public static final String INPUT_DELTA_OVERLAP_SECONDS_DEFAULT = "300";
+    public static final String INPUT_DELTA_QUERY_KEY = "INPUT_DELTA_QUERY";
+    public static final String INPUT_DELTA_STATE_KEY = "INPUT_DELTA_STATE";
     public static final String INPUT_DIRECTORY_URI_KEY = "INPUT_DIRECTORY_URI";
     public static final String INPUT_DOCUMENT_URIS_KEY = "INPUT_DOCUMENT_URIS";
     public static final String INPUT_MODULE_URI_KEY = "INPUT_MODULE_URI";
     public static final String INPUT_PACKAGE_KEY = "INPUT_PACKAGE";
+    public static final String INPUT_PACKAGE_OPEN_MAX_KEY = "INPUT_PACKAGE_OPEN_MAX";
+    public static final String INPUT_PACKAGE_OPEN_MAX_DEFAULT = "8";
+    public static final String INPUT_PACKAGE_READ_AHEAD_BYTES_KEY = "INPUT_PACKAGE_READ_AHEAD_BYTES";
+    public static final String INPUT_PACKAGE_READ_AHEAD_BYTES_DEFAULT = "67108864";
     public static final String INPUT_PATH_KEY = "INPUT_PATH";
+    public static final String INPUT_PATH_MANIFEST_KEY = "INPUT_PATH_MANIFEST";
+    public static final String INPUT_PATH_MANIFEST_DELETES_KEY = "INPUT_PATH_MANIFEST_DELETES";
+    public static final String INPUT_PATH_MANIFEST_DELETES_DEFAULT = "false";
+    public static final String INPUT_PATH_THREADS_KEY = "INPUT_PATH_THREADS";
+    public static final String INPUT_PATH_THREADS_DEFAULT = "4";
     public static final String INPUT_QUERY_KEY = "INPUT_QUERY";
     public static final String INPUT_QUERY_BUFFER_BYTES_KEY = "INPUT_QUERY_BUFFER_BYTES";
     public static final String INPUT_QUERY_BUFFER_BYTES_DEFAULT = "0";
@@ -92,11 +115,24 @@ public class Configuration extends AbstractConfiguration {
     public static final String INPUT_INDENTED_KEY = "INPUT_INDENTED";
     public static final String MAX_RETRIES_DEFAULT = "5";
     public static final String MAX_RETRIES_KEY = "MAX_RETRIES";
+    public static final String METRICS_FILE_KEY = "METRICS_FILE";
+    public static final String METRICS_FORMAT_KEY = "METRICS_FORMAT";
+    public static final String METRICS_FORMAT_DEFAULT = MetricsWriter.FORMAT_PROMETHEUS;
+    public static final String METRICS_INTERVAL_SECONDS_KEY = "METRICS_INTERVAL_SECONDS";
+    public static final String METRICS_INTERVAL_SECONDS_DEFAULT = "15";
     public static final String OUTPUT_COLLECTIONS_KEY = "OUTPUT_COLLECTIONS";
     public static final String OUTPUT_CONNECTION_STRING_KEY = "OUTPUT_CONNECTION_STRING";
     public static final String OUTPUT_FILTER_FORMATS_KEY = "OUTPUT_FILTER_FORMATS";
     public static final String OUTPUT_FORESTS_KEY = "OUTPUT_FORESTS";
     public static final String OUTPUT_PACKAGE_KEY = "OUTPUT_PACKAGE";
+    public static final String OUTPUT_PACKAGE_DICTIONARY_SAMPLES_KEY = "OUTPUT_PACKAGE_DICTIONARY_SAMPLES";
+    public static final String OUTPUT_PACKAGE_DICTIONARY_SAMPLES_DEFAULT = "0";
+    public static final String OUTPUT_PACKAGE_INDEX_KEY = "OUTPUT_PACKAGE_INDEX";
+    public static final String OUTPUT_PACKAGE_INDEX_DEFAULT = "true";
+    public static final String OUTPUT_PACKAGE_METADATA_KEY = "OUTPUT_PACKAGE_METADATA";
+    public static final String OUTPUT_PACKAGE_METADATA_ENTRIES = "entries";
+    public static final String OUTPUT_PACKAGE_METADATA_MANIFEST = "manifest";
+    public static final String OUTPUT_PACKAGE_METADATA_DEFAULT = OUTPUT_PACKAGE_METADATA_ENTRIES;
     public static final String OUTPUT_PATH_KEY = "OUTPUT_PATH";
     public static final String QUEUE_SIZE_KEY = "QUEUE_SIZE";
     public static final String ROLES_READ_KEY = "ROLES_READ";
@@ -104,10 +140,19 @@ public class Configuration extends AbstractConfiguration {
     public static final String ROLES_INSERT_KEY = "ROLES_INSERT";
     public static final String ROLES_EXECUTE_KEY = "ROLES_EXECUTE";
     public static final String REPAIR_INPUT_XML_KEY = "REPAIR_INPUT_XML";
+    public static final String RETRY_BASE_MILLIS_KEY = "RETRY_BASE_MILLIS";
+    public static final String RETRY_BASE_MILLIS_DEFAULT = "250";
+    public static final String RETRY_MAX_MILLIS_KEY = "RETRY_MAX_MILLIS";
+    public static final String RETRY_MAX_MILLIS_DEFAULT = "60000";
+    public static final String RETRY_BUDGET_PERCENT_KEY = "RETRY_BUDGET_PERCENT";
+    public static final String RETRY_BUDGET_PERCENT_DEFAULT = "20";
+    public static final String RETRY_BUDGET_RESERVE_KEY = "RETRY_BUDGET_RESERVE";
+    public static final String RETRY_BUDGET_RESERVE_DEFAULT = "100";
     public static final String REPAIR_INPUT_XML_DEFAULT = "false";
     public static final String REPAIR_MULTIPLE_DOCUMENTS_PER_URI_DEFAULT = "false";
     public static final String REPAIR_MULTIPLE_DOCUMENTS_PER_URI_KEY = "REPAIR_MULTIPLE_DOCUMENTS_PER_URI";
     public static final String SKIP_EXISTING_KEY = "SKIP_EXISTING";
+    public static final String SKIP_UNCHANGED_KEY = "SKIP_UNCHANGED";
     public static final String THREADS_KEY = "THREADS";
     public static final String THREADS_DEFAULT = "1";
     public static final String THROTTLE_EVENTS_KEY = "THROTTLE_EVENTS_PER_SECOND";
@@ -124,18 +169,36 @@ public class Configuration extends AbstractConfiguration {
     public static final String TMP_DIR_DEFAULT = null;
     public static final String URI_QUEUE_FILE_KEY = "URI_QUEUE_FILE";
     public static final String URI_QUEUE_FILE_DEFAULT = null;
+    public static final String URI_QUEUE_MEMORY_BYTES_KEY = "URI_QUEUE_MEMORY_BYTES";
+    public static final String URI_QUEUE_OVERFLOW_KEY = "URI_QUEUE_OVERFLOW";
+    public static final String URI_QUEUE_OVERFLOW_SPILL = "spill";
+    public static final String URI_QUEUE_OVERFLOW_BLOCK = "block";
+    public static final String URI_QUEUE_OVERFLOW_DEFAULT = URI_QUEUE_OVERFLOW_SPILL;
     public static final String KEEP_URI_QUEUE_FILE_KEY = "KEEP_URI_QUEUE_FILE";
     public static final String KEEP_URI_QUEUE_FILE_DEFAULT = "false";
     public static final String PRINT_CURRENT_RATE_KEY = "PRINT_CURRENT_RATE";
     public static final String PRINT_CURRENT_RATE_DEFAULT = "false";
+    public static final String PROGRESS_INTERVAL_SECONDS_KEY = "PROGRESS_INTERVAL_SECONDS";
+    public static final String PROGRESS_INTERVAL_SECONDS_DEFAULT = "60";
     public static final String USE_IN_FOREST_EVAL_KEY = "USE_IN_FOREST_EVAL";
     public static final String USE_IN_FOREST_EVAL_DEFAULT = "false";
+    public static final String USE_VIRTUAL_THREADS_KEY = "USE_VIRTUAL_THREADS";
+    public static final String USE_VIRTUAL_THREADS_DEFAULT = "false";
     public static final String CHECKSUM_MODULE_KEY = "CHECKSUM_MODULE";
+    public static final String CIRCUIT_BREAKER_FAILURES_KEY = "CIRCUIT_BREAKER_FAILURES";
+    public static final String CIRCUIT_BREAKER_FAILURES_DEFAULT = "5";
+    public static final String CIRCUIT_BREAKER_OPEN_MILLIS_KEY = "CIRCUIT_BREAKER_OPEN_MILLIS";
+    public static final String CIRCUIT_BREAKER_OPEN_MILLIS_DEFAULT = "1000";
+    public static final String CIRCUIT_BREAKER_MAX_OPEN_MILLIS_KEY = "CIRCUIT_BREAKER_MAX_OPEN_MILLIS";
+    public static final String CIRCUIT_BREAKER_MAX_OPEN_MILLIS_DEFAULT = "60000";
+    public static final String CIRCUIT_BREAKER_JITTER_MILLIS_KEY = "CIRCUIT_BREAKER_JITTER_MILLIS";
+    public static final String CIRCUIT_BREAKER_JITTER_MILLIS_DEFAULT = "250";
     /* internal constants */
     protected static final String CSV_SCSV_SSV_REGEX = "[,;\\s]+";
     protected static final String XCC_PREFIX = "xcc://";
     protected static final String XCCS_PREFIX = "xccs://";
     protected static final String XCC_PREFIX_OLD = "xdbc://";
+    protected static final String MEM_PREFIX = MemoryContentSource.SCHEME + "://";
     /* fields */
     protected final Collection<ContentPermission> permissionRoles = new ArrayList<>();
     protected String[] placeKeys = null;
@@ -155,6 +218,9 @@ public class Configuration extends AbstractConfiguration {
     protected BigInteger timestamp;
     private int outputConnectionCount = 0;
     protected Map<String, BigInteger> forestMap = null;
+    protected final StageTimer<Stage> stageTimer = new StageTimer<>(Stage.class);
+    protected final LongAdder retryCount = new LongAdder();
+    protected RetryPolicy retryPolicy = null;
 
     /*
      * (non-Javadoc)
@@ -228,6 +294,39 @@ public class Configuration extends AbstractConfiguration {
             }
         }
 
+        if (Utilities.stringToBoolean(properties.getProperty(SKIP_UNCHANGED_KEY)) && !useChecksumModule()) {
+            logger.warning("ignoring " + SKIP_UNCHANGED_KEY + " because "
+                    + CHECKSUM_MODULE_KEY + " is not set.");
+        }
+
+        String overflow = properties.getProperty(URI_QUEUE_OVERFLOW_KEY, URI_QUEUE_OVERFLOW_DEFAULT);
+        if (!URI_QUEUE_OVERFLOW_SPILL.equalsIgnoreCase(overflow) && !URI_QUEUE_OVERFLOW_BLOCK.equalsIgnoreCase(overflow)) {
+            throw new SyncException("unsupported " + URI_QUEUE_OVERFLOW_KEY + ": " + overflow);
+        }
+
+        if (getOutputBatchSize() < 0) {
+            throw new SyncException(OUTPUT_BATCH_SIZE_KEY + " may not be negative: " + getOutputBatchSize());
+        }
+        if (getOutputBatchBytes() < 1 || getOutputBatchMillis() < 1) {
+            throw new SyncException(OUTPUT_BATCH_BYTES_KEY + " and " + OUTPUT_BATCH_MILLIS_KEY + " must be positive");
+        }
+        if (isOutputConnection() && getOutputBatchSize() > getThreadCount() * getInputBatchSize()) {
+            // each task waits for its batch, so only the timeout can write it
+            logger.warning(OUTPUT_BATCH_SIZE_KEY + " " + getOutputBatchSize() + " is larger than "
+                    + THREADS_KEY + " x " + INPUT_BATCH_SIZE_KEY + ": output batches will wait "
+                    + getOutputBatchMillis() + " ms to fill");
+        }
+
+        String packageMetadata = properties.getProperty(OUTPUT_PACKAGE_METADATA_KEY, OUTPUT_PACKAGE_METADATA_DEFAULT);
+        if (!OUTPUT_PACKAGE_METADATA_ENTRIES.equals(packageMetadata)
+                && !OUTPUT_PACKAGE_METADATA_MANIFEST.equals(packageMetadata)) {
+            throw new SyncException("unsupported " + OUTPUT_PACKAGE_METADATA_KEY + ": " + packageMetadata);
+        }
+
+        if (null != getMetricsFile() && !MetricsWriter.isFormat(getMetricsFormat())) {
+            throw new SyncException("unsupported " + METRICS_FORMAT_KEY + ": " + getMetricsFormat());
+        }
+
         uriPrefix = properties.getProperty(URI_PREFIX_KEY);
 
         getPermissionRole(ROLES_READ_KEY, ContentPermission.READ);
@@ -287,7 +386,7 @@ public class Configuration extends AbstractConfiguration {
                 inputUri[i] = new URI(inputStrings[i]);
 
                 String[] splitStr = inputStrings[i].split("@");
-                logger.info("input connection string: " + splitStr[1]);
+                logger.info("input connection string: " + splitStr[splitStr.length - 1]);
             }
             inputConnection = new Connection(inputUri);
         }
@@ -322,7 +421,7 @@ public class Configuration extends AbstractConfiguration {
                 for (int i = 0; i < outputConnection.length; i++) {
                     outputConnection[i] = new Connection(new URI(outputConnectionStrings[i]));
                     String[] splitStr = outputConnectionStrings[i].split("@");
-                    logger.info("output connection string: " + splitStr[1]);
+                    logger.info("output connection string: " + splitStr[splitStr.length - 1]);
                 }
             }
         }
@@ -376,7 +475,8 @@ public class Configuration extends AbstractConfiguration {
     protected boolean isValidConnectionString(String connectionString) {
         return connectionString.startsWith(XCC_PREFIX)
                 || connectionString.startsWith(XCCS_PREFIX)
-                || connectionString.startsWith(XCC_PREFIX_OLD);
+                || connectionString.startsWith(XCC_PREFIX_OLD)
+                || connectionString.startsWith(MEM_PREFIX);
     }
 
     /**
@@ -643,6 +743,23 @@ public class Configuration extends AbstractConfiguration {
 
     }
 
+    /**
+     * @return true if documents whose output checksum already matches the
+     *         input checksum should not be written
+     */
+    public boolean isSkipUnchanged() {
+        return Utilities.stringToBoolean(properties.getProperty(SKIP_UNCHANGED_KEY)) && useChecksumModule();
+    }
+
+    /**
+     * @return true if SessionReader should compare input and output
+     *         checksums before fetching documents, so that unchanged
+     *         documents are never transferred
+     */
+    public boolean isSkipUnchangedBeforeRead() {
+        return isSkipUnchanged() && null != inputConnection && null != outputConnection;
+    }
+
     /**
      * @return
      */
@@ -671,6 +788,51 @@ public class Configuration extends AbstractConfiguration {
         return null != outputCollections && outputCollections.length > 0;
     }
 
+    /**
+     * @return input packages that may be open at once
+     */
+    public int getInputPackageOpenMax() {
+        return Math.max(1, Integer.parseInt(properties.getProperty(INPUT_PACKAGE_OPEN_MAX_KEY,
+                INPUT_PACKAGE_OPEN_MAX_DEFAULT)));
+    }
+
+    /**
+     * @return inflated input package bytes to read ahead of the workers,
+     *         shared by the open packages, or 0 to read each entry as it is
+     *         needed
+     */
+    public long getInputPackageReadAheadBytes() {
+        return Long.parseLong(properties.getProperty(INPUT_PACKAGE_READ_AHEAD_BYTES_KEY,
+                INPUT_PACKAGE_READ_AHEAD_BYTES_DEFAULT));
+    }
+
+    /**
+     * @return true if output packages should be written with a sidecar
+     *         index, and a catalog
+     */
+    public boolean isOutputPackageIndex() {
+        return Utilities.stringToBoolean(properties.getProperty(OUTPUT_PACKAGE_INDEX_KEY,
+                OUTPUT_PACKAGE_INDEX_DEFAULT));
+    }
+
+    /**
+     * @return documents to sample for each output package's preset
+     *         dictionary, or 0 for none
+     */
+    public int getOutputPackageDictionarySamples() {
+        return Integer.parseInt(properties.getProperty(OUTPUT_PACKAGE_DICTIONARY_SAMPLES_KEY,
+                OUTPUT_PACKAGE_DICTIONARY_SAMPLES_DEFAULT));
+    }
+
+    /**
+     * @return true if output packages should hold one metadata manifest,
+     *         instead of a metadata entry per document
+     */
+    public boolean isOutputPackageManifest() {
+        return OUTPUT_PACKAGE_METADATA_MANIFEST.equals(properties.getProperty(OUTPUT_PACKAGE_METADATA_KEY,
+                OUTPUT_PACKAGE_METADATA_DEFAULT));
+    }
+
     /**
      * @return
      */
@@ -685,6 +847,27 @@ public class Configuration extends AbstractConfiguration {
         return timestamp;
     }
 
+    /**
+     * @return per-stage timings for this run
+     */
+    public StageTimer<Stage> getStageTimer() {
+        return stageTimer;
+    }
+
+    /**
+     * Call whenever a reader or writer retries a request.
+     */
+    public void incrementRetryCount() {
+        retryCount.increment();
+    }
+
+    /**
+     * @return the number of retried requests in this run
+     */
+    public long getRetryCount() {
+        return retryCount.sum();
+    }
+
     /**
      * @return
      */
@@ -744,10 +927,97 @@ public class Configuration extends AbstractConfiguration {
     }
 
     /**
-     * @return
+     * @return the backoff ceiling after the first failure
+     */
+    public long getRetryBaseMillis() {
+        return Long.parseLong(properties.getProperty(RETRY_BASE_MILLIS_KEY, RETRY_BASE_MILLIS_DEFAULT));
+    }
+
+    /**
+     * @return the largest backoff ceiling, and the longest time a circuit
+     *         breaker stays open
+     */
+    public long getRetryMaxMillis() {
+        return Long.parseLong(properties.getProperty(RETRY_MAX_MILLIS_KEY, RETRY_MAX_MILLIS_DEFAULT));
+    }
+
+    /**
+     * @return retries earned per hundred successful requests
+     */
+    public double getRetryBudgetPercent() {
+        return Double.parseDouble(properties.getProperty(RETRY_BUDGET_PERCENT_KEY, RETRY_BUDGET_PERCENT_DEFAULT));
+    }
+
+    /**
+     * @return retries allowed before any are earned
+     */
+    public double getRetryBudgetReserve() {
+        return Double.parseDouble(properties.getProperty(RETRY_BUDGET_RESERVE_KEY, RETRY_BUDGET_RESERVE_DEFAULT));
+    }
+
+    /**
+     * @return consecutive failures that open a host's circuit breaker, or 0
+     *         to disable it
+     */
+    public int getCircuitBreakerFailures() {
+        return Integer.parseInt(properties.getProperty(CIRCUIT_BREAKER_FAILURES_KEY, CIRCUIT_BREAKER_FAILURES_DEFAULT));
+    }
+
+    /**
+     * @return how long a circuit breaker stays open before the first probe
+     */
+    public long getCircuitBreakerOpenMillis() {
+        return Long.parseLong(properties.getProperty(CIRCUIT_BREAKER_OPEN_MILLIS_KEY, CIRCUIT_BREAKER_OPEN_MILLIS_DEFAULT));
+    }
+
+    /**
+     * @return the longest a circuit breaker stays open, as failed probes
+     *         double the open time
+     */
+    public long getCircuitBreakerMaxOpenMillis() {
+        return Long.parseLong(properties.getProperty(CIRCUIT_BREAKER_MAX_OPEN_MILLIS_KEY,
+                CIRCUIT_BREAKER_MAX_OPEN_MILLIS_DEFAULT));
+    }
+
+    /**
+     * @return the maximum random delay for waiters once a circuit breaker
+     *         closes
+     */
+    public long getCircuitBreakerJitterMillis() {
+        return Long.parseLong(properties.getProperty(CIRCUIT_BREAKER_JITTER_MILLIS_KEY,
+                CIRCUIT_BREAKER_JITTER_MILLIS_DEFAULT));
+    }
+
+    /**
+     * @return the retry policy shared by every reader and writer
+     */
+    public synchronized RetryPolicy getRetryPolicy() {
+        if (null == retryPolicy) {
+            retryPolicy = new RetryPolicy(this);
+        }
+        return retryPolicy;
+    }
+
+    /**
+     * @return documents per output transaction, across tasks, or 0 to
+     *         write each input batch as it was read
      */
     public int getOutputBatchSize() {
-        return Integer.parseInt(properties.getProperty(OUTPUT_BATCH_SIZE_KEY));
+        return Integer.parseInt(properties.getProperty(OUTPUT_BATCH_SIZE_KEY, OUTPUT_BATCH_SIZE_DEFAULT));
+    }
+
+    /**
+     * @return content bytes that end an output transaction early
+     */
+    public long getOutputBatchBytes() {
+        return Long.parseLong(properties.getProperty(OUTPUT_BATCH_BYTES_KEY, OUTPUT_BATCH_BYTES_DEFAULT));
+    }
+
+    /**
+     * @return how long a partial output transaction waits for more documents
+     */
+    public long getOutputBatchMillis() {
+        return Long.parseLong(properties.getProperty(OUTPUT_BATCH_MILLIS_KEY, OUTPUT_BATCH_MILLIS_DEFAULT));
     }
 
     /**
@@ -851,6 +1121,24 @@ public class Configuration extends AbstractConfiguration {
         return properties.getProperty(URI_QUEUE_FILE_KEY, URI_QUEUE_FILE_DEFAULT);
     }
 
+    /**
+     * @return the memory budget for the in-memory uri queue, by default
+     *         one eighth of the maximum heap
+     */
+    public long getUriQueueMemoryBytes() {
+        String p = properties.getProperty(URI_QUEUE_MEMORY_BYTES_KEY);
+        return null == p ? Runtime.getRuntime().maxMemory() / 8 : Long.parseLong(p);
+    }
+
+    /**
+     * @return true if adding to a full in-memory uri queue should block,
+     *         false if it should spill to a temporary file
+     */
+    public boolean isUriQueueBlocking() {
+        return URI_QUEUE_OVERFLOW_BLOCK.equalsIgnoreCase(
+                properties.getProperty(URI_QUEUE_OVERFLOW_KEY, URI_QUEUE_OVERFLOW_DEFAULT));
+    }
+
     /**
      * @return whether the queue file should be kept
      */
@@ -867,6 +1155,36 @@ public class Configuration extends AbstractConfiguration {
         return Boolean.parseBoolean(p);
     }
 
+    /**
+     * @return milliseconds between progress messages
+     */
+    public long getProgressIntervalMillis() {
+        return Timer.MILLISECONDS_PER_SECOND
+                * Long.parseLong(properties.getProperty(PROGRESS_INTERVAL_SECONDS_KEY, PROGRESS_INTERVAL_SECONDS_DEFAULT));
+    }
+
+    /**
+     * @return the metrics snapshot file, or null
+     */
+    public String getMetricsFile() {
+        return properties.getProperty(METRICS_FILE_KEY);
+    }
+
+    /**
+     * @return MetricsWriter.FORMAT_PROMETHEUS or MetricsWriter.FORMAT_JSON
+     */
+    public String getMetricsFormat() {
+        return properties.getProperty(METRICS_FORMAT_KEY, METRICS_FORMAT_DEFAULT);
+    }
+
+    /**
+     * @return milliseconds between metrics snapshots
+     */
+    public long getMetricsIntervalMillis() {
+        return Timer.MILLISECONDS_PER_SECOND
+                * Long.parseLong(properties.getProperty(METRICS_INTERVAL_SECONDS_KEY, METRICS_INTERVAL_SECONDS_DEFAULT));
+    }
+
     /**
      * @return boolean, true if we should use in-forest eval
      */
@@ -875,6 +1193,71 @@ public class Configuration extends AbstractConfiguration {
         return Boolean.parseBoolean(p);
     }
 
+    /**
+     * @return boolean, true if tasks should run on virtual threads, with
+     *         THREADS bounding concurrency
+     */
+    public boolean useVirtualThreads() {
+        String p = properties.getProperty(USE_VIRTUAL_THREADS_KEY, USE_VIRTUAL_THREADS_DEFAULT);
+        return Boolean.parseBoolean(p);
+    }
+
+    /**
+     * @return the number of threads listing INPUT_PATH directories
+     */
+    public int getInputPathThreads() {
+        return Integer.parseInt(properties.getProperty(INPUT_PATH_THREADS_KEY, INPUT_PATH_THREADS_DEFAULT));
+    }
+
+    /**
+     * @return the checkpoint file for delta runs from INPUT_CONNECTION_STRING,
+     *         or null
+     */
+    public String getInputDeltaState() {
+        return properties.getProperty(INPUT_DELTA_STATE_KEY);
+    }
+
+    /**
+     * @return a query that lists uris modified since $SINCE, or null for
+     *         the default prop:last-modified query
+     */
+    public String getInputDeltaQuery() {
+        return properties.getProperty(INPUT_DELTA_QUERY_KEY);
+    }
+
+    /**
+     * @return boolean, true if delta runs should delete output documents
+     *         that no longer exist in the input
+     */
+    public boolean isInputDeltaDeletes() {
+        String p = properties.getProperty(INPUT_DELTA_DELETES_KEY, INPUT_DELTA_DELETES_DEFAULT);
+        return Boolean.parseBoolean(p);
+    }
+
+    /**
+     * @return seconds subtracted from the last checkpoint, to catch updates
+     *         that were in flight when it was taken
+     */
+    public int getInputDeltaOverlapSeconds() {
+        return Integer.parseInt(properties.getProperty(INPUT_DELTA_OVERLAP_SECONDS_KEY, INPUT_DELTA_OVERLAP_SECONDS_DEFAULT));
+    }
+
+    /**
+     * @return the manifest file for incremental INPUT_PATH runs, or null
+     */
+    public String getInputPathManifest() {
+        return properties.getProperty(INPUT_PATH_MANIFEST_KEY);
+    }
+
+    /**
+     * @return boolean, true if files missing since the last manifest should
+     *         be deleted from the output
+     */
+    public boolean isInputPathManifestDeletes() {
+        String p = properties.getProperty(INPUT_PATH_MANIFEST_DELETES_KEY, INPUT_PATH_MANIFEST_DELETES_DEFAULT);
+        return Boolean.parseBoolean(p);
+    }
+
     /**
      * @return whether hash module should be used or not
      */
@@ -916,11 +1299,14 @@ public class Configuration extends AbstractConfiguration {
     /**
      * @throws SyncException
      *
-     *             This method always returns a SessionReader object. However,
-     *             overriding subclasses can return any object that implements
-     *             WriterInterface.
+     *             This method always returns a SessionReader or FilePathReader.
+     *             However, overriding subclasses can return any object that
+     *             implements ReaderInterface.
      */
     public ReaderInterface newReader() throws SyncException {
+        if (null != inputPath) {
+            return new FilePathReader(this);
+        }
         return new SessionReader(this);
     }
 
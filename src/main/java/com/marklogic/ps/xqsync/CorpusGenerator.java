@@ -0,0 +1,350 @@
+/** -*- mode: java; indent-tabs-mode: nil; c-basic-offset: 4; -*-
+ *
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.xcc.DocumentFormat;
+
+/**
+ * Writes a synthetic corpus, as XQSync packages or as an input-path tree
+ * with .metadata files, for benchmarks and scale tests. Every document is
+ * derived from the seed and its own index, so a run is reproducible at any
+ * size and thread count.
+ *
+ * All settings are system properties, for example:
+ * <pre>
+ * java -DOUTPUT_PACKAGE=/tmp/corpus.zip -DCORPUS_DOCUMENTS=1000000 \
+ *   com.marklogic.ps.xqsync.CorpusGenerator
+ * </pre>
+ */
+public class CorpusGenerator {
+
+    private static final SimpleLogger logger = SimpleLogger.getSimpleLogger();
+
+    public static final String DOCUMENTS_KEY = "CORPUS_DOCUMENTS";
+    public static final String DOCUMENTS_DEFAULT = "1000";
+    public static final String SEED_KEY = "CORPUS_SEED";
+    public static final String SEED_DEFAULT = "0";
+    public static final String URI_PREFIX_KEY = "CORPUS_URI_PREFIX";
+    public static final String URI_PREFIX_DEFAULT = "/corpus/";
+    // content sizes are log-normal, with this median and shape
+    public static final String SIZE_MEDIAN_KEY = "CORPUS_SIZE_MEDIAN";
+    public static final String SIZE_MEDIAN_DEFAULT = "4096";
+    public static final String SIZE_SIGMA_KEY = "CORPUS_SIZE_SIGMA";
+    public static final String SIZE_SIGMA_DEFAULT = "1.0";
+    public static final String SIZE_MAX_KEY = "CORPUS_SIZE_MAX";
+    public static final String SIZE_MAX_DEFAULT = "" + (16 * 1024 * 1024);
+    public static final String BINARY_FRACTION_KEY = "CORPUS_BINARY_FRACTION";
+    public static final String BINARY_FRACTION_DEFAULT = "0.1";
+    public static final String TEXT_FRACTION_KEY = "CORPUS_TEXT_FRACTION";
+    public static final String TEXT_FRACTION_DEFAULT = "0.1";
+    // each document has 0 to max collections and permissions
+    public static final String COLLECTIONS_MAX_KEY = "CORPUS_COLLECTIONS_MAX";
+    public static final String COLLECTIONS_MAX_DEFAULT = "3";
+    public static final String COLLECTIONS_POOL_KEY = "CORPUS_COLLECTIONS_POOL";
+    public static final String COLLECTIONS_POOL_DEFAULT = "100";
+    public static final String PERMISSIONS_MAX_KEY = "CORPUS_PERMISSIONS_MAX";
+    public static final String PERMISSIONS_MAX_DEFAULT = "2";
+    public static final String ROLES_POOL_KEY = "CORPUS_ROLES_POOL";
+    public static final String ROLES_POOL_DEFAULT = "10";
+    // entries per package, including metadata: may exceed MAX_ENTRIES
+    public static final String PACKAGE_ENTRIES_KEY = "CORPUS_PACKAGE_ENTRIES";
+    public static final String PACKAGE_ENTRIES_DEFAULT = "" + OutputPackage.MAX_ENTRIES;
+    public static final String THREADS_KEY = Configuration.THREADS_KEY;
+
+    private static final String[] CAPABILITIES = { "read", "update", "insert", "execute" };
+    private static final String[] WORDS = ("lorem ipsum dolor sit amet consectetur adipiscing elit sed do"
+            + " eiusmod tempor incididunt ut labore et dolore magna aliqua enim ad minim veniam quis"
+            + " nostrud exercitation ullamco laboris nisi aliquip ex ea commodo consequat").split(" ");
+    private static final int FILE_BATCH_SIZE = 10 * 1000;
+
+    /**
+     * One generated document.
+     */
+    static class Document {
+        final String uri;
+        final byte[] content;
+        final XQSyncDocumentMetadata metadata;
+
+        Document(String uri, byte[] content, XQSyncDocumentMetadata metadata) {
+            this.uri = uri;
+            this.content = content;
+            this.metadata = metadata;
+        }
+    }
+
+    protected final long documents;
+    protected final long seed;
+    protected final String uriPrefix;
+    protected final int sizeMedian;
+    protected final double sizeSigma;
+    protected final int sizeMax;
+    protected final double binaryFraction;
+    protected final double textFraction;
+    protected final int collectionsMax;
+    protected final int collectionsPool;
+    protected final int permissionsMax;
+    protected final int rolesPool;
+    protected final int packageEntries;
+    protected final int threads;
+    protected final String outputPackage;
+    protected final String outputPath;
+
+    /**
+     * @param properties
+     */
+    public CorpusGenerator(Properties properties) {
+        documents = Long.parseLong(properties.getProperty(DOCUMENTS_KEY, DOCUMENTS_DEFAULT));
+        seed = Long.parseLong(properties.getProperty(SEED_KEY, SEED_DEFAULT));
+        uriPrefix = properties.getProperty(URI_PREFIX_KEY, URI_PREFIX_DEFAULT);
+        sizeMedian = Integer.parseInt(properties.getProperty(SIZE_MEDIAN_KEY, SIZE_MEDIAN_DEFAULT));
+        sizeSigma = Double.parseDouble(properties.getProperty(SIZE_SIGMA_KEY, SIZE_SIGMA_DEFAULT));
+        sizeMax = Integer.parseInt(properties.getProperty(SIZE_MAX_KEY, SIZE_MAX_DEFAULT));
+        binaryFraction = Double.parseDouble(properties.getProperty(BINARY_FRACTION_KEY, BINARY_FRACTION_DEFAULT));
+        textFraction = Double.parseDouble(properties.getProperty(TEXT_FRACTION_KEY, TEXT_FRACTION_DEFAULT));
+        collectionsMax = Integer.parseInt(properties.getProperty(COLLECTIONS_MAX_KEY, COLLECTIONS_MAX_DEFAULT));
+        collectionsPool = Integer.parseInt(properties.getProperty(COLLECTIONS_POOL_KEY, COLLECTIONS_POOL_DEFAULT));
+        permissionsMax = Integer.parseInt(properties.getProperty(PERMISSIONS_MAX_KEY, PERMISSIONS_MAX_DEFAULT));
+        rolesPool = Integer.parseInt(properties.getProperty(ROLES_POOL_KEY, ROLES_POOL_DEFAULT));
+        packageEntries = Integer.parseInt(properties.getProperty(PACKAGE_ENTRIES_KEY, PACKAGE_ENTRIES_DEFAULT));
+        threads = Integer.parseInt(properties.getProperty(THREADS_KEY, "" + Runtime.getRuntime().availableProcessors()));
+        outputPackage = properties.getProperty(Configuration.OUTPUT_PACKAGE_KEY);
+        outputPath = properties.getProperty(Configuration.OUTPUT_PATH_KEY);
+
+        if ((null == outputPackage) == (null == outputPath)) {
+            throw new FatalException("set one of " + Configuration.OUTPUT_PACKAGE_KEY
+                    + " or " + Configuration.OUTPUT_PATH_KEY);
+        }
+        if (packageEntries < 2) {
+            throw new FatalException(PACKAGE_ENTRIES_KEY + " must be at least 2");
+        }
+        if (sizeMedian < 1 || sizeMax < sizeMedian) {
+            throw new FatalException("bad sizes: " + sizeMedian + ", " + sizeMax);
+        }
+    }
+
+    /**
+     * @return the number of documents written
+     * @throws Exception
+     */
+    public long generate() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> futures = new ArrayList<>();
+        try {
+            if (null != outputPackage) {
+                File file = new File(outputPackage);
+                String canonicalPath = file.getCanonicalPath();
+                long perPackage = packageEntries / 2;
+                for (int i = 0; i * perPackage < documents; i++) {
+                    final String path = 0 == i ? canonicalPath : OutputPackage.newPackagePath(canonicalPath, i, 6);
+                    final long start = i * perPackage;
+                    final long end = Math.min(documents, start + perPackage);
+                    futures.add(pool.submit(() -> writePackage(new File(path), start, end)));
+                }
+            } else {
+                final File root = new File(outputPath);
+                for (long start = 0; start < documents; start += FILE_BATCH_SIZE) {
+                    final long batchStart = start;
+                    final long end = Math.min(documents, start + FILE_BATCH_SIZE);
+                    futures.add(pool.submit(() -> writeFiles(root, batchStart, end)));
+                }
+            }
+            long count = 0;
+            for (Future<Long> future : futures) {
+                count += future.get();
+            }
+            return count;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @param file
+     * @param start
+     * @param end
+     * @return the number of documents written
+     * @throws IOException
+     */
+    protected long writePackage(File file, long start, long end) throws IOException {
+        logger.info("writing " + (end - start) + " documents to " + file.getCanonicalPath());
+        // ZipOutputStream uses zip64 if necessary, so there is no entry limit
+        try (ZipOutputStream zos = new ZipOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (long i = start; i < end; i++) {
+                Document document = newDocument(i);
+                zos.putNextEntry(new ZipEntry(document.uri));
+                zos.write(document.content);
+                zos.closeEntry();
+                zos.putNextEntry(new ZipEntry(XQSyncDocument.getMetadataPath(document.uri)));
+                zos.write(document.metadata.toXML().getBytes(StandardCharsets.UTF_8));
+                zos.closeEntry();
+            }
+        }
+        return end - start;
+    }
+
+    /**
+     * @param root
+     * @param start
+     * @param end
+     * @return the number of documents written
+     * @throws IOException
+     */
+    protected long writeFiles(File root, long start, long end) throws IOException {
+        for (long i = start; i < end; i++) {
+            Document document = newDocument(i);
+            File file = new File(root, document.uri);
+            File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("cannot create directory " + parent.getCanonicalPath());
+            }
+            write(file, document.content);
+            write(XQSyncDocument.getMetadataFile(file),
+                    document.metadata.toXML().getBytes(StandardCharsets.UTF_8));
+        }
+        logger.fine("wrote documents " + start + " to " + end);
+        return end - start;
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @param index
+     * @return the document at this index, which depends only on the index
+     *         and the seed
+     */
+    Document newDocument(long index) {
+        SplittableRandom random = new SplittableRandom(seed ^ (index * 0x9E3779B97F4A7C15L));
+        XQSyncDocumentMetadata metadata = new XQSyncDocumentMetadata();
+
+        double kind = random.nextDouble();
+        String extension;
+        if (kind < binaryFraction) {
+            metadata.setFormat(DocumentFormat.BINARY);
+            extension = ".bin";
+        } else if (kind < binaryFraction + textFraction) {
+            metadata.setFormat(DocumentFormat.TEXT);
+            extension = ".txt";
+        } else {
+            metadata.setFormat(DocumentFormat.XML);
+            extension = ".xml";
+        }
+
+        int collections = random.nextInt(collectionsMax + 1);
+        for (int i = 0; i < collections; i++) {
+            metadata.addCollection("/collection/" + random.nextInt(collectionsPool));
+        }
+        int permissions = random.nextInt(permissionsMax + 1);
+        for (int i = 0; i < permissions; i++) {
+            metadata.addPermission(CAPABILITIES[random.nextInt(CAPABILITIES.length)],
+                    "role-" + random.nextInt(rolesPool));
+        }
+        metadata.setQuality(random.nextInt(3));
+
+        int size = nextSize(random);
+        byte[] content;
+        if (metadata.isBinary()) {
+            content = new byte[size];
+            for (int i = 0; i < size; i++) {
+                content[i] = (byte) random.nextInt(256);
+            }
+        } else {
+            content = newText(random, index, size, metadata.isXml());
+        }
+        return new Document(newUri(index, extension), content, metadata);
+    }
+
+    /**
+     * @param random
+     * @return a log-normal size, from 1 to sizeMax
+     */
+    private int nextSize(SplittableRandom random) {
+        // Box-Muller, since SplittableRandom has no nextGaussian
+        double gaussian = Math.sqrt(-2 * Math.log(1 - random.nextDouble()))
+                * Math.cos(2 * Math.PI * random.nextDouble());
+        double size = sizeMedian * Math.exp(sizeSigma * gaussian);
+        return (int) Math.max(1, Math.min(sizeMax, size));
+    }
+
+    private static byte[] newText(SplittableRandom random, long index, int size, boolean isXml) {
+        StringBuilder text = new StringBuilder(size + 32);
+        if (isXml) {
+            text.append("<doc id=\"").append(index).append("\"><p>");
+        }
+        int end = size - (isXml ? 10 : 0);
+        while (text.length() < end) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            text.append(word).append(0 == random.nextInt(12) ? ".\n" : " ");
+        }
+        if (isXml) {
+            text.append("</p></doc>");
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param index
+     * @param extension
+     * @return a uri with at most 1000 documents per directory
+     */
+    protected String newUri(long index, String extension) {
+        return uriPrefix + String.format("%04d/%03d/%012d", index / 1000000, (index / 1000) % 1000, index) + extension;
+    }
+
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        String encoding = System.getProperty("file.encoding");
+        if (!StandardCharsets.UTF_8.name().equals(encoding)) {
+            throw new UTFDataFormatException("system encoding " + encoding + " is not UTF-8");
+        }
+
+        logger.configureLogger(System.getProperties());
+
+        long start = System.currentTimeMillis();
+        long count = new CorpusGenerator(System.getProperties()).generate();
+        logger.info("generated " + count + " documents in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+}
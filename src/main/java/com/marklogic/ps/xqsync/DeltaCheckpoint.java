@@ -0,0 +1,124 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import com.marklogic.ps.SimpleLogger;
+
+/**
+ * Records the input point-in-time of the last completed delta run, as a
+ * properties file, so that the next run only lists documents modified
+ * since then.
+ */
+public class DeltaCheckpoint {
+
+    private static final SimpleLogger logger = SimpleLogger.getSimpleLogger();
+
+    public static final String TIMESTAMP_KEY = "LAST_TIMESTAMP";
+
+    protected final Path path;
+    protected BigInteger since;
+    protected BigInteger timestamp;
+
+    /**
+     * @param path
+     *            the state file, which need not exist yet
+     */
+    public DeltaCheckpoint(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * @return the point-in-time of the last completed run, or null
+     * @throws IOException
+     */
+    public BigInteger load() throws IOException {
+        since = null;
+        if (Files.exists(path)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(path)) {
+                properties.load(in);
+            }
+            String value = properties.getProperty(TIMESTAMP_KEY);
+            if (null == value) {
+                throw new IOException("missing " + TIMESTAMP_KEY + " in " + path);
+            }
+            since = new BigInteger(value.trim());
+            logger.info("last completed run was at timestamp " + since);
+        } else {
+            logger.info("no previous run in " + path);
+        }
+        return since;
+    }
+
+    /**
+     * @return the point-in-time of the last completed run, or null
+     */
+    public BigInteger getSince() {
+        return since;
+    }
+
+    /**
+     * @param timestamp
+     *            the point-in-time of this run, to be recorded by commit()
+     */
+    public void setTimestamp(BigInteger timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return the point-in-time of this run
+     */
+    public BigInteger getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Record this run as completed.
+     *
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        if (null == timestamp) {
+            logger.warning("no timestamp to record in " + path);
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty(TIMESTAMP_KEY, timestamp.toString());
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "XQSync delta checkpoint");
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        logger.info("recorded timestamp " + timestamp + " in " + path);
+    }
+}
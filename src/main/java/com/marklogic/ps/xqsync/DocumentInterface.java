@@ -88,4 +88,14 @@ public interface DocumentInterface {
      */
     void clearProperties(int index);
 
+    /**
+     * The document at this index will not be read or written, because the
+     * output already has it. The default does nothing, so the document
+     * is read and written as usual.
+     *
+     * @param index
+     */
+    default void setSkipped(int index) {
+    }
+
 }
@@ -21,6 +21,8 @@ package com.marklogic.ps.xqsync;
 import java.io.File;
 import java.io.IOException;
 
+import com.marklogic.ps.Utilities;
+
 /**
  * @author Michael Blakeley, MarkLogic Corporation
  * 
@@ -29,6 +31,8 @@ public class FilePathReader extends AbstractReader {
 
     protected final boolean allowEmptyMetadata;
 
+    protected final boolean allowDeletes;
+
     /**
      * @param configuration
      */
@@ -36,6 +40,8 @@ public class FilePathReader extends AbstractReader {
         // superclass takes care of some configuration
         super(configuration);
         allowEmptyMetadata = configuration.isAllowEmptyMetadata();
+        allowDeletes = null != configuration.getInputPathManifest()
+                && configuration.isInputPathManifestDeletes();
     }
 
     /*
@@ -52,13 +58,22 @@ public class FilePathReader extends AbstractReader {
             for (int i = 0; i < uris.length; i++) {
                 uri = uris[i];
                 if (uri == null) {
-                    throw new SyncException("null path " + i);
+                    // the last batch may be partial
+                    continue;
                 }
 
                 file = new File(uri);
 
+                if (allowDeletes && !file.exists()) {
+                    // removed since the last manifest: empty content deletes
+                    logger.fine("deleting " + uri);
+                    document.setContent(i, new byte[0]);
+                    document.setMetadata(i, new XQSyncDocumentMetadata());
+                    continue;
+                }
+
                 // read the content: must work for bin or xml, so use bytes
-                document.setContent(i, new java.io.FileInputStream(file));
+                document.setContent(i, Utilities.cat(file));
 
                 // read the metadata
                 File metaFile = XQSyncDocument.getMetadataFile(file);
@@ -69,8 +84,9 @@ public class FilePathReader extends AbstractReader {
                     } else {
                         throw new SyncException("no metadata for " + uri);
                     }
+                } else {
+                    document.setMetadata(i, new java.io.FileReader(metaFile));
                 }
-                document.setMetadata(i, new java.io.FileReader(metaFile));
             }
         } catch (IOException e) {
             throw new SyncException(e);
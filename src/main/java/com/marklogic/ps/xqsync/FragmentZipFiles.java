@@ -29,11 +29,13 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import com.marklogic.ps.SimpleLogger;
 import com.marklogic.ps.Utilities;
+import com.marklogic.ps.ZipIndex;
 
 /**
  * @author Michael Blakeley, MarkLogic Corporation
@@ -78,6 +80,7 @@ public class FragmentZipFiles {
 
         private void fragment(String path) throws IOException {
             logger.info("fragmenting path" + path);
+            checkEntries(path);
             File parent = file.getParentFile();
             String basename = path.substring(0, path.length() - ZIP_EXTENSION.length());
             String delimiter = "-";
@@ -152,6 +155,27 @@ public class FragmentZipFiles {
             logger.info("fragmented " + path);
         }
 
+        /**
+         * A package manifest or dictionary belongs to the whole archive, and
+         * cannot be split with it.
+         *
+         * @param path
+         * @throws IOException
+         */
+        private void checkEntries(String path) throws IOException {
+            ZipIndex index = new ZipIndex(file);
+            try {
+                for (ZipIndex.Entry entry : index.entries()) {
+                    if (InputPackage.isPackageEntry(entry.getName())) {
+                        throw new ZipException("cannot fragment " + path + ": it has a package entry "
+                                + entry.getName());
+                    }
+                }
+            } finally {
+                index.close();
+            }
+        }
+
         /**
          * @param lastName
          * @param thisName
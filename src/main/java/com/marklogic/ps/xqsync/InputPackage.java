@@ -19,21 +19,20 @@
  */
 package com.marklogic.ps.xqsync;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.Enumeration;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.marklogic.ps.PresetDictionary;
 import com.marklogic.ps.SimpleLogger;
-import com.marklogic.ps.Utilities;
+import com.marklogic.ps.ZipIndex;
 
 /**
  * @author Michael Blakeley, MarkLogic Corporation
@@ -43,16 +42,17 @@ public class InputPackage {
 
     protected  SimpleLogger logger;
     protected Configuration configuration;
-    // number of entries overflows at 2^16 = 65536
-    // ref: http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4828461
-    // (supposed to be fixed, but isn't)
-    protected static final int MAX_ENTRIES = 65536 - 1;
     protected String packagePath;
-    protected ZipFile inputZip;
+    // lock-free lookups and positional reads, shared by every reader
+    protected ZipIndex index;
     protected final File inputFile;
-    protected volatile int references = 0;
+    protected final AtomicInteger references = new AtomicInteger();
     protected boolean allowEmptyMetadata;
-    protected final Object referenceMutex = new Object();
+    protected PackageReadAhead readAhead;
+    protected Runnable closeListener;
+    // one metadata entry for the package, instead of one per document
+    protected final boolean hasManifest;
+    private volatile PackageManifest manifest;
 
     /**
      * @param path
@@ -60,12 +60,41 @@ public class InputPackage {
      * @throws IOException
      */
     public InputPackage(String path, Configuration config) throws IOException {
+        this(path, config, new ZipIndex(new File(path)));
+        long readAheadBytes = configuration.getInputPackageReadAheadBytes() / configuration.getInputPackageOpenMax();
+        if (readAheadBytes > 0) {
+            readAhead = new PackageReadAhead(index, readAheadBytes, logger);
+        }
+    }
+
+    /**
+     * For reading a few entries, known from elsewhere, without a read-ahead.
+     *
+     * @param path
+     * @param config
+     * @param index
+     * @throws IOException
+     */
+    public InputPackage(String path, Configuration config, ZipIndex index) throws IOException {
         inputFile = new File(path);
-        inputZip = new ZipFile(inputFile);
+        this.index = index;
         packagePath = inputFile.getCanonicalPath();
         configuration = config;
         logger = configuration.getLogger();
         allowEmptyMetadata = configuration.isAllowEmptyMetadata();
+        hasManifest = null != index.getEntry(PackageManifest.ENTRY_NAME);
+        ZipIndex.Entry dictionaryEntry = index.getEntry(OutputPackage.DICTIONARY_ENTRY_NAME);
+        if (null != dictionaryEntry) {
+            index.setDictionary(new PresetDictionary(index.read(dictionaryEntry)));
+        }
+    }
+
+    /**
+     * @param listener
+     *            runs once the last reference is closed
+     */
+    public void setCloseListener(Runnable listener) {
+        closeListener = listener;
     }
 
     /**
@@ -81,95 +110,133 @@ public class InputPackage {
      * @throws IOException
      */
     public XQSyncDocumentMetadata getMetadataEntry(String path) throws IOException {
-        InputStream entryStream = getEntryStream(XQSyncDocument.getMetadataPath(path));
-        if (allowEmptyMetadata && null == entryStream) {
-            return new XQSyncDocumentMetadata();
+        if (hasManifest) {
+            XQSyncDocumentMetadata metadata = getManifest().get(path);
+            if (null != metadata) {
+                return metadata;
+            }
+            if (allowEmptyMetadata) {
+                return new XQSyncDocumentMetadata();
+            }
+            throw new IOException("no metadata for " + path + " in " + packagePath);
+        }
+        String metadataPath = XQSyncDocument.getMetadataPath(path);
+        byte[] bytes = takeReadAhead(metadataPath);
+        if (null == bytes) {
+            ZipIndex.Entry entry = index.getEntry(metadataPath);
+            if (allowEmptyMetadata && null == entry) {
+                return new XQSyncDocumentMetadata();
+            }
+            bytes = read(entry, metadataPath);
         }
-        return XQSyncDocumentMetadata.fromXML(new InputStreamReader(entryStream));
+        return XQSyncDocumentMetadata.fromXML(new InputStreamReader(new ByteArrayInputStream(bytes)));
     }
 
     /**
      * @param path
      * @return
+     * @throws IOException
      */
-    private InputStream getEntryStream(String path) throws IOException {
-        ZipEntry entry = inputZip.getEntry(path);
-        if (null != entry) {
-            return inputZip.getInputStream(entry);
+    public byte[] getContent(String path) throws IOException {
+        byte[] bytes = takeReadAhead(path);
+        if (null != bytes) {
+            return bytes;
         }
+        return read(index.getEntry(path), path);
+    }
 
-        int size = inputZip.size();
-        if (size >= MAX_ENTRIES) {
-            logger.warning("too many entries in input-package: " + size + " >= " + MAX_ENTRIES + " (" + path + ")");
-            // *slow* work around for the dumb bug
-            try (ZipInputStream zis = new ZipInputStream(new FileInputStream(inputFile))) {
+    private byte[] read(ZipIndex.Entry entry, String path) throws IOException {
+        if (null == entry) {
+            // something went very wrong
+            throw new IOException("entry " + path + " not found in " + packagePath);
+        }
+        return index.read(entry);
+    }
 
-                while ((entry = zis.getNextEntry()) != null
-                        && !entry.getName().equals(path)) {
-                    // loop until the path matches, or we hit the end
+    private PackageManifest getManifest() throws IOException {
+        PackageManifest loaded = manifest;
+        if (null == loaded) {
+            synchronized (this) {
+                loaded = manifest;
+                if (null == loaded) {
+                    loaded = PackageManifest.read(index);
+                    manifest = loaded;
                 }
-                return zis;
             }
         }
+        return loaded;
+    }
 
-        if (allowEmptyMetadata && path.endsWith(XQSyncDocument.METADATA_EXT)) {
+    private byte[] takeReadAhead(String path) throws IOException {
+        if (null == readAhead) {
             return null;
         }
-
-        // otherwise there's no hope: something went very wrong
-        throw new IOException("entry " + path + " not found in " + inputZip.getName());
-    }
-
-    /**
-     * @param path
-     * @return
-     * @throws IOException
-     */
-    public byte[] getContent(String path) throws IOException {
-        return Utilities.cat(getEntryStream(path));
+        try {
+            byte[] bytes = readAhead.take(path);
+            if (null == bytes) {
+                return null;
+            }
+            // the read-ahead sees entries as stored
+            ZipIndex.Entry entry = index.getEntry(path);
+            return null == entry ? bytes : index.decode(entry, bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
     }
 
     /**
-     * @return
+     * @return the document paths, in archive order, starting the read-ahead
      */
     public List<String> list() throws IOException {
-        if (null == inputZip) {
-            throw new NullPointerException("no input zip file");
-        }
-        int size = inputZip.size();
+        int size = index.size();
         logger.fine("expecting " + size + " entries");
         if (0 == size) {
             logger.warning("0 entries found in " + packagePath);
         }
 
-        ZipEntry entry;
         long entries = 0;
-        HashSet<String> documentList = new HashSet<>();
-
-        // there doesn't seem to be anything we can do about this
-        if (size < MAX_ENTRIES) {
-            Enumeration<? extends ZipEntry> e = inputZip.entries();
-
-            while (e.hasMoreElements()) {
-                entry = e.nextElement();
-                entries += addEntry(entry, documentList);
+        List<String> documentList;
+        if (hasManifest) {
+            // one entry per document, so there is nothing to merge
+            documentList = new ArrayList<>(size);
+            for (ZipIndex.Entry entry : index.entries()) {
+                if (!isPackageEntry(entry) && !isEmptyDirectory(entry)) {
+                    documentList.add(entry.getName());
+                    entries++;
+                }
             }
+            // once, before the workers need it
+            getManifest();
         } else {
-            logger.warning("too many entries in input-package: " + size + " >= " + MAX_ENTRIES);
-
-            try (ZipInputStream zis = new ZipInputStream(new FileInputStream(inputFile))) {
-
-                while ((entry = zis.getNextEntry()) != null) {
-                    entries += addEntry(entry, documentList);
-                }
+            // archive order, so that reads are sequential
+            LinkedHashSet<String> documentSet = new LinkedHashSet<>();
+            for (ZipIndex.Entry entry : index.entries()) {
+                entries += addEntry(entry, documentSet);
             }
+            documentList = new LinkedList<>(documentSet);
         }
         logger.fine("listed " + documentList.size() + " documents from " + entries + " entries");
+        if (null != readAhead) {
+            readAhead.start();
+        }
+
+        return documentList;
+    }
+
+    private static boolean isPackageEntry(ZipIndex.Entry entry) {
+        return isPackageEntry(entry.getName());
+    }
 
-        return new LinkedList<>(documentList);
+    /**
+     * @param name
+     * @return true if the entry belongs to the package, not to a document
+     */
+    static boolean isPackageEntry(String name) {
+        return PackageManifest.ENTRY_NAME.equals(name) || OutputPackage.DICTIONARY_ENTRY_NAME.equals(name);
     }
 
-    private int addEntry(ZipEntry entry, HashSet<String> documentList) {
+    private boolean isEmptyDirectory(ZipIndex.Entry entry) {
         // do *not* simply ignore directories
         // javadoc says: "defined to be one whose name ends with a '/'"
         // but that's a lousy test here - "/" is a legal document uri
@@ -177,6 +244,13 @@ public class InputPackage {
         if (entry.isDirectory() && entry.getSize() == 0) {
             // really there shouldn't be anything like this in a package
             logger.warning("skipping zero-length directory " + entry.getName());
+            return true;
+        }
+        return false;
+    }
+
+    private int addEntry(ZipIndex.Entry entry, Set<String> documentList) {
+        if (isPackageEntry(entry) || isEmptyDirectory(entry)) {
             return 0;
         }
 
@@ -202,39 +276,30 @@ public class InputPackage {
      *
      */
     public void addReference() {
-        synchronized (referenceMutex) {
-            // logger.info(inputZip.getName() + " (" + references + ")");
-            references++;
-        }
+        references.incrementAndGet();
     }
 
     /**
      *
      */
     public void closeReference() {
-        synchronized (referenceMutex) {
-            // if (references < 2) {
-            // logger.info(inputZip.getName() + " (" + references + ")");
-            // Thread.dumpStack();
-            // }
-            references--;
-
-            if (0 > references) {
-                throw new FatalException("bad reference count for " + inputZip.getName() + " : " + references);
-            }
+        int count = references.decrementAndGet();
+        if (0 > count) {
+            throw new FatalException("bad reference count for " + packagePath + " : " + count);
+        }
 
-            if (0 != references) {
-                return;
-            }
+        if (0 != count) {
+            return;
+        }
 
-            // free the resources for the input zip package
-            logger.fine("closing " + inputZip.getName() + " (" + references + ")");
-            try {
-                inputZip.close();
-            } catch (IOException e) {
-                // should not happen - log it and proceed
-                logger.logException(inputZip.getName(), e);
-            }
+        // free the resources for the input zip package
+        logger.fine("closing " + packagePath + " (" + count + ")");
+        if (null != readAhead) {
+            readAhead.close();
+        }
+        index.close();
+        if (null != closeListener) {
+            closeListener.run();
         }
     }
 
@@ -242,7 +307,7 @@ public class InputPackage {
      * @return
      */
     public int size() {
-        return inputZip.size();
+        return index.size();
     }
 
 }
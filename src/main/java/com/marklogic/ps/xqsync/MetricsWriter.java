@@ -0,0 +1,247 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+import com.marklogic.ps.timing.Histogram;
+import com.marklogic.ps.timing.StageTimer;
+import com.marklogic.ps.timing.Timer;
+
+/**
+ * Writes periodic snapshots of a MonitorMBean, so that long syncs can be
+ * graphed without parsing log messages. The Prometheus format replaces
+ * the file every time, as the node_exporter textfile collector expects.
+ * The JSON format appends one object per line.
+ */
+public class MetricsWriter {
+
+    public static final String FORMAT_PROMETHEUS = "prometheus";
+    public static final String FORMAT_JSON = "json";
+
+    protected final Path path;
+    protected final boolean json;
+
+    /**
+     * @param path
+     * @param format
+     *            FORMAT_PROMETHEUS or FORMAT_JSON
+     */
+    public MetricsWriter(Path path, String format) {
+        if (!isFormat(format)) {
+            throw new IllegalArgumentException("unsupported format: " + format);
+        }
+        this.path = path;
+        json = FORMAT_JSON.equalsIgnoreCase(format);
+    }
+
+    /**
+     * @param format
+     * @return true if the format is supported
+     */
+    public static boolean isFormat(String format) {
+        return FORMAT_PROMETHEUS.equalsIgnoreCase(format) || FORMAT_JSON.equalsIgnoreCase(format);
+    }
+
+    /**
+     * @param monitor
+     * @param stages
+     * @throws IOException
+     */
+    public void write(MonitorMBean monitor, StageTimer<Stage> stages) throws IOException {
+        if (json) {
+            try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(toJson(monitor, stages, System.currentTimeMillis()));
+                out.write('\n');
+            }
+            return;
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            out.write(toPrometheus(monitor, stages));
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @param monitor
+     * @param stages
+     * @return the snapshot in Prometheus text exposition format
+     */
+    static String toPrometheus(MonitorMBean monitor, StageTimer<Stage> stages) {
+        StringBuilder text = new StringBuilder();
+        gauge(text, "xqsync_tasks", "Tasks queued so far", monitor.getTaskCount());
+        counter(text, "xqsync_tasks_submitted_total", "Tasks submitted to the pool", monitor.getSubmittedCount());
+        gauge(text, "xqsync_tasks_pending", "Submitted tasks not yet completed", monitor.getPendingCount());
+        gauge(text, "xqsync_pool_queue_depth", "Tasks waiting for a pool thread", monitor.getPoolQueueDepth());
+        gauge(text, "xqsync_uri_queue_depth", "Listed uris waiting to be submitted", monitor.getUriQueueDepth());
+        gauge(text, "xqsync_uri_queue_spilled", "Waiting uris spilled to disk", monitor.getUriQueueSpilled());
+        gauge(text, "xqsync_active_threads", "Pool threads running a task", monitor.getActiveCount());
+        counter(text, "xqsync_documents_total", "Documents synchronized without error", monitor.getCompletedCount());
+        counter(text, "xqsync_failures_total", "Failed events", monitor.getFailedCount());
+        counter(text, "xqsync_retries_total", "Retried requests", monitor.getRetryCount());
+        gauge(text, "xqsync_open_circuits", "Hosts whose circuit breaker is not closed", monitor.getOpenCircuitCount());
+        counter(text, "xqsync_bytes_total", "Bytes synchronized", monitor.getBytes());
+        gauge(text, "xqsync_documents_per_second", "Mean documents per second", monitor.getDocumentsPerSecond());
+        gauge(text, "xqsync_bytes_per_second", "Mean bytes per second", monitor.getBytesPerSecond());
+        gauge(text, "xqsync_complete", "1 if every task completed without error", monitor.isComplete() ? 1 : 0);
+
+        text.append("# HELP xqsync_task_latency_seconds Task latency\n");
+        text.append("# TYPE xqsync_task_latency_seconds summary\n");
+        quantile(text, "xqsync_task_latency_seconds", "0.5", monitor.getLatencyP50Millis() / Timer.MILLISECONDS_PER_SECOND);
+        quantile(text, "xqsync_task_latency_seconds", "0.9", monitor.getLatencyP90Millis() / Timer.MILLISECONDS_PER_SECOND);
+        quantile(text, "xqsync_task_latency_seconds", "0.99", monitor.getLatencyP99Millis() / Timer.MILLISECONDS_PER_SECOND);
+        text.append("xqsync_task_latency_seconds_sum ")
+            .append(format(monitor.getLatencySumMillis() / Timer.MILLISECONDS_PER_SECOND)).append('\n');
+        text.append("xqsync_task_latency_seconds_count ").append(monitor.getLatencyCount()).append('\n');
+
+        if (null != stages) {
+            text.append("# HELP xqsync_stage_seconds Time spent in each stage of a batch\n");
+            text.append("# TYPE xqsync_stage_seconds summary\n");
+            for (Stage stage : Stage.values()) {
+                Histogram histogram = stages.getHistogram(stage);
+                if (0 == histogram.getCount()) {
+                    continue;
+                }
+                String labels = "{stage=\"" + stage + "\"";
+                for (String q : new String[] { "0.5", "0.9", "0.99" }) {
+                    text.append("xqsync_stage_seconds").append(labels).append(",quantile=\"").append(q).append("\"} ")
+                        .append(format(seconds(histogram.getPercentile(100 * Double.parseDouble(q))))).append('\n');
+                }
+                text.append("xqsync_stage_seconds_sum").append(labels).append("} ")
+                    .append(format(seconds(histogram.getSum()))).append('\n');
+                text.append("xqsync_stage_seconds_count").append(labels).append("} ")
+                    .append(histogram.getCount()).append('\n');
+            }
+            text.append("# HELP xqsync_stage_bytes_total Bytes handled by each stage of a batch\n");
+            text.append("# TYPE xqsync_stage_bytes_total counter\n");
+            for (Stage stage : Stage.values()) {
+                long bytes = stages.getBytes(stage);
+                if (bytes > 0) {
+                    text.append("xqsync_stage_bytes_total{stage=\"").append(stage).append("\"} ")
+                        .append(bytes).append('\n');
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param monitor
+     * @param stages
+     * @param timeMillis
+     * @return the snapshot as a single-line JSON object
+     */
+    static String toJson(MonitorMBean monitor, StageTimer<Stage> stages, long timeMillis) {
+        StringBuilder text = new StringBuilder("{");
+        text.append("\"time\":").append(timeMillis)
+            .append(",\"tasks\":").append(monitor.getTaskCount())
+            .append(",\"submitted\":").append(monitor.getSubmittedCount())
+            .append(",\"pending\":").append(monitor.getPendingCount())
+            .append(",\"poolQueueDepth\":").append(monitor.getPoolQueueDepth())
+            .append(",\"uriQueueDepth\":").append(monitor.getUriQueueDepth())
+            .append(",\"uriQueueSpilled\":").append(monitor.getUriQueueSpilled())
+            .append(",\"active\":").append(monitor.getActiveCount())
+            .append(",\"completed\":").append(monitor.getCompletedCount())
+            .append(",\"failed\":").append(monitor.getFailedCount())
+            .append(",\"retries\":").append(monitor.getRetryCount())
+            .append(",\"openCircuits\":").append(monitor.getOpenCircuitCount())
+            .append(",\"bytes\":").append(monitor.getBytes())
+            .append(",\"documentsPerSecond\":").append(format(monitor.getDocumentsPerSecond()))
+            .append(",\"bytesPerSecond\":").append(format(monitor.getBytesPerSecond()))
+            .append(",\"latencyMillis\":{\"count\":").append(monitor.getLatencyCount())
+            .append(",\"mean\":").append(format(monitor.getLatencyMeanMillis()))
+            .append(",\"p50\":").append(format(monitor.getLatencyP50Millis()))
+            .append(",\"p90\":").append(format(monitor.getLatencyP90Millis()))
+            .append(",\"p99\":").append(format(monitor.getLatencyP99Millis()))
+            .append(",\"max\":").append(format(monitor.getLatencyMaxMillis())).append('}')
+            .append(",\"complete\":").append(monitor.isComplete());
+        if (null != stages) {
+            text.append(",\"stages\":{");
+            boolean first = true;
+            for (Stage stage : Stage.values()) {
+                Histogram histogram = stages.getHistogram(stage);
+                if (0 == histogram.getCount()) {
+                    continue;
+                }
+                if (!first) {
+                    text.append(',');
+                }
+                first = false;
+                // stage names are plain ascii, with no quotes to escape
+                text.append('"').append(stage).append("\":{\"count\":").append(histogram.getCount())
+                    .append(",\"seconds\":").append(format(seconds(histogram.getSum())))
+                    .append(",\"p99Millis\":").append(format(millis(histogram.getPercentile(99))))
+                    .append(",\"bytes\":").append(stages.getBytes(stage)).append('}');
+            }
+            text.append('}');
+        }
+        return text.append('}').toString();
+    }
+
+    private static void gauge(StringBuilder text, String name, String help, double value) {
+        metric(text, name, help, "gauge", value);
+    }
+
+    private static void counter(StringBuilder text, String name, String help, double value) {
+        metric(text, name, help, "counter", value);
+    }
+
+    private static void metric(StringBuilder text, String name, String help, String type, double value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        text.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static void quantile(StringBuilder text, String name, String quantile, double value) {
+        text.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(format(value)).append('\n');
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / (double) Timer.NANOSECONDS_PER_SECOND;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) Timer.NANOSECONDS_PER_MILLISECOND;
+    }
+
+    private static String format(double value) {
+        // rates are undefined before the first event, and JSON has no NaN
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "0";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%.6g", value);
+    }
+}
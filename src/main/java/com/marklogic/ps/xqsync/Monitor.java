@@ -19,13 +19,28 @@
  */
 package com.marklogic.ps.xqsync;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.marklogic.ps.BoundedExecutor;
 import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.timing.Histogram;
 import com.marklogic.ps.timing.TimedEvent;
 import com.marklogic.ps.timing.Timer;
 
@@ -33,36 +48,54 @@ import com.marklogic.ps.timing.Timer;
  * @author Michael Blakeley, MarkLogic Corporation
  *
  */
-public class Monitor extends Thread {
+public class Monitor extends Thread implements MonitorMBean {
 
-    // TODO make these constants configurable?
-    protected static final int DISPLAY_MILLIS = 60 * 1000;
+    public static final String OBJECT_NAME = "com.marklogic.ps.xqsync:type=Monitor";
+    // TODO make this constant configurable?
     protected static final int FUTURE_MILLIS = 15 * 60 * 1000;
-    protected static final int SLEEP_MILLIS = 500;
+    /**
+     * Queued after the last task has been submitted, or on halt, so that
+     * the monitor wakes up without polling.
+     */
+    protected static final Future<TimedEvent[]> NO_MORE_TASKS = new FutureTask<>(() -> null);
     protected SimpleLogger logger;
-    protected boolean running = true;
-    protected ThreadPoolExecutor pool;
+    protected volatile boolean running = true;
+    protected ExecutorService pool;
+    protected volatile UriQueue uriQueue;
+    protected final BlockingQueue<Future<TimedEvent[]>> completionQueue = new LinkedBlockingQueue<>();
     protected final CompletionService<TimedEvent[]> completionService;
+    protected final AtomicLong submittedCount = new AtomicLong();
     protected boolean fatalErrors = Configuration.FATAL_ERRORS_DEFAULT_BOOLEAN;
-    protected Timer timer;
-    protected long taskCount = 0;
-    protected boolean taskCountFinal = false;
+    protected volatile Timer timer;
+    protected volatile long completedCount = 0;
+    protected final Histogram latency = new Histogram();
+    protected final long displayMillis;
+    protected final long metricsMillis;
+    protected MetricsWriter metrics = null;
+    protected ObjectName objectName = null;
+    protected final AtomicLong taskCount = new AtomicLong();
+    protected volatile boolean taskCountFinal = false;
     protected final Object taskCountMutex = new Object();
     protected final Configuration config;
+    protected volatile boolean complete = false;
 
     /**
      * @param config
      * @param pool
-     * @param cs
      * @param fatalErrors
      */
-    public Monitor(Configuration config, ThreadPoolExecutor pool, CompletionService<TimedEvent[]> cs, boolean fatalErrors) {
+    public Monitor(Configuration config, ExecutorService pool, boolean fatalErrors) {
         super("MonitorThread");
         this.config = config;
-        completionService = cs;
+        completionService = new ExecutorCompletionService<>(pool, completionQueue);
         this.pool = pool;
         logger = config.getLogger();
         this.fatalErrors = fatalErrors;
+        displayMillis = config.getProgressIntervalMillis();
+        metricsMillis = config.getMetricsIntervalMillis();
+        if (null != config.getMetricsFile()) {
+            metrics = new MetricsWriter(Paths.get(config.getMetricsFile()), config.getMetricsFormat());
+        }
     }
 
     @Override
@@ -72,8 +105,8 @@ public class Monitor extends Thread {
         }
         try {
             logger.info("starting");
+            register();
             monitor();
-            Thread.yield();
         } catch (Exception e) {
             if (e instanceof ExecutionException) {
                 logger.logException("fatal execution error", e.getCause());
@@ -85,7 +118,56 @@ public class Monitor extends Thread {
         } finally {
             pool.shutdownNow();
             running = false;
-            logger.info("exiting after " + timer.getEventCount() + "/" + taskCount + ", " + timer.getProgressMessage());
+            logger.info("exiting after " + timer.getEventCount() + "/" + taskCount.get() + ", " + timer.getProgressMessage());
+            String stages = config.getStageTimer().getSummary();
+            if (!stages.isEmpty()) {
+                logger.info("stage timings:\n" + stages);
+            }
+            writeMetrics();
+            unregister();
+        }
+    }
+
+    /**
+     * Register with the platform MBean server, unless another monitor in
+     * this JVM already has.
+     */
+    protected void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                logger.fine(OBJECT_NAME + " is already registered");
+                return;
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            logger.logException("cannot register " + OBJECT_NAME, e);
+        }
+    }
+
+    protected void unregister() {
+        if (null == objectName) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            logger.logException("cannot unregister " + objectName, e);
+        }
+        objectName = null;
+    }
+
+    protected void writeMetrics() {
+        if (null == metrics) {
+            return;
+        }
+        try {
+            metrics.write(this, config.getStageTimer());
+        } catch (IOException e) {
+            // monitoring must not stop the sync
+            logger.logException("cannot write metrics to " + config.getMetricsFile(), e);
         }
     }
 
@@ -96,6 +178,37 @@ public class Monitor extends Thread {
         logger.logException("halting", t);
         running = false;
         pool.shutdownNow();
+        // wake up the monitor loop
+        completionQueue.offer(NO_MORE_TASKS);
+    }
+
+    /**
+     * @return true if every submitted task completed without error
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the completion service that tasks must be submitted to
+     */
+    public CompletionService<TimedEvent[]> getCompletionService() {
+        return completionService;
+    }
+
+    /**
+     * Call before submitting each task to the completion service.
+     */
+    public void incrementSubmittedCount() {
+        submittedCount.incrementAndGet();
+    }
+
+    /**
+     * Call after the last task has been submitted. The monitor will exit
+     * once every submitted task has completed.
+     */
+    public void noMoreTasks() {
+        completionQueue.offer(NO_MORE_TASKS);
     }
 
     /**
@@ -104,101 +217,227 @@ public class Monitor extends Thread {
      */
     protected void monitor() throws ExecutionException {
         int futureMillis = FUTURE_MILLIS;
-        Future<TimedEvent[]> future = null;
+        Future<TimedEvent[]> future;
         /* Initialize lastFutureMillis so that we do not get
          * warnings on slow queue startup.
          */
         long currentMillis = System.currentTimeMillis();
         long lastDisplayMillis = 0;
+        long lastMetricsMillis = currentMillis;
         long lastFutureMillis = currentMillis;
+        boolean submitting = true;
         TimedEvent[] lastEvent = null;
 
-        logger.finest("looping every " + SLEEP_MILLIS + ", core="
-                + pool.getCorePoolSize() + ", active="
-                + pool.getActiveCount() + ", tasks=" + taskCount);
+        logger.finest(getThreadCountMessage());
 
         timer = new Timer();
 
-        // run until all futures have been checked
-        do {
-            // try to avoid thread starvation
-            Thread.yield();
+        // run until all submitted futures have been checked
+        while (running && (submitting || completedCount < submittedCount.get())) {
+            // block until a task completes or progress is due
+            long waitMillis = displayMillis - (currentMillis - lastDisplayMillis);
+            if (null != metrics) {
+                waitMillis = Math.min(waitMillis, metricsMillis - (currentMillis - lastMetricsMillis));
+            }
+            waitMillis = Math.max(1, waitMillis);
+            try {
+                future = completionQueue.poll(waitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // reset interrupt status and continue
+                Thread.interrupted();
+                logger.logException("interrupted in poll()", e);
+                continue;
+            }
+            currentMillis = System.currentTimeMillis();
 
-            // check completed tasks
-            // sometimes this goes so fast that we never leave the loop,
-            // so progress is never displayed... so limit the number of loops.
-            do {
+            if (NO_MORE_TASKS == future) {
+                logger.fine("no more tasks after " + submittedCount.get());
+                submitting = false;
+            } else if (null != future) {
+                // record result, or throw exception
+                lastFutureMillis = currentMillis;
+                completedCount++;
                 try {
-                    future = completionService.poll(SLEEP_MILLIS, TimeUnit.MILLISECONDS);
-                    if (null != future) {
-                        // record result, or throw exception
-                        lastFutureMillis = System.currentTimeMillis();
-                        try {
-                            lastEvent = future.get();
-                            if (null == lastEvent) {
-                                throw new FatalException("unexpected null event");
-                            }
-                            for (TimedEvent timedEvent : lastEvent) {
-                                // discard events to reduce memory utilization
-                                if (null != timedEvent) {
-                                    timer.add(timedEvent, false);
-                                }
-                            }
-                        } catch (ExecutionException e) {
-                            if (fatalErrors) {
-                                throw e;
-                            }
-                            Throwable cause = e.getCause();
-                            if (cause instanceof FatalException) {
-                                throw (FatalException) cause;
-                            }
-                            logger.logException("non-fatal", e);
-                            timer.incrementEventCount(false);
+                    lastEvent = future.get();
+                    if (null == lastEvent) {
+                        throw new FatalException("unexpected null event");
+                    }
+                    for (TimedEvent timedEvent : lastEvent) {
+                        // discard events to reduce memory utilization
+                        if (null != timedEvent) {
+                            timer.add(timedEvent, false);
+                            latency.add(timedEvent.getDuration());
                         }
                     }
                 } catch (InterruptedException e) {
-                    // reset interrupt status and continue
+                    // the future is already done, so this should not happen
                     Thread.interrupted();
-                    logger.logException("interrupted in poll() or get()", e);
-                    Thread.currentThread().interrupt();
-                    continue;
+                    logger.logException("interrupted in get()", e);
+                } catch (ExecutionException e) {
+                    if (fatalErrors) {
+                        throw e;
+                    }
+                    Throwable cause = e.getCause();
+                    if (cause instanceof FatalException) {
+                        throw (FatalException) cause;
+                    }
+                    logger.logException("non-fatal", e);
+                    timer.incrementEventCount(false);
                 }
+            }
 
-                currentMillis = System.currentTimeMillis();
-                if (currentMillis - lastDisplayMillis > DISPLAY_MILLIS) {
-                    lastDisplayMillis = currentMillis;
-                    logger.finer("thread count: core="
-                            + pool.getCorePoolSize() + ", active="
-                            + pool.getActiveCount() + ", tasks="
-                            + taskCount);
-                    if (null != lastEvent) {
-                        logger.info("" + timer.getEventCount() + "/"
-                                + taskCount + ", "
-                                + timer.getProgressMessage(false) + ", "
-                                + lastEvent[0].getDescription());
-
-                        if (config.doPrintCurrRate()) {
-                            String currMsg = timer.getCurrProgressMessage();
-                            if (currMsg != null)
-                                logger.info(currMsg);
-                        }
+            if (null != metrics && currentMillis - lastMetricsMillis >= metricsMillis) {
+                lastMetricsMillis = currentMillis;
+                writeMetrics();
+            }
+
+            if (currentMillis - lastDisplayMillis >= displayMillis) {
+                lastDisplayMillis = currentMillis;
+                logger.finer("thread count: " + getThreadCountMessage());
+                if (null != lastEvent) {
+                    logger.info("" + timer.getEventCount() + "/"
+                            + taskCount.get() + ", "
+                            + timer.getProgressMessage(false) + ", "
+                            + lastEvent[0].getDescription());
+                    String stages = config.getStageTimer().getProgressMessage();
+                    if (!stages.isEmpty()) {
+                        logger.info("stages: " + stages);
                     }
-                }
 
-            } while (null != future);
+                    if (config.doPrintCurrRate()) {
+                        String currMsg = timer.getCurrProgressMessage();
+                        if (currMsg != null)
+                            logger.info(currMsg);
+                    }
+                }
+            }
 
-            logger.finer("running = " + running
-                         + ", terminated = " + pool.isTerminated()
-                         + ", last future = " + lastFutureMillis);
-            // currentMillis has already been set recently
             if (currentMillis - lastFutureMillis > futureMillis) {
                 logger.warning("no futures received in over " + futureMillis + " ms");
                 break;
             }
-        } while (running && !pool.isTerminated());
+        }
+        logger.finer("running = " + running + ", completed = "
+                + completedCount + "/" + submittedCount.get());
+        complete = running && !submitting
+                && completedCount == submittedCount.get()
+                && 0 == timer.getErrorCount();
         // NB - caller will set running to false to ensure exit
     }
 
+    /**
+     * @return
+     */
+    protected String getThreadCountMessage() {
+        int core = 0;
+        if (pool instanceof ThreadPoolExecutor) {
+            core = ((ThreadPoolExecutor) pool).getCorePoolSize();
+        } else if (pool instanceof BoundedExecutor) {
+            core = ((BoundedExecutor) pool).getConcurrency();
+        }
+        return "core=" + core + ", active=" + getActiveCount() + ", tasks=" + taskCount.get();
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    public long getPendingCount() {
+        return submittedCount.get() - completedCount;
+    }
+
+    public int getPoolQueueDepth() {
+        if (pool instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) pool).getQueue().size();
+        }
+        // BoundedExecutor never queues: callers block instead
+        return 0;
+    }
+
+    public int getUriQueueDepth() {
+        UriQueue queue = uriQueue;
+        return null == queue ? 0 : queue.getQueueSize();
+    }
+
+    public int getUriQueueSpilled() {
+        UriQueue queue = uriQueue;
+        return null == queue ? 0 : queue.getSpilledSize();
+    }
+
+    public int getActiveCount() {
+        if (pool instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) pool).getActiveCount();
+        } else if (pool instanceof BoundedExecutor) {
+            return ((BoundedExecutor) pool).getActiveCount();
+        }
+        return 0;
+    }
+
+    public long getCompletedCount() {
+        Timer t = timer;
+        return null == t ? 0 : t.getSuccessfulEventCount();
+    }
+
+    public long getFailedCount() {
+        Timer t = timer;
+        return null == t ? 0 : t.getErrorCount();
+    }
+
+    public long getRetryCount() {
+        return config.getRetryCount();
+    }
+
+    public int getOpenCircuitCount() {
+        return config.getRetryPolicy().getOpenCount();
+    }
+
+    public long getBytes() {
+        Timer t = timer;
+        return null == t ? 0 : t.getBytes();
+    }
+
+    public double getDocumentsPerSecond() {
+        Timer t = timer;
+        return null == t ? 0 : t.getEventsPerSecond();
+    }
+
+    public double getBytesPerSecond() {
+        Timer t = timer;
+        return null == t ? 0 : t.getBytesPerSecond();
+    }
+
+    public long getLatencyCount() {
+        return latency.getCount();
+    }
+
+    public double getLatencySumMillis() {
+        return millis(latency.getSum());
+    }
+
+    public double getLatencyMeanMillis() {
+        return millis(latency.getMean());
+    }
+
+    public double getLatencyP50Millis() {
+        return millis(latency.getPercentile(50));
+    }
+
+    public double getLatencyP90Millis() {
+        return millis(latency.getPercentile(90));
+    }
+
+    public double getLatencyP99Millis() {
+        return millis(latency.getPercentile(99));
+    }
+
+    public double getLatencyMaxMillis() {
+        return millis(latency.getMax());
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) Timer.NANOSECONDS_PER_MILLISECOND;
+    }
+
     /**
      * @param logger
      */
@@ -209,10 +448,18 @@ public class Monitor extends Thread {
     /**
      * @param pool
      */
-    public void setPool(ThreadPoolExecutor pool) {
+    public void setPool(ExecutorService pool) {
         this.pool = pool;
     }
 
+    /**
+     * @param uriQueue
+     *            listed uris waiting to be submitted, or null
+     */
+    public void setUriQueue(UriQueue uriQueue) {
+        this.uriQueue = uriQueue;
+    }
+
     /**
      *
      */
@@ -224,11 +471,11 @@ public class Monitor extends Thread {
                     "increment to final task count"));
             return;
         }
-        taskCount++;
+        taskCount.incrementAndGet();
     }
 
     public long getTaskCount() {
-        return taskCount;
+        return taskCount.get();
     }
 
     /**
@@ -241,9 +488,9 @@ public class Monitor extends Thread {
                 throw new FatalException("BUG!", new SyncException(
                         "setter on final task count " + count));
             }
-            if (count != taskCount) {
+            if (count != taskCount.get()) {
                 // get the stack trace to track this down
-                throw new FatalException("BUG!", new SyncException("setter on final task count " + count + " != " + taskCount));
+                throw new FatalException("BUG!", new SyncException("setter on final task count " + count + " != " + taskCount.get()));
             }
             logger.fine("setting " + count);
             taskCountFinal = true;
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+/**
+ * Progress of a running sync, registered with the platform MBean server
+ * as com.marklogic.ps.xqsync:type=Monitor.
+ */
+public interface MonitorMBean {
+
+    /**
+     * @return the number of tasks queued so far
+     */
+    long getTaskCount();
+
+    /**
+     * @return the number of tasks submitted to the pool
+     */
+    long getSubmittedCount();
+
+    /**
+     * @return the number of submitted tasks that have not yet completed
+     */
+    long getPendingCount();
+
+    /**
+     * @return the number of tasks waiting for a pool thread
+     */
+    int getPoolQueueDepth();
+
+    /**
+     * @return the number of listed uris waiting to be submitted, in memory
+     *         or on disk
+     */
+    int getUriQueueDepth();
+
+    /**
+     * @return the number of waiting uris that were spilled to disk
+     */
+    int getUriQueueSpilled();
+
+    /**
+     * @return the number of pool threads running a task
+     */
+    int getActiveCount();
+
+    /**
+     * @return the number of documents synchronized without error
+     */
+    long getCompletedCount();
+
+    /**
+     * @return the number of failed events
+     */
+    long getFailedCount();
+
+    /**
+     * @return the number of retried requests
+     */
+    long getRetryCount();
+
+    /**
+     * @return the number of hosts whose circuit breaker is not closed
+     */
+    int getOpenCircuitCount();
+
+    long getBytes();
+
+    double getDocumentsPerSecond();
+
+    double getBytesPerSecond();
+
+    /**
+     * @return the number of tasks timed for latency
+     */
+    long getLatencyCount();
+
+    /**
+     * @return total task latency, in milliseconds
+     */
+    double getLatencySumMillis();
+
+    /**
+     * @return mean task latency, in milliseconds
+     */
+    double getLatencyMeanMillis();
+
+    double getLatencyP50Millis();
+
+    double getLatencyP90Millis();
+
+    double getLatencyP99Millis();
+
+    double getLatencyMaxMillis();
+
+    /**
+     * @return true if every submitted task completed without error
+     */
+    boolean isComplete();
+}
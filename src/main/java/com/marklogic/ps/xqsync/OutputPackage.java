@@ -20,12 +20,18 @@ package com.marklogic.ps.xqsync;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipOutputStream;
 
+import com.marklogic.ps.PresetDictionary;
 import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.ZipIndex;
 
 /**
  * @author Michael Blakeley, MarkLogic Corporation
@@ -39,15 +45,23 @@ public class OutputPackage {
     static class CloseThread extends Thread {
 
         private final ZipOutputStream zos;
-        private final String name;
+        private final File file;
+        private final PackageIndex index;
+        private final PackageCatalog catalog;
 
         /**
          * @param zos
-         * @param name
+         * @param file
+         * @param index
+         *            written once the package is closed, or null
+         * @param catalog
+         *            may be null
          */
-        public CloseThread(ZipOutputStream zos, String name) {
+        public CloseThread(ZipOutputStream zos, File file, PackageIndex index, PackageCatalog catalog) {
             this.zos = zos;
-            this.name = name;
+            this.file = file;
+            this.index = index;
+            this.catalog = catalog;
         }
 
         @Override
@@ -59,7 +73,14 @@ public class OutputPackage {
                     zos.flush();
                     zos.close();
                 }
-                logger.info("saved " + name);
+                logger.info("saved " + file.getName());
+                if (null != index) {
+                    // after the package, so that it is never older
+                    index.write(file);
+                    if (null != catalog) {
+                        catalog.add(file, index);
+                    }
+                }
             } catch (IOException e) {
                 throw new FatalException(e);
             }
@@ -67,15 +88,58 @@ public class OutputPackage {
 
     }
 
+    /**
+     * Counts bytes, for the offsets of entries.
+     */
+    static class CountingOutputStream extends FilterOutputStream {
+
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
     // number of entries overflows at 2^16 = 65536
     // ref: http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4828461
     // (supposed to be fixed, but isn't)
     // subtract 2, to allow for metadata entries
     static final int MAX_ENTRIES = 65536 - 2;
     public static final String EXTENSION = ".zip";
+    /** the PresetDictionary for entries deflated with it */
+    public static final String DICTIONARY_ENTRY_NAME = "META-INF/xqsync-dictionary";
+    // larger entries gain little from a dictionary
+    static final int MAX_DICTIONARY_ENTRY = 64 * 1024;
     private long currentFileBytes = 0;
     private final Object outputMutex = new Object();
     private ZipOutputStream outputStream;
+    private CountingOutputStream countingStream;
+    private PackageIndex index;
+    private PackageManifest manifest;
+    private final PackageCatalog catalog;
+    private final List<CloseThread> closeThreads = new ArrayList<>();
+    private final int dictionarySamples;
+    // guarded by itself, until the dictionary is trained
+    private final List<byte[]> samples = new ArrayList<>();
+    private int sampledDocuments = 0;
+    private volatile PresetDictionary dictionary;
+    private boolean dictionaryWritten;
     private static final Object closeMutex = new Object();
     private final File constructorFile;
     private File currentFile;
@@ -87,9 +151,21 @@ public class OutputPackage {
      * @param config
      */
     public OutputPackage(File file, Configuration config) {
+        this(file, config, null);
+    }
+
+    /**
+     * @param file
+     * @param config
+     * @param catalog
+     *            summarizes each package, if indexes are written
+     */
+    public OutputPackage(File file, Configuration config, PackageCatalog catalog) {
         constructorFile = file;
         configuration = config;
         logger = config.getLogger();
+        this.catalog = catalog;
+        dictionarySamples = config.getOutputPackageDictionarySamples();
     }
 
     /**
@@ -100,8 +176,35 @@ public class OutputPackage {
             if (null == outputStream) {
                 return;
             }
+            if (null != manifest) {
+                try {
+                    manifest.writeTo(outputStream);
+                } catch (IOException e) {
+                    throw new FatalException(e);
+                }
+                manifest = null;
+            }
             // flush can take several seconds, so do it in another thread
-            new CloseThread(outputStream, currentFile.getName()).start();
+            CloseThread thread = new CloseThread(outputStream, currentFile, index, catalog);
+            closeThreads.add(thread);
+            thread.start();
+            outputStream = null;
+            index = null;
+        }
+    }
+
+    /**
+     * Wait for every package that has been closed to be saved.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitClose() throws InterruptedException {
+        List<CloseThread> threads;
+        synchronized (outputMutex) {
+            threads = new ArrayList<>(closeThreads);
+        }
+        for (CloseThread thread : threads) {
+            thread.join();
         }
     }
 
@@ -128,12 +231,33 @@ public class OutputPackage {
         if (null == metadata) {
             throw new NullPointerException("null metadata");
         }
-        byte[] metaBytes = metadata.toXML().getBytes();
-        long total = bytes.length + metaBytes.length;
+        boolean useManifest = configuration.isOutputPackageManifest();
+        byte[] metaBytes = useManifest ? null : metadata.toXML().getBytes();
+        long total = bytes.length + (useManifest ? 0 : metaBytes.length);
+        int entryCount = useManifest ? 1 : 2;
         ZipEntry entry = new ZipEntry(outputPath);
 
         String metadataPath = XQSyncDocument.getMetadataPath(outputPath);
-        ZipEntry metaEntry = new ZipEntry(metadataPath);
+        ZipEntry metaEntry = useManifest ? null : new ZipEntry(metadataPath);
+
+        // deflate with the dictionary here, in parallel, not under the mutex
+        byte[] storedBytes = bytes;
+        byte[] storedMetaBytes = metaBytes;
+        boolean preset = false;
+        boolean metaPreset = false;
+        PresetDictionary presetDictionary = sample(bytes, metaBytes, metadata);
+        if (null != presetDictionary) {
+            if (isDictionaryCandidate(bytes, metadata)) {
+                storedBytes = presetDictionary.deflate(bytes);
+                entry = PresetDictionary.newEntry(outputPath, storedBytes, bytes.length);
+                preset = true;
+            }
+            if (null != metaBytes) {
+                storedMetaBytes = presetDictionary.deflate(metaBytes);
+                metaEntry = PresetDictionary.newEntry(metadataPath, storedMetaBytes, metaBytes.length);
+                metaPreset = true;
+            }
+        }
 
         // TODO change to java.concurrent reentrantlock?
         synchronized (outputMutex) {
@@ -151,18 +275,39 @@ public class OutputPackage {
             }
 
             // don't create zips that Java can't read back in
-            if (currentEntries > 0 && (currentEntries + 2) >= MAX_ENTRIES) {
+            if (currentEntries > 0 && (currentEntries + entryCount) >= MAX_ENTRIES) {
                 logger.fine("too many entries in current package");
                 newOutputStream();
             }
 
+            if (null != presetDictionary && !dictionaryWritten) {
+                ZipEntry dictionaryEntry = new ZipEntry(DICTIONARY_ENTRY_NAME);
+                outputStream.putNextEntry(dictionaryEntry);
+                outputStream.write(presetDictionary.getBytes());
+                outputStream.closeEntry();
+                currentEntries++;
+                dictionaryWritten = true;
+            }
+
             try {
+                long offset = countingStream.getCount();
                 outputStream.putNextEntry(entry);
-                outputStream.write(bytes);
-                outputStream.closeEntry();
-                outputStream.putNextEntry(metaEntry);
-                outputStream.write(metaBytes);
+                outputStream.write(storedBytes);
                 outputStream.closeEntry();
+                long metaOffset = countingStream.getCount();
+                if (null != manifest) {
+                    manifest.add(currentEntries, metadata);
+                } else {
+                    outputStream.putNextEntry(metaEntry);
+                    outputStream.write(storedMetaBytes);
+                    outputStream.closeEntry();
+                }
+                if (null != index) {
+                    index.add(new PackageIndex.Entry(outputPath, metadata.getFormatName(),
+                            metadata.getCollections(), newIndexEntry(entry, offset, preset, bytes.length),
+                            null == manifest ? newIndexEntry(metaEntry, metaOffset, metaPreset, metaBytes.length)
+                                    : null));
+                }
 
 		/*
 		// Flush once in a while to see if this frees up memory
@@ -177,9 +322,10 @@ public class OutputPackage {
                 }
                 throw e;
             }
+            // under the mutex: the manifest keys on the entry count
+            currentFileBytes += total;
+            currentEntries += entryCount;
         }
-        currentFileBytes += total;
-        currentEntries += 2;
 
         return total;
     }
@@ -198,11 +344,74 @@ public class OutputPackage {
             currentFileBytes = 0;
             currentEntries = 0;
             currentFile = new File(path);
-            outputStream = new ZipOutputStream(new FileOutputStream(currentFile));
+            countingStream = new CountingOutputStream(new FileOutputStream(currentFile));
+            outputStream = new ZipOutputStream(countingStream);
+            if (configuration.isOutputPackageIndex()) {
+                index = new PackageIndex();
+            }
+            if (configuration.isOutputPackageManifest()) {
+                manifest = new PackageManifest();
+            }
+            dictionaryWritten = false;
             fileCount++;
         }
     }
 
+    private static ZipIndex.Entry newIndexEntry(ZipEntry entry, long offset, boolean preset, int size) {
+        // closeEntry() has set the sizes
+        if (preset) {
+            return new ZipIndex.Entry(entry.getName(), ZipIndex.DEFLATED_PRESET, 0, entry.getCompressedSize(),
+                    size, offset);
+        }
+        return new ZipIndex.Entry(entry.getName(), entry.getMethod(), 0, entry.getCompressedSize(),
+                entry.getSize(), offset);
+    }
+
+    private static boolean isDictionaryCandidate(byte[] bytes, XQSyncDocumentMetadata metadata) {
+        return !metadata.isBinary() && bytes.length > 0 && bytes.length <= MAX_DICTIONARY_ENTRY;
+    }
+
+    /**
+     * Keep the first documents as samples, then train the dictionary.
+     *
+     * @param bytes
+     * @param metaBytes
+     *            may be null
+     * @param metadata
+     * @return the dictionary, or null if there is none, or none yet
+     */
+    private PresetDictionary sample(byte[] bytes, byte[] metaBytes, XQSyncDocumentMetadata metadata) {
+        if (dictionarySamples < 1 || null != dictionary) {
+            return usable(dictionary);
+        }
+        synchronized (samples) {
+            if (null != dictionary) {
+                return usable(dictionary);
+            }
+            if (isDictionaryCandidate(bytes, metadata)) {
+                samples.add(bytes);
+            }
+            if (null != metaBytes) {
+                samples.add(metaBytes);
+            }
+            sampledDocuments++;
+            if (sampledDocuments < dictionarySamples) {
+                return null;
+            }
+            PresetDictionary trained = PresetDictionary.train(samples, PresetDictionary.MAX_SIZE);
+            samples.clear();
+            logger.info("trained a " + trained.getBytes().length + " byte dictionary from " + sampledDocuments
+                    + " documents for " + constructorFile.getName());
+            dictionary = trained;
+            return usable(trained);
+        }
+    }
+
+    private static PresetDictionary usable(PresetDictionary dictionary) {
+        // the samples may have had nothing in common
+        return null == dictionary || 0 == dictionary.getBytes().length ? null : dictionary;
+    }
+
     /**
      * @param canonicalPath
      * @param count
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A summary of every package written by one run, with the EXTENSION, next
+ * to the packages: for each package, its document count, least and
+ * greatest uri, and collections. A selective restore uses it to skip
+ * packages that cannot match, without opening them or their indexes.
+ */
+public class PackageCatalog {
+
+    public static final String EXTENSION = ".catalog";
+
+    // past this, a package's collections are not listed
+    static final int MAX_COLLECTIONS = 1024;
+
+    private static final int MAGIC = 0x58515343;
+    private static final int VERSION = 1;
+
+    /**
+     * One package.
+     */
+    public static class Summary {
+
+        protected final int count;
+        protected final String first;
+        protected final String last;
+        protected final Set<String> collections;
+
+        /**
+         * @param count
+         * @param first
+         * @param last
+         * @param collections
+         *            null if not known
+         */
+        public Summary(int count, String first, String last, Set<String> collections) {
+            this.count = count;
+            this.first = first;
+            this.last = last;
+            this.collections = collections;
+        }
+    }
+
+    protected final File file;
+    // by package name, relative to the catalog
+    protected final Map<String, Summary> packages = new TreeMap<>();
+
+    /**
+     * @param file
+     */
+    public PackageCatalog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param outputPackagePath
+     * @return the catalog for the packages of OUTPUT_PACKAGE
+     */
+    public static File getFile(String outputPackagePath) {
+        String path = outputPackagePath;
+        if (path.endsWith(OutputPackage.EXTENSION)) {
+            path = path.substring(0, path.length() - OutputPackage.EXTENSION.length());
+        }
+        return new File(path + EXTENSION);
+    }
+
+    /**
+     * @param pkg
+     * @param index
+     *            the package's index, sorted
+     */
+    public synchronized void add(File pkg, PackageIndex index) {
+        if (0 == index.size()) {
+            return;
+        }
+        Set<String> collections = index.getCollections();
+        packages.put(pkg.getName(), new Summary(index.size(), index.getEntries().get(0).getUri(),
+                index.getEntries().get(index.size() - 1).getUri(),
+                collections.size() > MAX_COLLECTIONS ? null : collections));
+    }
+
+    /**
+     * @throws IOException
+     */
+    public synchronized void write() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(packages.size());
+            for (Map.Entry<String, Summary> e : packages.entrySet()) {
+                Summary summary = e.getValue();
+                PackageIndex.writeString(out, e.getKey());
+                out.writeInt(summary.count);
+                PackageIndex.writeString(out, summary.first);
+                PackageIndex.writeString(out, summary.last);
+                out.writeInt(null == summary.collections ? -1 : summary.collections.size());
+                if (null != summary.collections) {
+                    for (String collection : summary.collections) {
+                        PackageIndex.writeString(out, collection);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of packages in the catalog
+     */
+    public synchronized int size() {
+        return packages.size();
+    }
+
+    /**
+     * @param packages
+     * @return the packages' summaries, from every catalog in their
+     *         directories, by canonical path
+     * @throws IOException
+     */
+    public static Map<File, Summary> load(Collection<File> packages) throws IOException {
+        Set<File> directories = new LinkedHashSet<>();
+        for (File pkg : packages) {
+            directories.add(pkg.getCanonicalFile().getParentFile());
+        }
+        Map<File, Summary> summaries = new HashMap<>();
+        for (File directory : directories) {
+            File[] catalogs = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+            if (null == catalogs) {
+                continue;
+            }
+            for (File catalog : catalogs) {
+                read(catalog, summaries);
+            }
+        }
+        return summaries;
+    }
+
+    private static void read(File catalog, Map<File, Summary> summaries) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(catalog)))) {
+            PackageIndex.checkHeader(in, catalog, MAGIC, VERSION);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                File pkg = new File(catalog.getParentFile(), PackageIndex.readString(in));
+                int documents = in.readInt();
+                String first = PackageIndex.readString(in);
+                String last = PackageIndex.readString(in);
+                int collectionCount = in.readInt();
+                Set<String> collections = null;
+                if (collectionCount >= 0) {
+                    collections = new LinkedHashSet<>();
+                    for (int j = 0; j < collectionCount; j++) {
+                        collections.add(PackageIndex.readString(in));
+                    }
+                }
+                // a package written after its catalog may have changed
+                if (pkg.exists() && pkg.lastModified() <= catalog.lastModified()) {
+                    summaries.put(pkg, new Summary(documents, first, last, collections));
+                }
+            }
+        }
+    }
+}
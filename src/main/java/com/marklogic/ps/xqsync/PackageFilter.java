@@ -0,0 +1,180 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Selects documents from input packages by INPUT_DOCUMENT_URIS,
+ * INPUT_DIRECTORY_URI prefixes, and INPUT_COLLECTION_URI. A document must
+ * satisfy every property that is set.
+ */
+public class PackageFilter {
+
+    protected final TreeSet<String> uris;
+    protected final String[] prefixes;
+    // sorted, without prefixes that extend another
+    protected final List<String> prefixRanges;
+    protected final Set<String> collections;
+
+    /**
+     * @param uris
+     *            may be null
+     * @param prefixes
+     *            may be null
+     * @param collections
+     *            may be null
+     */
+    public PackageFilter(String[] uris, String[] prefixes, String[] collections) {
+        this.uris = null == uris ? null : new TreeSet<>(Arrays.asList(uris));
+        this.prefixes = prefixes;
+        if (null == prefixes) {
+            prefixRanges = null;
+        } else {
+            prefixRanges = new ArrayList<>();
+            for (String prefix : new TreeSet<>(Arrays.asList(prefixes))) {
+                if (prefixRanges.isEmpty() || !prefix.startsWith(prefixRanges.get(prefixRanges.size() - 1))) {
+                    prefixRanges.add(prefix);
+                }
+            }
+        }
+        this.collections = null == collections ? null : new HashSet<>(Arrays.asList(collections));
+    }
+
+    /**
+     * @param configuration
+     * @return a filter, or null to select every document
+     */
+    public static PackageFilter newInstance(Configuration configuration) {
+        String[] uris = configuration.getInputDocumentUris();
+        String[] prefixes = configuration.getInputDirectoryUris();
+        String[] collections = configuration.getInputCollectionUris();
+        if (null == uris && null == prefixes && null == collections) {
+            return null;
+        }
+        return new PackageFilter(uris, prefixes, collections);
+    }
+
+    /**
+     * @return the uris to select, sorted, or null to select any uri
+     */
+    public NavigableSet<String> getUris() {
+        return uris;
+    }
+
+    /**
+     * @return the uri prefixes to select, sorted and with no prefix that
+     *         extends another, so that their ranges do not overlap; or null
+     *         to select any uri
+     */
+    public List<String> getPrefixes() {
+        return prefixRanges;
+    }
+
+    /**
+     * @return true if matching needs the document's collections
+     */
+    public boolean hasCollections() {
+        return null != collections;
+    }
+
+    /**
+     * @param uri
+     * @return true if the uri matches, ignoring collections
+     */
+    public boolean matches(String uri) {
+        if (null != uris && !uris.contains(uri)) {
+            return false;
+        }
+        if (null == prefixes) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (uri.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param uri
+     * @param documentCollections
+     * @return true if the document matches
+     */
+    public boolean matches(String uri, String[] documentCollections) {
+        if (!matches(uri)) {
+            return false;
+        }
+        if (null == collections) {
+            return true;
+        }
+        if (null != documentCollections) {
+            for (String collection : documentCollections) {
+                if (collections.contains(collection)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param first
+     *            the least uri in a package
+     * @param last
+     *            the greatest uri in a package
+     * @param packageCollections
+     *            every collection in the package, or null if not known
+     * @return false if no document in the package can match
+     */
+    public boolean mayMatch(String first, String last, Set<String> packageCollections) {
+        if (null != uris && uris.subSet(first, true, last, true).isEmpty()) {
+            return false;
+        }
+        if (null != prefixes) {
+            boolean found = false;
+            for (String prefix : prefixes) {
+                // uris with the prefix sort from the prefix itself up
+                if (last.compareTo(prefix) >= 0 && (first.compareTo(prefix) <= 0 || first.startsWith(prefix))) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        if (null != collections && null != packageCollections) {
+            for (String collection : collections) {
+                if (packageCollections.contains(collection)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+}
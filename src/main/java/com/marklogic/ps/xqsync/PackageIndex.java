@@ -0,0 +1,362 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.marklogic.ps.ZipIndex;
+
+/**
+ * A sidecar index for an output package, written next to it with the
+ * EXTENSION. It lists the package's documents sorted by uri, with the
+ * archive offsets and sizes of each content and metadata entry, and each
+ * document's format and collections. A selective restore reads only the
+ * index and the entries it selects, instead of listing the archive.
+ */
+public class PackageIndex {
+
+    public static final String EXTENSION = ".idx";
+
+    private static final int MAGIC = 0x58515349;
+    private static final int VERSION = 1;
+
+    /**
+     * One document in the package.
+     */
+    public static class Entry {
+
+        protected final String uri;
+        protected final String format;
+        protected final String[] collections;
+        protected final ZipIndex.Entry content;
+        protected final ZipIndex.Entry metadata;
+
+        /**
+         * @param uri
+         * @param format
+         * @param collections
+         * @param content
+         * @param metadata
+         *            null if the metadata is in the package manifest
+         */
+        public Entry(String uri, String format, String[] collections, ZipIndex.Entry content,
+                ZipIndex.Entry metadata) {
+            this.uri = uri;
+            this.format = format;
+            this.collections = collections;
+            this.content = content;
+            this.metadata = metadata;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        public String[] getCollections() {
+            return collections;
+        }
+    }
+
+    protected final List<Entry> entries;
+    protected boolean sorted = false;
+
+    /**
+     * An empty index, to add() to.
+     */
+    public PackageIndex() {
+        entries = new ArrayList<>();
+    }
+
+    /**
+     * @param entries
+     *            sorted by uri
+     */
+    protected PackageIndex(List<Entry> entries) {
+        this.entries = entries;
+        sorted = true;
+    }
+
+    /**
+     * @param entry
+     */
+    public void add(Entry entry) {
+        entries.add(entry);
+        sorted = false;
+    }
+
+    private void sort() {
+        if (!sorted) {
+            entries.sort(Comparator.comparing(Entry::getUri));
+            sorted = true;
+        }
+    }
+
+    /**
+     * @return the documents, sorted by uri once written or read
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param filter
+     * @return the uris of the matching documents
+     */
+    public List<String> select(PackageFilter filter) {
+        sort();
+        List<String> uris = new ArrayList<>();
+        if (null != filter.getUris()) {
+            // look up each uri
+            for (String uri : filter.getUris()) {
+                int i = lowerBound(uri);
+                if (i < entries.size() && uri.equals(entries.get(i).uri) && filter.matches(uri, entries.get(i).collections)) {
+                    uris.add(uri);
+                }
+            }
+        } else if (null != filter.getPrefixes()) {
+            // scan each prefix range
+            for (String prefix : filter.getPrefixes()) {
+                for (int i = lowerBound(prefix); i < entries.size() && entries.get(i).uri.startsWith(prefix); i++) {
+                    Entry entry = entries.get(i);
+                    if (filter.matches(entry.uri, entry.collections)) {
+                        uris.add(entry.uri);
+                    }
+                }
+            }
+        } else {
+            for (Entry entry : entries) {
+                if (filter.matches(entry.uri, entry.collections)) {
+                    uris.add(entry.uri);
+                }
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * @param uri
+     * @return the position of the first entry whose uri is not less than uri
+     */
+    private int lowerBound(String uri) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (entries.get(middle).uri.compareTo(uri) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return every collection of every document
+     */
+    public Set<String> getCollections() {
+        Set<String> collections = new LinkedHashSet<>();
+        for (Entry entry : entries) {
+            for (String collection : entry.collections) {
+                collections.add(collection);
+            }
+        }
+        return collections;
+    }
+
+    /**
+     * @return false if reading the documents also needs entries that are
+     *         not indexed: the package manifest, or the preset dictionary
+     */
+    public boolean hasAllEntries() {
+        for (Entry entry : entries) {
+            if (null == entry.metadata || ZipIndex.DEFLATED_PRESET == entry.content.getMethod()
+                    || ZipIndex.DEFLATED_PRESET == entry.metadata.getMethod()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param file
+     *            the package
+     * @return a lock-free index of the package's entries, built without
+     *         reading its central directory
+     */
+    public ZipIndex newZipIndex(File file) {
+        List<ZipIndex.Entry> zipEntries = new ArrayList<>(2 * entries.size());
+        for (Entry entry : entries) {
+            zipEntries.add(entry.content);
+            if (null != entry.metadata) {
+                zipEntries.add(entry.metadata);
+            }
+        }
+        return new ZipIndex(file, zipEntries);
+    }
+
+    /**
+     * @param pkg
+     *            the package
+     * @return the sidecar index file for the package
+     */
+    public static File getFile(File pkg) {
+        return new File(pkg.getPath() + EXTENSION);
+    }
+
+    /**
+     * Sort the entries, and write them next to the package.
+     *
+     * @param pkg
+     * @throws IOException
+     */
+    public void write(File pkg) throws IOException {
+        sort();
+        File file = getFile(pkg);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                writeString(out, entry.uri);
+                writeString(out, entry.format);
+                out.writeInt(entry.collections.length);
+                for (String collection : entry.collections) {
+                    writeString(out, collection);
+                }
+                writeZipEntry(out, entry.content);
+                writeZipEntry(out, entry.metadata);
+            }
+        }
+    }
+
+    /**
+     * @param pkg
+     *            the package
+     * @return the package's index, or null if there is none, or it is
+     *         older than the package
+     * @throws IOException
+     */
+    public static PackageIndex read(File pkg) throws IOException {
+        File file = getFile(pkg);
+        if (!file.exists() || file.lastModified() < pkg.lastModified()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            checkHeader(in, file, MAGIC, VERSION);
+            int count = in.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String uri = readString(in);
+                String format = readString(in);
+                String[] collections = new String[in.readInt()];
+                for (int j = 0; j < collections.length; j++) {
+                    collections[j] = readString(in);
+                }
+                ZipIndex.Entry content = readZipEntry(in, uri);
+                ZipIndex.Entry metadata = readZipEntry(in, XQSyncDocument.getMetadataPath(uri));
+                entries.add(new Entry(uri, format, collections, content, metadata));
+            }
+            return new PackageIndex(entries);
+        }
+    }
+
+    private static void writeZipEntry(DataOutputStream out, ZipIndex.Entry entry) throws IOException {
+        if (null == entry) {
+            out.writeShort(-1);
+            return;
+        }
+        out.writeShort(entry.getMethod());
+        out.writeLong(entry.getHeaderOffset());
+        out.writeLong(entry.getCompressedSize());
+        out.writeLong(entry.getSize());
+    }
+
+    private static ZipIndex.Entry readZipEntry(DataInputStream in, String name) throws IOException {
+        int method = in.readShort();
+        if (method < 0) {
+            return null;
+        }
+        long offset = in.readLong();
+        long compressedSize = in.readLong();
+        long size = in.readLong();
+        return new ZipIndex.Entry(name, method, 0, compressedSize, size, offset);
+    }
+
+    /**
+     * @param in
+     * @param file
+     * @param magic
+     * @param version
+     * @throws IOException
+     */
+    static void checkHeader(DataInputStream in, File file, int magic, int version) throws IOException {
+        if (magic != in.readInt()) {
+            throw new IOException("not an index: " + file);
+        }
+        int fileVersion = in.readInt();
+        if (version != fileVersion) {
+            throw new IOException("unsupported version " + fileVersion + " of " + file);
+        }
+    }
+
+    /**
+     * @param out
+     * @param value
+     * @throws IOException
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        // writeUTF() is limited to 64 kB
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.marklogic.ps.Utilities;
+import com.marklogic.ps.ZipIndex;
+
+/**
+ * The metadata of every document in a package, as one entry at the end of
+ * the archive, instead of one .metadata entry per document. Records are
+ * keyed by the archive position of the document's content entry, and
+ * compressed together as they are added. A reader loads the manifest once,
+ * and decodes each document's metadata from memory.
+ */
+public class PackageManifest {
+
+    public static final String ENTRY_NAME = "META-INF/xqsync-metadata";
+
+    private static final int MAGIC = 0x5851534d;
+    private static final int VERSION = 1;
+
+    // writing
+    protected ByteArrayOutputStream compressed;
+    protected Deflater deflater;
+    protected DataOutputStream out;
+    protected final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    protected int count = 0;
+
+    // reading: the inflated records, and the offset of each by uri
+    protected byte[] records;
+    protected Map<String, Integer> offsets;
+
+    /**
+     * A manifest to add() to.
+     *
+     * @throws IOException
+     */
+    public PackageManifest() throws IOException {
+        compressed = new ByteArrayOutputStream();
+        deflater = new Deflater();
+        out = new DataOutputStream(new DeflaterOutputStream(compressed, deflater));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    private PackageManifest(byte[] records, Map<String, Integer> offsets) {
+        this.records = records;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @param entryIndex
+     *            the position of the document's content entry
+     * @param metadata
+     * @throws IOException
+     */
+    public void add(int entryIndex, XQSyncDocumentMetadata metadata) throws IOException {
+        record.reset();
+        metadata.write(new DataOutputStream(record));
+        out.writeInt(entryIndex);
+        out.writeInt(record.size());
+        record.writeTo(out);
+        count++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Write the manifest as the next entry. It is already compressed, so
+     * it is stored.
+     *
+     * @param zos
+     * @throws IOException
+     */
+    public void writeTo(ZipOutputStream zos) throws IOException {
+        out.writeInt(-1);
+        out.close();
+        deflater.end();
+        byte[] bytes = compressed.toByteArray();
+        compressed = null;
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ZipEntry entry = new ZipEntry(ENTRY_NAME);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        entry.setCrc(crc.getValue());
+        zos.putNextEntry(entry);
+        zos.write(bytes);
+        zos.closeEntry();
+    }
+
+    /**
+     * @param index
+     *            of the whole archive, in archive order
+     * @return the package's manifest, or null if it has none
+     * @throws IOException
+     */
+    public static PackageManifest read(ZipIndex index) throws IOException {
+        ZipIndex.Entry entry = index.getEntry(ENTRY_NAME);
+        if (null == entry) {
+            return null;
+        }
+        byte[] records;
+        try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(index.read(entry)))) {
+            records = Utilities.cat(in, 0);
+        }
+        List<ZipIndex.Entry> entries = index.entries();
+        Map<String, Integer> offsets = new HashMap<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(records));
+        PackageIndex.checkHeader(in, index.getFile(), MAGIC, VERSION);
+        int offset = 8;
+        while (true) {
+            int entryIndex = in.readInt();
+            if (entryIndex < 0) {
+                break;
+            }
+            int length = in.readInt();
+            offset += 8;
+            if (entryIndex >= entries.size()) {
+                throw new IOException("bad manifest entry " + entryIndex + " in " + index.getFile());
+            }
+            offsets.put(entries.get(entryIndex).getName(), offset);
+            in.skipBytes(length);
+            offset += length;
+        }
+        return new PackageManifest(records, offsets);
+    }
+
+    /**
+     * @param uri
+     * @return the document's metadata, decoded afresh, or null
+     * @throws IOException
+     */
+    public XQSyncDocumentMetadata get(String uri) throws IOException {
+        Integer offset = offsets.get(uri);
+        if (null == offset) {
+            return null;
+        }
+        return XQSyncDocumentMetadata.read(new DataInputStream(
+                new ByteArrayInputStream(records, offset, records.length - offset)));
+    }
+
+    /**
+     * @param uri
+     * @return true if the manifest has metadata for the uri
+     */
+    public boolean contains(String uri) {
+        return offsets.containsKey(uri);
+    }
+}
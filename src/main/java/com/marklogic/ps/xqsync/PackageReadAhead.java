@@ -0,0 +1,243 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.Utilities;
+import com.marklogic.ps.ZipIndex;
+
+/**
+ * Inflates the entries of an input package in archive order, in the
+ * background, so that readers who ask for them in roughly that order get
+ * them from memory, and the archive is read as one sequential scan. Holds
+ * at most maxBytes of inflated content. Callers of take() wait for an
+ * entry that is coming up soon; an entry that has already gone by, or that
+ * cannot be reached while the buffer is full, must be read from the
+ * archive as before.
+ */
+public class PackageReadAhead implements Runnable {
+
+    protected final SimpleLogger logger;
+    protected final File file;
+    protected final long maxBytes;
+    // archive position of each entry, from the central directory
+    protected final Map<String, Integer> positions = new HashMap<>();
+
+    // guarded by this
+    private final Map<String, byte[]> entries = new HashMap<>();
+    private final Set<String> skipped = new HashSet<>();
+    private long bytes = 0;
+    private int position = 0;
+    private boolean full = false;
+    private boolean done = false;
+    private Thread thread;
+
+    /**
+     * @param zip
+     *            the open archive, for its entry order
+     * @param file
+     *            the archive file, to scan
+     * @param maxBytes
+     * @param logger
+     */
+    public PackageReadAhead(ZipFile zip, File file, long maxBytes, SimpleLogger logger) {
+        this(names(zip), file, maxBytes, logger);
+    }
+
+    /**
+     * @param index
+     *            the archive's index, for its entry order
+     * @param maxBytes
+     * @param logger
+     */
+    public PackageReadAhead(ZipIndex index, long maxBytes, SimpleLogger logger) {
+        this(names(index), index.getFile(), maxBytes, logger);
+    }
+
+    /**
+     * @param names
+     *            the entry names, in archive order. Package entries, which
+     *            no reader takes, are left out.
+     * @param file
+     *            the archive file, to scan
+     * @param maxBytes
+     * @param logger
+     */
+    protected PackageReadAhead(List<String> names, File file, long maxBytes, SimpleLogger logger) {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.logger = logger;
+        int i = 0;
+        for (String name : names) {
+            if (!InputPackage.isPackageEntry(name)) {
+                positions.put(name, i++);
+            }
+        }
+    }
+
+    private static List<String> names(ZipFile zip) {
+        List<String> names = new ArrayList<>(zip.size());
+        Enumeration<? extends ZipEntry> e = zip.entries();
+        while (e.hasMoreElements()) {
+            names.add(e.nextElement().getName());
+        }
+        return names;
+    }
+
+    private static List<String> names(ZipIndex index) {
+        List<String> names = new ArrayList<>(index.size());
+        for (ZipIndex.Entry entry : index.entries()) {
+            names.add(entry.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Start scanning, in a daemon thread.
+     */
+    public synchronized void start() {
+        if (null != thread || done) {
+            return;
+        }
+        thread = new Thread(this, "xqsync-read-ahead");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param path
+     * @return the entry's content, or null if it must be read from the
+     *         archive
+     * @throws InterruptedException
+     */
+    public synchronized byte[] take(String path) throws InterruptedException {
+        Integer entryPosition = positions.get(path);
+        if (null == entryPosition) {
+            return null;
+        }
+        // wait for an entry that is coming up, unless the scan has stalled
+        while (!done && !full && position <= entryPosition) {
+            wait();
+        }
+        byte[] content = entries.remove(path);
+        if (null != content) {
+            bytes -= content.length;
+            full = false;
+            notifyAll();
+        } else if (position <= entryPosition) {
+            // read elsewhere: do not buffer it later
+            skipped.add(path);
+            notifyAll();
+        }
+        return content;
+    }
+
+    /**
+     * Stop scanning, and drop anything buffered.
+     */
+    public synchronized void close() {
+        done = true;
+        entries.clear();
+        bytes = 0;
+        notifyAll();
+        if (null != thread) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try (ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(file), 1024 * 1024))) {
+            ZipEntry entry;
+            while (null != (entry = zis.getNextEntry())) {
+                String path = entry.getName();
+                Integer entryPosition = positions.get(path);
+                if (null == entryPosition) {
+                    // not a document entry, so nothing will take it
+                    continue;
+                }
+                long size = entry.getSize();
+                synchronized (this) {
+                    if (done) {
+                        return;
+                    }
+                    // wait for room, unless this entry was already read
+                    while (!done && bytes > 0 && bytes + Math.max(0, size) > maxBytes && !skipped.contains(path)) {
+                        full = true;
+                        notifyAll();
+                        wait();
+                    }
+                    full = false;
+                    if (done) {
+                        return;
+                    }
+                }
+                byte[] content = null;
+                if (!isSkipped(path)) {
+                    content = Utilities.cat(zis, size > 0 && size < Integer.MAX_VALUE ? (int) size : 0);
+                }
+                synchronized (this) {
+                    boolean wasSkipped = skipped.remove(path);
+                    if (null != content && !wasSkipped) {
+                        entries.put(path, content);
+                        bytes += content.length;
+                    }
+                    position = Math.max(position, entryPosition + 1);
+                    notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            logger.logException("read-ahead failed for " + file + ", reading entries directly", e);
+        } catch (InterruptedException e) {
+            // closed
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                done = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized boolean isSkipped(String path) {
+        return skipped.contains(path);
+    }
+
+    /**
+     * @return inflated bytes waiting to be taken
+     */
+    public synchronized long getBufferedBytes() {
+        return bytes;
+    }
+}
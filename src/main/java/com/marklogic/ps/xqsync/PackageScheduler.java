@@ -0,0 +1,265 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.ZipIndex;
+import com.marklogic.ps.timing.TimedEvent;
+
+/**
+ * Queues the documents of many input packages into one worker pool. Up to
+ * INPUT_PACKAGE_OPEN_MAX packages are listed at once, and their tasks
+ * interleave, so the pool stays busy across package boundaries. A package
+ * stays open until its last task finishes, and no more than that many
+ * are open at any time. Every task writes through one shared set of
+ * writers. With a PackageFilter, packages are skipped by their catalog
+ * summaries, and documents are selected from package indexes, where
+ * these exist.
+ */
+public class PackageScheduler {
+
+    protected final Configuration configuration;
+    protected final SimpleLogger logger;
+    protected final Monitor monitor;
+    protected final CompletionService<TimedEvent[]> completionService;
+    protected final TaskFactory writerFactory;
+    protected final int batchSize;
+    protected final int openMax;
+    /** one permit per package that may be open */
+    protected final Semaphore open;
+    /** null to queue every document */
+    protected final PackageFilter filter;
+    protected Map<File, PackageCatalog.Summary> catalog = Collections.emptyMap();
+
+    /**
+     * @param configuration
+     * @param monitor
+     * @param writerFactory
+     *            provides the writers for every package
+     */
+    public PackageScheduler(Configuration configuration, Monitor monitor, TaskFactory writerFactory) {
+        this.configuration = configuration;
+        this.monitor = monitor;
+        this.writerFactory = writerFactory;
+        logger = configuration.getLogger();
+        completionService = monitor.getCompletionService();
+        batchSize = configuration.getInputBatchSize();
+        openMax = configuration.getInputPackageOpenMax();
+        open = new Semaphore(openMax);
+        filter = PackageFilter.newInstance(configuration);
+    }
+
+    /**
+     * @param path
+     *            a package, or a directory to search for packages
+     * @return the packages, in path order
+     * @throws IOException
+     */
+    public static List<File> findPackages(File path) throws IOException {
+        List<File> packages = new ArrayList<>();
+        findPackages(path, packages);
+        return packages;
+    }
+
+    private static void findPackages(File path, List<File> packages) throws IOException {
+        if (!path.exists()) {
+            throw new IOException("missing expected input package path: " + path);
+        }
+        if (!path.canRead()) {
+            throw new IOException("cannot read from input package path: " + path);
+        }
+        if (path.isFile()) {
+            packages.add(path.getCanonicalFile());
+            return;
+        }
+        if (!path.isDirectory()) {
+            throw new IOException("unexpected file type: " + path.getCanonicalPath());
+        }
+        // directory, so look for zip children
+        final String extension = Configuration.getPackageFileExtension();
+        File[] children = path.listFiles(child -> child.isDirectory()
+                || (child.isFile() && child.getName().endsWith(extension)));
+        if (null == children) {
+            throw new IOException("cannot list " + path.getCanonicalPath());
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            findPackages(child, packages);
+        }
+    }
+
+    /**
+     * Submit every document in the packages, returning once all are
+     * submitted.
+     *
+     * @param packages
+     * @return the number of documents submitted
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public long queue(List<File> packages) throws IOException, InterruptedException {
+        logger.info("queuing " + packages.size() + " package(s), up to " + openMax + " at once");
+        if (null != filter) {
+            catalog = PackageCatalog.load(packages);
+            logger.info("selecting documents, with " + catalog.size() + " catalogued package(s)");
+        }
+        ExecutorService listers = Executors.newFixedThreadPool(Math.max(1, Math.min(openMax, packages.size())), r -> {
+            Thread thread = new Thread(r, "xqsync-package-lister");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Long>> futures = new ArrayList<>(packages.size());
+            for (File file : packages) {
+                futures.add(listers.submit(() -> queue(file)));
+            }
+            long total = 0;
+            for (Future<Long> future : futures) {
+                total += future.get();
+            }
+            return total;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new FatalException(cause);
+        } finally {
+            listers.shutdownNow();
+        }
+    }
+
+    /**
+     * @param file
+     * @return the number of documents submitted
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    protected long queue(File file) throws IOException, InterruptedException {
+        PackageIndex index = null;
+        if (null != filter) {
+            PackageCatalog.Summary summary = catalog.get(file.getCanonicalFile());
+            if (null != summary && !filter.mayMatch(summary.first, summary.last, summary.collections)) {
+                logger.fine("skipping package " + file);
+                return 0;
+            }
+            index = PackageIndex.read(file);
+        }
+        // released when the package closes, after its last task
+        open.acquire();
+        InputPackage inputPackage;
+        try {
+            if (null == index && null == filter) {
+                inputPackage = new InputPackage(file.getPath(), configuration);
+            } else if (null == index) {
+                // no read-ahead: most entries will not be selected
+                inputPackage = new InputPackage(file.getPath(), configuration, new ZipIndex(file));
+            } else {
+                // a package manifest or dictionary needs the central directory
+                inputPackage = new InputPackage(file.getPath(), configuration,
+                        index.hasAllEntries() ? index.newZipIndex(file) : new ZipIndex(file));
+            }
+        } catch (IOException | RuntimeException e) {
+            open.release();
+            throw e;
+        }
+        inputPackage.setCloseListener(open::release);
+        // keep the package open while queuing
+        inputPackage.addReference();
+        long count = 0;
+        try {
+            logger.fine("listing package " + file + " (" + inputPackage.size() + ")");
+            PackageTaskFactory factory = new PackageTaskFactory(writerFactory, inputPackage);
+            String[] batch = new String[batchSize];
+            int batchIndex = 0;
+            for (String path : null == index ? list(inputPackage) : index.select(filter)) {
+                batch[batchIndex++] = path;
+                count++;
+                if (batch.length == batchIndex) {
+                    submit(factory, inputPackage, batch);
+                    batch = new String[batchSize];
+                    batchIndex = 0;
+                }
+            }
+            if (batchIndex > 0) {
+                submit(factory, inputPackage, batch);
+            }
+        } finally {
+            inputPackage.closeReference();
+        }
+        logger.info("queued " + count + " from " + file);
+        return count;
+    }
+
+    /**
+     * @param inputPackage
+     *            without an index
+     * @return the documents that match the filter, if any
+     * @throws IOException
+     */
+    private List<String> list(InputPackage inputPackage) throws IOException {
+        List<String> paths = inputPackage.list();
+        if (null == filter) {
+            return paths;
+        }
+        List<String> selected = new ArrayList<>();
+        for (String path : paths) {
+            if (!filter.matches(path)) {
+                continue;
+            }
+            // the hard way: read the metadata
+            if (filter.hasCollections()
+                    && !filter.matches(path, inputPackage.getMetadataEntry(path).getCollections())) {
+                continue;
+            }
+            selected.add(path);
+        }
+        return selected;
+    }
+
+    private void submit(TaskFactory factory, InputPackage inputPackage, String[] batch) {
+        // each task closes one reference, when its reader closes
+        inputPackage.addReference();
+        for (String path : batch) {
+            if (null != path) {
+                monitor.incrementTaskCount();
+            }
+        }
+        // count first, so the monitor never sees more results than tasks
+        monitor.incrementSubmittedCount();
+        completionService.submit(factory.newTask(batch));
+    }
+}
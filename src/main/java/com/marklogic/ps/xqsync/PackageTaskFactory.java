@@ -35,7 +35,19 @@ public class PackageTaskFactory extends TaskFactory {
         this.inputPackage = inputPackage;
     }
 
+    /**
+     * @param writerFactory
+     *            provides the writers, so that packages can share them
+     * @param inputPackage
+     */
+    public PackageTaskFactory(TaskFactory writerFactory, InputPackage inputPackage) {
+        super(writerFactory);
+        this.writerFactory = writerFactory;
+        this.inputPackage = inputPackage;
+    }
+
     protected InputPackage inputPackage;
+    protected TaskFactory writerFactory;
 
     /*
      * (non-Javadoc)
@@ -49,4 +61,17 @@ public class PackageTaskFactory extends TaskFactory {
         return reader;
     }
 
+    @Override
+    public WriterInterface getWriter() throws SyncException {
+        return null == writerFactory ? super.getWriter() : writerFactory.getWriter();
+    }
+
+    @Override
+    public void close() {
+        // shared writers belong to the other factory
+        if (null == writerFactory) {
+            super.close();
+        }
+    }
+
 }
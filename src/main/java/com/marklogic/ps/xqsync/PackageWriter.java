@@ -73,4 +73,15 @@ public class PackageWriter extends AbstractWriter implements Closeable {
         }
     }
 
+    /**
+     * Wait for the package to be saved, after close().
+     *
+     * @throws InterruptedException
+     */
+    public void awaitClose() throws InterruptedException {
+        if (null != pkg) {
+            pkg.awaitClose();
+        }
+    }
+
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.xcc.Session;
+import com.marklogic.xcc.exceptions.RetryableXQueryException;
+import com.marklogic.xcc.exceptions.ServerConnectionException;
+
+/**
+ * Retry decisions shared by every reader and writer in a run: exponential
+ * backoff with full jitter, a retry budget that is earned by successful
+ * requests, and one CircuitBreaker per host.
+ */
+public class RetryPolicy {
+
+    protected final SimpleLogger logger;
+    protected final int maxAttempts;
+    protected final long baseMillis;
+    protected final long maxMillis;
+    protected final double budgetRatio;
+    protected final double budgetReserve;
+    protected final int breakerFailures;
+    protected final long breakerOpenMillis;
+    protected final long breakerMaxOpenMillis;
+    protected final long breakerJitterMillis;
+    protected final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    /** retry tokens: each retry costs one, guarded by this */
+    protected double budget;
+
+    /**
+     * @param configuration
+     */
+    public RetryPolicy(Configuration configuration) {
+        this(configuration.getLogger(), configuration.getMaxRetries(),
+                configuration.getRetryBaseMillis(), configuration.getRetryMaxMillis(),
+                configuration.getRetryBudgetPercent() / 100.0, configuration.getRetryBudgetReserve(),
+                configuration.getCircuitBreakerFailures(), configuration.getCircuitBreakerOpenMillis(),
+                configuration.getCircuitBreakerMaxOpenMillis(), configuration.getCircuitBreakerJitterMillis());
+    }
+
+    /**
+     * @param logger
+     * @param maxAttempts
+     *            including the first
+     * @param baseMillis
+     * @param maxMillis
+     * @param budgetRatio
+     *            retry tokens earned per successful request
+     * @param budgetReserve
+     *            the initial and maximum number of retry tokens
+     * @param breakerFailures
+     *            consecutive failures that open a host's breaker, or 0
+     * @param breakerOpenMillis
+     * @param breakerMaxOpenMillis
+     *            never less than breakerOpenMillis
+     * @param breakerJitterMillis
+     */
+    public RetryPolicy(SimpleLogger logger, int maxAttempts, long baseMillis, long maxMillis,
+            double budgetRatio, double budgetReserve, int breakerFailures, long breakerOpenMillis,
+            long breakerMaxOpenMillis, long breakerJitterMillis) {
+        this.logger = logger;
+        this.maxAttempts = maxAttempts;
+        this.baseMillis = baseMillis;
+        this.maxMillis = Math.max(baseMillis, maxMillis);
+        this.budgetRatio = budgetRatio;
+        this.budgetReserve = budgetReserve;
+        this.breakerFailures = breakerFailures;
+        this.breakerOpenMillis = breakerOpenMillis;
+        this.breakerMaxOpenMillis = Math.max(breakerOpenMillis, breakerMaxOpenMillis);
+        this.breakerJitterMillis = breakerJitterMillis;
+        budget = budgetReserve;
+    }
+
+    /**
+     * @param session
+     * @return the breaker for the session's host
+     */
+    public CircuitBreaker getBreaker(Session session) {
+        URI uri = session.getConnectionUri();
+        String host = null == uri ? "unknown"
+                : (uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort());
+        return breakers.computeIfAbsent(host, h -> new CircuitBreaker(
+                "circuit breaker for " + h, breakerFailures, breakerOpenMillis, breakerMaxOpenMillis, breakerJitterMillis, logger));
+    }
+
+    /**
+     * @return the number of breakers that are not closed
+     */
+    public int getOpenCount() {
+        int count = 0;
+        for (CircuitBreaker breaker : breakers.values()) {
+            if (CircuitBreaker.State.CLOSED != breaker.getState()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param breaker
+     *            may be null
+     */
+    public void onSuccess(CircuitBreaker breaker) {
+        if (null != breaker) {
+            breaker.onSuccess();
+        }
+        synchronized (this) {
+            budget = Math.min(budgetReserve, budget + budgetRatio);
+        }
+    }
+
+    /**
+     * @param breaker
+     *            may be null
+     * @param t
+     *            only host failures count against the breaker
+     */
+    public void onFailure(CircuitBreaker breaker, Throwable t) {
+        if (null == breaker) {
+            return;
+        }
+        if (isHostFailure(t)) {
+            breaker.onFailure();
+        } else {
+            // the host answered
+            breaker.onSuccess();
+        }
+    }
+
+    /**
+     * @param attempts
+     *            failed attempts so far
+     * @return true if another attempt may be made, which spends from the
+     *         retry budget
+     */
+    public boolean shouldRetry(int attempts) {
+        if (attempts >= maxAttempts) {
+            return false;
+        }
+        synchronized (this) {
+            if (budget < 1) {
+                logger.warning("retry budget exhausted");
+                return false;
+            }
+            budget--;
+        }
+        return true;
+    }
+
+    /**
+     * @param attempts
+     *            failed attempts so far, from 1
+     * @return a random delay up to the exponential backoff for the attempt
+     */
+    public long backoffMillis(int attempts) {
+        long ceiling = baseMillis << Math.min(Math.max(0, attempts - 1), 30);
+        ceiling = Math.min(maxMillis, ceiling);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @param attempts
+     *            failed attempts so far, from 1
+     */
+    public void sleep(int attempts) {
+        long sleepMillis = backoffMillis(attempts);
+        logger.fine("sleepMillis = " + sleepMillis);
+        try {
+            Thread.sleep(sleepMillis);
+        } catch (InterruptedException e) {
+            // reset interrupt status and continue
+            Thread.interrupted();
+            logger.logException("interrupted during sleep " + sleepMillis, e);
+        }
+    }
+
+    /**
+     * @param t
+     * @return true if the host could not be reached, or asked for a retry
+     */
+    static boolean isHostFailure(Throwable t) {
+        return t instanceof ServerConnectionException || t instanceof RetryableXQueryException;
+    }
+}
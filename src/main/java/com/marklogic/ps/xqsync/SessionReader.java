@@ -21,6 +21,11 @@ package com.marklogic.ps.xqsync;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -31,11 +36,15 @@ import org.xml.sax.SAXException;
 
 import com.marklogic.ps.Session;
 import com.marklogic.ps.Utilities;
+import com.marklogic.ps.timing.StageTimer;
 import com.marklogic.xcc.Request;
 import com.marklogic.xcc.RequestOptions;
 import com.marklogic.xcc.ResultItem;
 import com.marklogic.xcc.ResultSequence;
 import com.marklogic.xcc.exceptions.RequestException;
+import com.marklogic.xcc.exceptions.RetryableXQueryException;
+import com.marklogic.xcc.exceptions.ServerConnectionException;
+import com.marklogic.xcc.exceptions.StreamingResultException;
 import com.marklogic.xcc.exceptions.XQueryException;
 import com.marklogic.xcc.exceptions.XccException;
 import com.marklogic.xcc.types.ValueType;
@@ -49,6 +58,14 @@ import com.marklogic.xcc.types.XdmElement;
 public class SessionReader extends AbstractReader {
 
     protected static volatile String query = null;
+    // the query depends on configuration, so rebuild it if that changes
+    protected static volatile Configuration queryConfiguration = null;
+    // fetches output checksums while the input checksums are fetched
+    private static final ExecutorService checksumPool = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "xqsync-checksum");
+        thread.setDaemon(true);
+        return thread;
+    });
     private final BigInteger timestamp;
     private final String inputModule;
     protected final boolean copyPermissions;
@@ -56,6 +73,9 @@ public class SessionReader extends AbstractReader {
     protected final boolean copyCollections;
     protected final boolean copyQuality;
     protected final boolean isIndented;
+    protected final boolean skipUnchanged;
+    protected final StageTimer<Stage> timer;
+    protected final RetryPolicy retryPolicy;
     protected int size = 1;
 
     /**
@@ -74,8 +94,11 @@ public class SessionReader extends AbstractReader {
         timestamp = configuration.getTimestamp();
         inputModule = configuration.getInputModule();
         size = configuration.getInputBatchSize();
+        skipUnchanged = configuration.isSkipUnchangedBeforeRead();
+        timer = configuration.getStageTimer();
+        retryPolicy = configuration.getRetryPolicy();
 
-        if (null == query) {
+        if (null == query || configuration != queryConfiguration) {
             initQuery();
             logger.fine("reader query = \n" + query);
         }
@@ -98,24 +121,114 @@ public class SessionReader extends AbstractReader {
             throw new SyncException("null document");
         }
 
+        if (skipUnchanged) {
+            readChanged(uris, document);
+        } else {
+            read(uris, null, document);
+        }
+    }
+
+    /**
+     * Compare input and output checksums first, in parallel, and only read
+     * the documents that differ.
+     *
+     * @param uris
+     * @param document
+     * @throws SyncException
+     */
+    private void readChanged(String[] uris, DocumentInterface document) throws SyncException {
+        int count = 0;
+        while (count < uris.length && null != uris[count]) {
+            count++;
+        }
+        if (0 == count) {
+            return;
+        }
+        final String[] inputUris = Arrays.copyOf(uris, count);
+        final String[] outputUris = new String[count];
+        for (int i = 0; i < count; i++) {
+            outputUris[i] = document.getOutputUri(i);
+        }
+        final String checksumQuery = ChecksumQuery.newQuery(configuration.getChecksumModule(), count);
+
+        String[] inputHashes;
+        String[] outputHashes;
+        long start = StageTimer.start();
+        Future<String[]> outputFuture = checksumPool.submit(() -> {
+            try (Session session = configuration.newOutputSession()) {
+                return ChecksumQuery.fetch(session, checksumQuery, outputUris, null);
+            }
+        });
+        try (Session session = configuration.newInputSession()) {
+            RequestOptions opts = session.getDefaultRequestOptions();
+            if (null != timestamp) {
+                opts.setEffectivePointInTime(timestamp);
+            }
+            inputHashes = ChecksumQuery.fetch(session, checksumQuery, inputUris, opts);
+            outputHashes = outputFuture.get();
+            timer.record(Stage.READ_CHECKSUM, start);
+        } catch (XccException | SyncException | ExecutionException e) {
+            // read everything, as if unchanged were not set
+            logger.logException("checksum comparison failed for " + inputUris[0], e);
+            outputFuture.cancel(true);
+            read(uris, null, document);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outputFuture.cancel(true);
+            throw new SyncException(e);
+        }
+
+        String[] changed = new String[uris.length];
+        int[] positions = new int[uris.length];
+        int changedCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (inputHashes[i].equals(outputHashes[i])) {
+                logger.finer("unchanged: " + inputUris[i]);
+                document.setSkipped(i);
+            } else {
+                changed[changedCount] = uris[i];
+                positions[changedCount++] = i;
+            }
+        }
+        logger.fine("reading " + changedCount + " changed of " + count);
+        if (changedCount > 0) {
+            read(changed, positions, document);
+        }
+    }
+
+    /**
+     * @param uris
+     *            trailing entries may be null
+     * @param positions
+     *            the document index for each uri, or null if they are the same
+     * @param document
+     * @throws SyncException
+     */
+    private void read(String[] uris, int[] positions, DocumentInterface document) throws SyncException {
         ResultSequence rs = null;
         Session session = null;
-        int urisIndex = 0;
+        long start = StageTimer.start();
         try {
-            // in case the server or network is unreliable, try three times
-            int retries = 3;
-            while (retries > 0) {
-                urisIndex = 0;
+            // in case the server or network is unreliable, retry
+            int attempts = 0;
+            CircuitBreaker breaker = null;
+            while (true) {
+                boolean probe = false;
                 try {
                     // retry around all session-related objects
                     session = configuration.newInputSession();
                     if (null == session) {
                         throw new FatalException("null input session");
                     }
+                    breaker = retryPolicy.getBreaker(session);
+                    probe = breaker.await();
                     RequestOptions opts = session.getDefaultRequestOptions();
                     if (null != timestamp) {
                         opts.setEffectivePointInTime(timestamp);
                     }
+                    // stream the results, so each document is decoded as it arrives
+                    opts.setCacheResult(false);
                     opts.setResultBufferSize(configuration.inputResultBufferSize());
                     Request req = session.newAdhocQuery(query, opts);
                     for (int i = 0; i < uris.length; i++) {
@@ -126,132 +239,182 @@ public class SessionReader extends AbstractReader {
                         req.setNewStringVariable("CHECKSUM-MODULE", configuration.getChecksumModule());
                     }
                     rs = session.submitRequest(req);
+                    // documents arrive while they are decoded, so the
+                    // connection may still fail: retry the whole batch
+                    try {
+                        start = readDocuments(rs, uris, positions, document, start);
+                    } catch (StreamingResultException e) {
+                        throw new ServerConnectionException("results failed: " + e.getMessage(), req, e);
+                    } catch (SyncException e) {
+                        if (e.getCause() instanceof IOException) {
+                            throw new ServerConnectionException("results failed: " + e.getMessage(), req, e);
+                        }
+                        throw e;
+                    }
                     // success!
+                    retryPolicy.onSuccess(breaker);
                     break;
-                } catch (XQueryException e) {
-                    // probably an XQuery syntax error - do not retry
-                    // we want to know what the uri and query were.
-                    String urisJoined = Utilities.join(uris, "; ");
-                    logger.severe("error in document, uri = " + urisJoined);
-                    logger.severe("error in query: " + query);
-                    throw new SyncException(urisJoined, e);
                 } catch (XccException e) {
-                    retries--;
+                    retryPolicy.onFailure(breaker, e);
+                    if (e instanceof XQueryException && !(e instanceof RetryableXQueryException)) {
+                        // probably an XQuery syntax error - do not retry
+                        // we want to know what the uri and query were.
+                        String urisJoined = Utilities.join(uris, "; ");
+                        logger.severe("error in document, uri = " + urisJoined);
+                        logger.severe("error in query: " + query);
+                        throw new SyncException(urisJoined, e);
+                    }
+                    // a failed probe has already reopened the breaker
+                    if (!probe) {
+                        attempts++;
+                    }
                     // we want to know which document it was
                     String urisJoined = Utilities.join(uris, "; ");
-                    if (retries < 1) {
+                    if (!retryPolicy.shouldRetry(attempts)) {
                         logger.severe("retries exhausted for " + urisJoined);
                         throw new SyncException(urisJoined, e);
                     }
+                    configuration.incrementRetryCount();
                     logger.warning("error reading document: will retry ("
-                            + retries + "): " + urisJoined + " due to "
+                            + attempts + "): " + urisJoined + " due to "
                             + e.getMessage());
-                    Thread.yield();
-                    // if the session "went bad", we'll want a new one
-                    if (null != session && !session.isClosed()) {
-                        session.close();
+                    // forget anything read before the failure
+                    for (int i = 0; i < uris.length && null != uris[i]; i++) {
+                        int index = null == positions ? i : positions[i];
+                        document.setContent(index, (byte[]) null);
+                        document.setMetadata(index, (MetadataInterface) null);
                     }
-                    session = configuration.newInputSession();
-                }
-            }
-
-            if (rs != null) {
-                if (!rs.hasNext()) {
-                    throw new SyncException("unexpected empty document: " + uris[urisIndex]);
-                }
-
-                ResultItem[] items = rs.toResultItemArray();
-
-                int resultIndex = 0;
-
-                while (resultIndex < items.length) {
-                    logger.fine("resultIndex " + resultIndex + "/" + items.length);
-                    if (null == uris[urisIndex]) {
-                        logger.fine("uri at " + urisIndex + " is null");
-                        break;
-                    }
-                    logger.fine("reading uri: " + uris[urisIndex]);
-                    resultIndex = readDocument(document, items, urisIndex, resultIndex);
-                    urisIndex++;
+                    // if the session "went bad", we'll want a new one
+                    cleanup(session, rs);
+                    rs = null;
+                    retryPolicy.sleep(attempts);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SyncException(e);
                 }
             }
-
         } finally {
             cleanup(session, rs);
         }
     }
 
-    private int readDocument(DocumentInterface document, ResultItem[] items, int urisIndex, int resultIndex) throws SyncException {
+    /**
+     * @param rs
+     *            a streaming result sequence
+     * @param uris
+     * @param positions
+     * @param document
+     * @param start
+     * @return the time decoding finished
+     * @throws SyncException
+     */
+    private long readDocuments(ResultSequence rs, String[] uris, int[] positions, DocumentInterface document, long start) throws SyncException {
+        int urisIndex = 0;
+        if (!rs.hasNext()) {
+            throw new SyncException("unexpected empty document: " + uris[urisIndex]);
+        }
+        // the time to the first result
+        start = timer.record(Stage.READ_QUERY, start);
+
+        // each item must be used before the next one is read
+        ResultItem item = rs.next();
+        while (null != item) {
+            if (null == uris[urisIndex]) {
+                logger.fine("uri at " + urisIndex + " is null");
+                break;
+            }
+            logger.fine("reading uri: " + uris[urisIndex]);
+            item = readDocument(document, rs, item,
+                    null == positions ? urisIndex : positions[urisIndex]);
+            urisIndex++;
+        }
+        return timer.record(Stage.READ_DECODE, start);
+    }
+
+    /**
+     * @param document
+     * @param rs
+     *            a streaming result sequence
+     * @param item
+     *            the first item of the document's record
+     * @param urisIndex
+     * @return the first item of the next record, or null if there is none
+     * @throws SyncException
+     */
+    private ResultItem readDocument(DocumentInterface document, ResultSequence rs, ResultItem item, int urisIndex) throws SyncException {
         MetadataInterface metadata = document.newMetadata();
 
         // handle node-kind, always present
-        String format = items[resultIndex].asString();
+        String format = item.asString();
         logger.finer("format = " + format);
         metadata.setFormat(format);
-        resultIndex++;
+        item = next(rs);
 
         // handle collections, may not be present
-        while (resultIndex < items.length && items[resultIndex].getItemType() == ValueType.XS_STRING) {
-            if (!copyCollections) {
-                resultIndex++;
-                continue;
+        while (null != item && item.getItemType() == ValueType.XS_STRING) {
+            if (copyCollections) {
+                metadata.addCollection(item.asString());
             }
-            metadata.addCollection(items[resultIndex].asString());
-            resultIndex++;
+            item = next(rs);
         }
 
         // handle permissions, may not be present
-        while (resultIndex < items.length && ValueType.ELEMENT == items[resultIndex].getItemType()) {
-            if (!copyPermissions) {
-                resultIndex++;
-                continue;
+        while (null != item && ValueType.ELEMENT == item.getItemType()) {
+            if (copyPermissions) {
+                readPermission((XdmElement) item.getItem(), metadata);
             }
-            readPermission((XdmElement) items[resultIndex].getItem(), metadata);
-            resultIndex++;
+            item = next(rs);
         }
 
         // handle quality, always present even if not requested (barrier)
-        metadata.setQuality((XSInteger) items[resultIndex].getItem());
-        resultIndex++;
+        metadata.setQuality((XSInteger) required(item).getItem());
+        item = required(next(rs));
 
         // handle document-node, always present
-        if (metadata.isBinary()) {
-            document.setContent(urisIndex, items[resultIndex].asInputStream());
-        } else {
-            document.setContent(urisIndex, items[resultIndex].asReader());
-        }
-        resultIndex++;
+        // xml and text arrive as utf-8, so copy the bytes without decoding
+        document.setContent(urisIndex, item.asInputStream());
+        item = required(next(rs));
 
         // handle prop:properties node, optional
         // if not present, there will be a 0 as a marker
-        if (copyProperties && ValueType.ELEMENT == items[resultIndex].getItemType()) {
-            String pString = items[resultIndex].asString();
+        if (copyProperties && ValueType.ELEMENT == item.getItemType()) {
+            String pString = item.asString();
             if (pString != null) {
                 metadata.setProperties(pString);
             }
-            resultIndex++;
+            item = required(next(rs));
         }
 
         // handle hash value, optional
         if (configuration.useChecksumModule()) {
-            String hashValue = items[resultIndex].asString();
+            String hashValue = item.asString();
             metadata.setHashValue(hashValue);
             logger.fine("hashValue = " + hashValue);
-            resultIndex++;
+            item = required(next(rs));
         }
 
         // verify end-of-record marker, which should be 0
 	// this is a must.  If this verification fails, we have a parsing problem
-        if (ValueType.XS_INTEGER != items[resultIndex].getItemType()) {
+        if (ValueType.XS_INTEGER != item.getItemType()) {
             throw new SyncException("unexpected "
-                    + items[resultIndex].getItemType() + " "
-                    + items[resultIndex].asString() + ", expected "
+                    + item.getItemType() + " "
+                    + item.asString() + ", expected "
                     + ValueType.XS_INTEGER + " 0");
         }
-        resultIndex++;
 
         document.setMetadata(urisIndex, metadata);
-        return resultIndex;
+        return next(rs);
+    }
+
+    private static ResultItem next(ResultSequence rs) {
+        return rs.hasNext() ? rs.next() : null;
+    }
+
+    private static ResultItem required(ResultItem item) throws SyncException {
+        if (null == item) {
+            throw new SyncException("unexpected end of results");
+        }
+        return item;
     }
 
     protected void cleanup(Session session, ResultSequence rs) {
@@ -319,7 +482,7 @@ public class SessionReader extends AbstractReader {
      * 
      */
     private synchronized void initQuery()  {
-        if (null != query) {
+        if (null != query && configuration == queryConfiguration) {
             return;
         }
 
@@ -434,5 +597,6 @@ public class SessionReader extends AbstractReader {
         }
 
         query = localQuery.toString();
+        queryConfiguration = configuration;
     }
 }
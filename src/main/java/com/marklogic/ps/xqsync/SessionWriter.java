@@ -27,6 +27,7 @@ import java.math.BigInteger;
 
 import com.marklogic.ps.Session;
 import com.marklogic.ps.Utilities;
+import com.marklogic.ps.timing.StageTimer;
 import com.marklogic.xcc.Request;
 import com.marklogic.xcc.ResultItem;
 import com.marklogic.xcc.ResultSequence;
@@ -49,7 +50,9 @@ public class SessionWriter extends AbstractWriter {
     protected String[] forestNameArray = null;
     protected int lastBatchSize = -1;
     protected String query = null;
-    protected int maxRetries = 3;
+    protected final RetryPolicy retryPolicy;
+    protected final boolean skipUnchanged;
+    protected final StageTimer<Stage> timer;
 
    /**
      * @param configuration
@@ -72,7 +75,10 @@ public class SessionWriter extends AbstractWriter {
             }
         }
 
-        maxRetries = configuration.getMaxRetries();
+        retryPolicy = configuration.getRetryPolicy();
+        // SessionReader already skips them, if it can see both databases
+        skipUnchanged = configuration.isSkipUnchanged() && !configuration.isSkipUnchangedBeforeRead();
+        timer = configuration.getStageTimer();
     }
 
     /*
@@ -149,10 +155,13 @@ public class SessionWriter extends AbstractWriter {
 
         // handle delete requests.  These are URIs that has 0
         // contentBytes
+        long start = StageTimer.start();
         if (!useInForestEval) {
+            boolean deleted = false;
             for (int i = 0; i < outputUri.length; i++) {
                 if (!ignoreList[i] && (null == contentBytes[i] || contentBytes[i].length < 1)) {
                     ignoreList[i] = true;
+                    deleted = true;
                     try {
                         session.deleteDocument(outputUri[i]);
                     } catch (XccException e) {
@@ -161,6 +170,9 @@ public class SessionWriter extends AbstractWriter {
                     }
                 }
             }
+            if (deleted) {
+                start = timer.record(Stage.WRITE_DELETE, start);
+            }
 
             // skip existing documents if requested
             if (skipExisting) {
@@ -176,11 +188,19 @@ public class SessionWriter extends AbstractWriter {
                         }
                     }
                 }
+                start = timer.record(Stage.WRITE_EXISTING, start);
+            }
+
+            // skip documents that are already identical, before inserting
+            if (skipUnchanged) {
+                skipUnchanged(session, outputUri, metadata, ignoreList);
+                start = timer.record(Stage.WRITE_UNCHANGED, start);
             }
         }
 
         // create the contents to be inserted
         List<Content> contentList = new ArrayList<>(outputUri.length);
+        long insertBytes = 0;
         for (int i = 0; i < outputUri.length; i++) {
             if (ignoreList[i]) {
                 continue;
@@ -238,16 +258,21 @@ public class SessionWriter extends AbstractWriter {
             // create the content
             Content content = ContentFactory.newContent(outputUri[i], contentBytes[i], options);
             contentList.add(content);
+            insertBytes += contentBytes[i].length;
         }
 
         Content[] contentArray = contentList.toArray(new Content[0]);
 
-        int retries = maxRetries;
-        long sleepMillis = 250;
-        // in case the server is unreliable, we try again N times
-        // the sleep time doubles after every retry
-        while (retries > 0) {
+        // in case the server is unreliable, we try again with backoff,
+        // and wait while the host's circuit breaker is open
+        CircuitBreaker breaker = retryPolicy.getBreaker(session);
+        int attempts = 0;
+        start = StageTimer.start();
+        // nothing to insert if every document was deleted or skipped
+        while (contentArray.length > 0) {
+            boolean probe = false;
             try {
+                probe = breaker.await();
                 if (configuration.useMultiStmtTxn()) {
                     session.setTransactionMode(com.marklogic.xcc.Session.TransactionMode.UPDATE);
                     for (Content content : contentArray) {
@@ -258,6 +283,9 @@ public class SessionWriter extends AbstractWriter {
                 } else {
                     session.insertContent(contentArray);
                 }
+                retryPolicy.onSuccess(breaker);
+                // includes any failed attempts
+                start = timer.record(Stage.WRITE_INSERT, start, insertBytes);
 
                 // handle prop:properties node, optional
                 // TODO do this in the same transaction
@@ -276,22 +304,31 @@ public class SessionWriter extends AbstractWriter {
                             }
                         }
                     }
+                    timer.record(Stage.WRITE_PROPERTIES, start);
                 }
                 // success - will not loop again
                 break;
             } catch (XccException e) {
-                retries--;
-                if (retries > 0) {
-                    logger.warning("error writing document (" + outputUri[0] + "), will retry " + retries + " more times.");
-                } else {
+                retryPolicy.onFailure(breaker, e);
+                // a failed probe has already reopened the breaker
+                if (!probe) {
+                    attempts++;
+                }
+                if (!retryPolicy.shouldRetry(attempts)) {
                     throw new SyncException("write failed, all retries exhausted for " + outputUri[0], e);
                 }
-                sleepMillis = sleepForRetry(sleepMillis);
+                configuration.incrementRetryCount();
+                logger.warning("error writing document (" + outputUri[0] + "), will retry after " + attempts + " attempts.");
+                retryPolicy.sleep(attempts);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SyncException(e);
             }
         }
 
         // verify hash value
         if (configuration.useChecksumModule()) {
+            start = StageTimer.start();
             try {
                 String q = getQuery(outputUri.length);
                 logger.fine("writer hash query = \n" + q);
@@ -319,16 +356,15 @@ public class SessionWriter extends AbstractWriter {
                 logger.logException("hash comparison failed", e);
                 for (String s : outputUri) { logger.warning("no hash comparison for uri=" + s); }
             }
+            timer.record(Stage.WRITE_VERIFY, start);
         }
 
         // compute total ingested bytes
-        if (retries >= 0) {
-            for (int i = 0; i < outputUri.length; i++) {
-                if (ignoreList[i]) {
-                    continue;
-                }
-                bytes += contentBytes[i].length;
+        for (int i = 0; i < outputUri.length; i++) {
+            if (ignoreList[i]) {
+                continue;
             }
+            bytes += contentBytes[i].length;
         }
 
         session.close();
@@ -337,20 +373,47 @@ public class SessionWriter extends AbstractWriter {
     }
 
     /**
-     * @param sleepMillis
-     * @return
+     * Fetch the output checksums for the batch in one request, and ignore
+     * every document whose checksum matches the input.
+     *
+     * @param session
+     * @param outputUri
+     * @param metadata
+     * @param ignoreList
      */
-    private long sleepForRetry(long sleepMillis) {
-        logger.fine("sleepMillis = " + sleepMillis);
+    private void skipUnchanged(Session session, String[] outputUri, XQSyncDocumentMetadata[] metadata, boolean[] ignoreList) {
+        String[] uris = new String[outputUri.length];
+        int[] index = new int[outputUri.length];
+        int count = 0;
+        for (int i = 0; i < outputUri.length; i++) {
+            if (ignoreList[i]) {
+                continue;
+            }
+            String srcHash = metadata[i].getHashValue();
+            if (null != srcHash && !srcHash.isEmpty()) {
+                uris[count] = outputUri[i];
+                index[count++] = i;
+            }
+        }
+        if (0 == count) {
+            return;
+        }
         try {
-            Thread.sleep(sleepMillis);
-        } catch (InterruptedException e) {
-            // reset interrupt status and continue
-            Thread.interrupted();
-            logger.logException("interrupted during sleep " + sleepMillis, e);
+            String[] hashes = ChecksumQuery.fetch(session, getQuery(count), Arrays.copyOf(uris, count), null);
+            int skipped = 0;
+            for (int i = 0; i < count; i++) {
+                int j = index[i];
+                if (metadata[j].getHashValue().equals(hashes[i])) {
+                    logger.finer("unchanged: " + outputUri[j]);
+                    ignoreList[j] = true;
+                    skipped++;
+                }
+            }
+            logger.fine("skipped " + skipped + " unchanged of " + count);
+        } catch (XccException | SyncException e) {
+            // write everything, as if unchanged were not set
+            logger.logException("output hash query failed", e);
         }
-        // cap sleepMillis at 60 sec
-        return (sleepMillis < 60 * 1000) ? (2 * sleepMillis) : sleepMillis;
     }
 
     /**
@@ -369,22 +432,7 @@ public class SessionWriter extends AbstractWriter {
 
     protected String getQuery(int uriCount) {
         if (query == null || uriCount != lastBatchSize) {
-            StringBuilder localQuery = new StringBuilder();
-            String m = configuration.getChecksumModule();
-
-            for (int i = 0; i < uriCount; i++) {
-                localQuery.append("declare variable $URI-").append(i).append(" external;\n");
-            }
-            localQuery.append("\n");
-
-            for (int i = 0; i < uriCount; i++) {
-                localQuery.append("xdmp:invoke(\"").append(m).append("\", (xs:QName(\"URI\"), $URI-").append(i).append("))\n");
-                if (i < uriCount - 1) {
-                    localQuery.append(",\n");
-                }
-            }
-
-            query = localQuery.toString();
+            query = ChecksumQuery.newQuery(configuration.getChecksumModule(), uriCount);
             lastBatchSize = uriCount;
         }
         return query;
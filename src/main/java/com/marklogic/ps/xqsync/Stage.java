@@ -0,0 +1,53 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+/**
+ * The timed stages of a sync batch, in pipeline order. READ and WRITE
+ * cover any reader or writer, and the dotted stages break them down.
+ *
+ * @see com.marklogic.ps.timing.StageTimer
+ */
+public enum Stage {
+
+    READ("read"),
+    READ_CHECKSUM("read.checksum"),
+    READ_QUERY("read.query"),
+    READ_DECODE("read.decode"),
+    BOM("bom"),
+    WRITE("write"),
+    WRITE_COALESCE("write.coalesce"),
+    WRITE_DELETE("write.delete"),
+    WRITE_EXISTING("write.existing"),
+    WRITE_UNCHANGED("write.unchanged"),
+    WRITE_INSERT("write.insert"),
+    WRITE_PROPERTIES("write.properties"),
+    WRITE_VERIFY("write.verify");
+
+    private final String name;
+
+    Stage(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.marklogic.ps.SimpleLogger;
+
+/**
+ * Remembers the size, modification time, and content hash of every file
+ * from the last successful INPUT_PATH run, so that later runs only queue
+ * new or changed files.
+ *
+ * A file is unchanged if its size and mtime, and those of its metadata
+ * file, match the manifest. If only the mtime differs, the content and
+ * metadata are hashed and compared. Hashes are computed lazily, so a file
+ * is read at most once by the manifest, and only after it is touched.
+ *
+ * The previous manifest is held as a table of 128-bit path hashes, not
+ * path strings, and the next manifest is written to a temporary file as
+ * the walk proceeds. Call commit() after a clean run to replace the old
+ * manifest, or abort() to keep it.
+ */
+public class SyncManifest {
+
+    private static final SimpleLogger logger = SimpleLogger.getSimpleLogger();
+
+    static final int MAGIC = 0x58514d46;
+
+    static final int VERSION = 1;
+
+    static final long UNKNOWN = -1;
+
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int FIELDS = 4;
+
+    private static final byte EMPTY = 0;
+
+    private static final byte PRESENT = 1;
+
+    private static final byte SEEN = 2;
+
+    protected final Path path;
+    protected final Path tempPath;
+
+    // open addressing: two key longs and FIELDS value longs per slot
+    private long[] keys = new long[0];
+    private long[] values = new long[0];
+    private byte[] states = new byte[0];
+    private int mask = -1;
+    private long size = 0;
+
+    private DataOutputStream out;
+    private long written = 0;
+    private long changed = 0;
+
+    /**
+     * @param path
+     *            the manifest file, which need not exist yet
+     */
+    public SyncManifest(Path path) {
+        this.path = path;
+        tempPath = path.resolveSibling(path.getFileName() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Read the previous manifest, if any, and start writing the next one.
+     *
+     * @throws IOException
+     */
+    public void load() throws IOException {
+        long count = 0;
+        if (Files.exists(path)) {
+            // first pass to size the table
+            try (DataInputStream in = newInput()) {
+                while (skipRecord(in)) {
+                    count++;
+                }
+            }
+        }
+        int capacity = Integer.highestOneBit((int) Math.max(16, Math.min(1 << 30, count * 2)));
+        if (capacity < count * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[2 * capacity];
+        values = new long[FIELDS * capacity];
+        states = new byte[capacity];
+        mask = capacity - 1;
+        if (count > 0) {
+            try (DataInputStream in = newInput()) {
+                for (long i = 0; i < count; i++) {
+                    String key = in.readUTF();
+                    int slot = slot(key, true);
+                    for (int j = 0; j < FIELDS; j++) {
+                        values[FIELDS * slot + j] = in.readLong();
+                    }
+                }
+            }
+        }
+        logger.info("loaded " + size + " entries from " + path);
+
+        out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tempPath))));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * Thread-safe, so it can be called from a FileWalker consumer. Every
+     * file passed to this method is recorded in the next manifest.
+     *
+     * @param file
+     * @return true if the file is new or changed since the last run
+     * @throws IOException
+     */
+    public boolean isChanged(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long fileSize = attributes.size();
+        long mtime = attributes.lastModifiedTime().toMillis();
+        Path metadataFile = XQSyncDocument.getMetadataFile(file.toFile()).toPath();
+        long metadataSize = UNKNOWN;
+        try {
+            BasicFileAttributes metadataAttributes = Files.readAttributes(metadataFile, BasicFileAttributes.class);
+            metadataSize = metadataAttributes.size();
+            mtime = Math.max(mtime, metadataAttributes.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException e) {
+            // allowed with ALLOW_EMPTY_METADATA
+        }
+
+        String key = file.toString();
+        long hash = UNKNOWN;
+        boolean result = true;
+        int slot = slot(key, false);
+        if (slot > -1) {
+            states[slot] = SEEN;
+            int offset = FIELDS * slot;
+            if (fileSize == values[offset] && metadataSize == values[offset + 1]) {
+                if (mtime == values[offset + 2]) {
+                    hash = values[offset + 3];
+                    result = false;
+                } else {
+                    // touched, but perhaps not modified
+                    hash = hash(file, metadataSize == UNKNOWN ? null : metadataFile);
+                    result = hash != values[offset + 3];
+                }
+            }
+        }
+        write(key, fileSize, metadataSize, mtime, hash);
+        if (result) {
+            synchronized (this) {
+                changed++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Call after every current file has been passed to isChanged().
+     *
+     * @param consumer
+     *            receives every path from the previous manifest that was
+     *            not seen in this run
+     * @return the number of deleted paths
+     * @throws IOException
+     */
+    public long forEachDeleted(Consumer<String> consumer) throws IOException {
+        long deleted = 0;
+        if (size == 0) {
+            return deleted;
+        }
+        try (DataInputStream in = newInput()) {
+            String key;
+            while (null != (key = readKey(in))) {
+                if (SEEN != states[slot(key, false)]) {
+                    consumer.accept(key);
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Replace the previous manifest with the one written by this run.
+     *
+     * @throws IOException
+     */
+    public synchronized void commit() throws IOException {
+        if (null == out) {
+            return;
+        }
+        out.close();
+        out = null;
+        try {
+            Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        logger.info("wrote " + written + " entries to " + path + ", " + changed + " changed");
+    }
+
+    /**
+     * Discard the manifest written by this run, keeping the previous one.
+     */
+    public synchronized void abort() {
+        if (null == out) {
+            return;
+        }
+        try {
+            out.close();
+            Files.deleteIfExists(tempPath);
+        } catch (IOException e) {
+            logger.logException("cannot remove " + tempPath, e);
+        }
+        out = null;
+        logger.warning("keeping previous manifest " + path);
+    }
+
+    /**
+     * @return the number of entries in the previous manifest
+     */
+    public long getPreviousSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of new or changed files seen so far
+     */
+    public synchronized long getChangedCount() {
+        return changed;
+    }
+
+    private synchronized void write(String key, long fileSize, long metadataSize, long mtime, long hash) throws IOException {
+        if (null == out) {
+            throw new IOException("manifest is not open: " + path);
+        }
+        out.writeUTF(key);
+        out.writeLong(fileSize);
+        out.writeLong(metadataSize);
+        out.writeLong(mtime);
+        out.writeLong(hash);
+        written++;
+    }
+
+    /**
+     * @param key
+     * @param insert
+     * @return the slot for the key, or -1 if absent and not inserted
+     */
+    private int slot(String key, boolean insert) {
+        long a = 0xcbf29ce484222325L;
+        long b = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            a = (a ^ c) * 0x100000001b3L;
+            b = Long.rotateLeft(b ^ c, 31) * 0xbf58476d1ce4e5b9L;
+        }
+        b ^= b >>> 29;
+        int slot = (int) (a ^ (a >>> 32)) & mask;
+        while (EMPTY != states[slot]) {
+            if (keys[2 * slot] == a && keys[2 * slot + 1] == b) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!insert) {
+            return -1;
+        }
+        keys[2 * slot] = a;
+        keys[2 * slot + 1] = b;
+        states[slot] = PRESENT;
+        size++;
+        return slot;
+    }
+
+    private DataInputStream newInput() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))));
+        if (MAGIC != in.readInt() || VERSION != in.readInt()) {
+            in.close();
+            throw new IOException("not a manifest: " + path);
+        }
+        return in;
+    }
+
+    private static String readKey(DataInputStream in) throws IOException {
+        String key;
+        try {
+            key = in.readUTF();
+        } catch (EOFException e) {
+            return null;
+        }
+        in.readFully(new byte[8 * FIELDS]);
+        return key;
+    }
+
+    private static boolean skipRecord(DataInputStream in) throws IOException {
+        return null != readKey(in);
+    }
+
+    /**
+     * @param file
+     * @param metadataFile
+     *            may be null
+     * @return a hash of the content and metadata
+     * @throws IOException
+     */
+    static long hash(Path file, Path metadataFile) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        for (Path p : new Path[] { file, metadataFile }) {
+            if (null == p) {
+                continue;
+            }
+            try (InputStream in = Files.newInputStream(p)) {
+                int len;
+                while ((len = in.read(buffer)) > -1) {
+                    crc.update(buffer, 0, len);
+                }
+            }
+        }
+        return crc.getValue();
+    }
+}
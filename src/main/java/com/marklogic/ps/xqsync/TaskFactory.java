@@ -34,7 +34,9 @@ public class TaskFactory {
     protected SimpleLogger logger;
     protected final Configuration configuration;
     protected WriterInterface[] writers;
+    protected WriteCoalescer coalescer;
     protected String outputPackagePath;
+    protected PackageCatalog catalog;
     protected volatile int count = 0;
     protected Monitor monitor;
 
@@ -64,18 +66,35 @@ public class TaskFactory {
                 writers = new WriterInterface[poolSize];
                 String path;
                 String canonicalPath = new File(outputPackagePath).getCanonicalPath();
+                if (config.isOutputPackageIndex()) {
+                    catalog = new PackageCatalog(PackageCatalog.getFile(canonicalPath));
+                }
                 for (int i = 0; i < poolSize; i++) {
                     path = OutputPackage.newPackagePath(canonicalPath, i, 3);
                     logger.fine("new writer " + path);
-                    writers[i] = new PackageWriter(configuration, new OutputPackage(new File(path), configuration));
+                    writers[i] = new PackageWriter(configuration, new OutputPackage(new File(path), configuration, catalog));
                 }
             } catch (IOException e) {
                 throw new SyncException(e);
             }
+        } else if (config.isOutputConnection() && config.getOutputBatchSize() > 0) {
+            logger.info("writing up to " + config.getOutputBatchSize() + " documents per transaction");
+            coalescer = new WriteCoalescer(config);
         }
 
     }
 
+    /**
+     * For subclasses that take their writers from another factory.
+     *
+     * @param other
+     */
+    protected TaskFactory(TaskFactory other) {
+        configuration = other.configuration;
+        monitor = other.monitor;
+        logger = other.logger;
+    }
+
     /**
      * @param uris
      * @return
@@ -88,6 +107,9 @@ public class TaskFactory {
      * 
      */
     public void close() {
+        if (null != coalescer) {
+            coalescer.close();
+        }
         if (null != writers && null != writers[0] && writers[0] instanceof PackageWriter) {
             logger.info("closing " + writers.length + " output package(s)");
             for (WriterInterface writer : writers) {
@@ -96,6 +118,30 @@ public class TaskFactory {
                 }
                 ((PackageWriter) writer).close();
             }
+            // packages are saved in the background: finish before returning
+            try {
+                for (WriterInterface writer : writers) {
+                    if (null != writer) {
+                        ((PackageWriter) writer).awaitClose();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.logException("interrupted while closing output packages", e);
+                return;
+            }
+            if (null != catalog) {
+                writeCatalog();
+            }
+        }
+    }
+
+    private void writeCatalog() {
+        try {
+            catalog.write();
+            logger.info("wrote catalog of " + catalog.size() + " package(s) to " + catalog.file);
+        } catch (IOException e) {
+            logger.logException("could not write catalog " + catalog.file, e);
         }
     }
 
@@ -125,6 +171,8 @@ public class TaskFactory {
             // simple balancer, to keep threads from contending for packages
             writer = writers[count % writers.length];
             count++;
+        } else if (null != coalescer) {
+            writer = coalescer;
         } else {
             writer = configuration.newWriter();
         }
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A FIFO queue of uris, stored as front-coded UTF-8 blocks: each uri is
+ * kept as the length of the prefix it shares with the previous uri, and
+ * the remaining bytes. Lexicon listings are sorted, so most of each uri
+ * is shared. Uris are only decoded to strings a block at a time, as they
+ * are polled.
+ *
+ * Full blocks are kept in memory, or appended to a file while spilling.
+ * Not thread-safe: callers must synchronize.
+ */
+public class UriBlockQueue implements Closeable {
+
+    public static final int BLOCK_URIS = 256;
+    /** per-block overhead, for memory estimates */
+    static final int BLOCK_OVERHEAD = 48;
+
+    // the block being encoded: a count, then (shared, suffix length, suffix)
+    protected byte[] encoder = new byte[1024];
+    protected int encoderLength = 0;
+    protected int encoderCount = 0;
+    protected byte[] previous = new byte[256];
+    protected int previousLength = 0;
+
+    protected final ArrayDeque<byte[]> blocks = new ArrayDeque<>();
+    protected long blockBytes = 0;
+
+    protected File file;
+    protected DataOutputStream fileOutput;
+    protected DataInputStream fileInput;
+    protected int fileBlocks = 0;
+    protected int fileUris = 0;
+    protected boolean spilling = false;
+
+    // the block being read
+    protected String[] decoded = new String[BLOCK_URIS];
+    protected int decodedIndex = 0;
+    protected int decodedLength = 0;
+    protected byte[] scratch = new byte[256];
+
+    protected int size = 0;
+
+    /**
+     * @param uri
+     * @throws IOException
+     *             if a full block cannot be spilled
+     */
+    public void add(String uri) throws IOException {
+        byte[] bytes = uri.getBytes(StandardCharsets.UTF_8);
+        int limit = Math.min(bytes.length, previousLength);
+        int shared = 0;
+        while (shared < limit && bytes[shared] == previous[shared]) {
+            shared++;
+        }
+        ensureEncoder(10 + bytes.length - shared);
+        encoderLength = writeVarint(encoder, encoderLength, shared);
+        encoderLength = writeVarint(encoder, encoderLength, bytes.length - shared);
+        System.arraycopy(bytes, shared, encoder, encoderLength, bytes.length - shared);
+        encoderLength += bytes.length - shared;
+        encoderCount++;
+        if (previous.length < bytes.length) {
+            previous = Arrays.copyOf(previous, Math.max(bytes.length, 2 * previous.length));
+        }
+        System.arraycopy(bytes, shared, previous, shared, bytes.length - shared);
+        previousLength = bytes.length;
+        size++;
+
+        if (BLOCK_URIS == encoderCount) {
+            byte[] block = seal();
+            if (spilling) {
+                writeBlock(block);
+            } else {
+                blocks.add(block);
+                blockBytes += block.length + BLOCK_OVERHEAD;
+            }
+        }
+    }
+
+    /**
+     * @return the oldest uri, or null if the queue is empty
+     * @throws IOException
+     *             if a spilled block cannot be read
+     */
+    public String poll() throws IOException {
+        if (decodedIndex == decodedLength) {
+            byte[] block = blocks.poll();
+            if (null != block) {
+                blockBytes -= block.length + BLOCK_OVERHEAD;
+            } else if (fileBlocks > 0) {
+                block = readBlock();
+            } else if (encoderCount > 0) {
+                // newest, so only when everything else is drained
+                block = seal();
+            } else {
+                return null;
+            }
+            decode(block);
+        }
+        String uri = decoded[decodedIndex];
+        decoded[decodedIndex++] = null;
+        size--;
+        return uri;
+    }
+
+    /**
+     * @return the number of queued uris
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the approximate heap used by queued uris
+     */
+    public long getMemoryBytes() {
+        return blockBytes + encoderLength;
+    }
+
+    /**
+     * @return the number of uris in spilled blocks
+     */
+    public int getFileSize() {
+        return fileUris;
+    }
+
+    public boolean isSpilling() {
+        return spilling;
+    }
+
+    /**
+     * Full blocks will be appended to the file, and read back after any
+     * blocks already in memory.
+     *
+     * @param file
+     *            used only if no file is open yet
+     * @throws IOException
+     */
+    public void spillTo(File file) throws IOException {
+        if (null == fileOutput) {
+            this.file = file;
+            fileOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            fileInput = new DataInputStream(new FileInputStream(file));
+        }
+        spilling = true;
+    }
+
+    /**
+     * Keep full blocks in memory again. Call only when no blocks remain
+     * in the file, so that order is kept.
+     */
+    public void stopSpilling() {
+        if (fileBlocks > 0) {
+            throw new IllegalStateException(fileBlocks + " blocks remain in " + file);
+        }
+        spilling = false;
+    }
+
+    /**
+     * @return the spill file, or null
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public void close() throws IOException {
+        if (null != fileOutput) {
+            fileOutput.close();
+            fileInput.close();
+        }
+    }
+
+    private byte[] seal() {
+        byte[] count = new byte[5];
+        int countLength = writeVarint(count, 0, encoderCount);
+        byte[] block = new byte[countLength + encoderLength];
+        System.arraycopy(count, 0, block, 0, countLength);
+        System.arraycopy(encoder, 0, block, countLength, encoderLength);
+        encoderLength = 0;
+        encoderCount = 0;
+        // each block starts afresh, so it decodes on its own
+        previousLength = 0;
+        return block;
+    }
+
+    private void decode(byte[] block) {
+        int[] position = { 0 };
+        int count = readVarint(block, position);
+        if (decoded.length < count) {
+            decoded = new String[count];
+        }
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int shared = readVarint(block, position);
+            int suffix = readVarint(block, position);
+            length = shared + suffix;
+            if (scratch.length < length) {
+                scratch = Arrays.copyOf(scratch, Math.max(length, 2 * scratch.length));
+            }
+            System.arraycopy(block, position[0], scratch, shared, suffix);
+            position[0] += suffix;
+            decoded[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        decodedIndex = 0;
+        decodedLength = count;
+    }
+
+    private void writeBlock(byte[] block) throws IOException {
+        fileOutput.writeInt(block.length);
+        fileOutput.write(block);
+        // the reader must see whole blocks
+        fileOutput.flush();
+        fileBlocks++;
+        fileUris += blockCount(block);
+    }
+
+    private byte[] readBlock() throws IOException {
+        int length = fileInput.readInt();
+        byte[] block = new byte[length];
+        readFully(fileInput, block);
+        fileBlocks--;
+        fileUris -= blockCount(block);
+        return block;
+    }
+
+    private static void readFully(InputStream in, byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            int n = in.read(bytes, offset, bytes.length - offset);
+            if (n < 0) {
+                throw new EOFException("truncated uri queue block");
+            }
+            offset += n;
+        }
+    }
+
+    private static int blockCount(byte[] block) {
+        return readVarint(block, new int[1]);
+    }
+
+    private void ensureEncoder(int extra) {
+        if (encoder.length < encoderLength + extra) {
+            encoder = Arrays.copyOf(encoder, Math.max(encoderLength + extra, 2 * encoder.length));
+        }
+    }
+
+    /**
+     * @return the new offset
+     */
+    static int writeVarint(byte[] bytes, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * @param position
+     *            updated past the value
+     */
+    static int readVarint(byte[] bytes, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
@@ -21,14 +21,10 @@ package com.marklogic.ps.xqsync;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.BufferedReader;
-import java.io.FileReader;
 
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletionService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 
 import com.marklogic.ps.SimpleLogger;
 import com.marklogic.ps.timing.TimedEvent;
@@ -39,22 +35,21 @@ import com.marklogic.ps.timing.TimedEvent;
  */
 public class UriQueue extends Thread {
 
-    protected static final long SLEEP_MILLIS = 125;
     protected final Configuration configuration;
-    protected volatile BlockingQueue<String> queue;
+    protected volatile UriBlockQueue queue = new UriBlockQueue();
     protected final TaskFactory factory;
     protected final CompletionService<TimedEvent[]> completionService;
-    protected boolean active;
-    protected final ThreadPoolExecutor pool;
+    /** one permit per queued uri, plus one per call to shutdown */
+    protected final Semaphore available = new Semaphore(0);
+    protected volatile boolean active = true;
+    protected final ExecutorService pool;
     protected final SimpleLogger logger;
     protected final Monitor monitor;
     protected boolean useQueueFile = false;
-    protected File queueFile;
-    protected PrintWriter queueFileWriter;
-    protected BufferedReader queueFileReader;
-    protected int queueFileEntries = 0;
-    protected final Object queueFileMutex = new Object();
-
+    /** guards the queue */
+    protected final Object queueMutex = new Object();
+    protected long memoryBudget;
+    protected boolean blockOnOverflow;
 
     /**
      * @param configuration
@@ -62,18 +57,18 @@ public class UriQueue extends Thread {
      * @param pool
      * @param factory
      * @param monitor
-     * @param queue
      */
-    public UriQueue(Configuration configuration, CompletionService<TimedEvent[]> cs, ThreadPoolExecutor pool, TaskFactory factory, Monitor monitor, BlockingQueue<String> queue) {
+    public UriQueue(Configuration configuration, CompletionService<TimedEvent[]> cs, ExecutorService pool, TaskFactory factory, Monitor monitor) {
         super("UriQueueThread");
         this.configuration = configuration;
         this.pool = pool;
         this.factory = factory;
         this.monitor = monitor;
-        this.queue = queue;
         completionService = cs;
         logger = configuration.getLogger();
         useQueueFile = configuration.useQueueFile();
+        memoryBudget = configuration.getUriQueueMemoryBytes();
+        blockOnOverflow = configuration.isUriQueueBlocking();
     }
 
     /*
@@ -83,7 +78,6 @@ public class UriQueue extends Thread {
      */
     @Override
     public void run() {
-        active = true;
         long count = 0;
         SimpleLogger logger = configuration.getLogger();
 
@@ -99,41 +93,27 @@ public class UriQueue extends Thread {
             }
 
             while (true) {
-
-                String uri = null;
-
-                if (useQueueFile) {
-                    uri = getUriFromFile();
-                } else {
-                    try {
-                        uri = queue.poll(SLEEP_MILLIS, TimeUnit.MILLISECONDS);
-                    } catch (InterruptedException e) {
-                        // reset interrupt status and continue
-                        Thread.interrupted();
-                        logger.logException("interrupted", e);
-                        Thread.currentThread().interrupt();
-                        if (null == uri) {
-                            continue;
-                        }
+                // block until a uri is added or the queue is shut down
+                try {
+                    available.acquire();
+                } catch (InterruptedException e) {
+                    Thread.interrupted();
+                    if (!active) {
+                        // halted
+                        break;
                     }
+                    logger.logException("interrupted", e);
+                    continue;
                 }
 
+                String uri = poll();
+
                 if (null == uri) {
-                    // The in-memory queue returned with nothing
+                    // only a shutdown permit leaves the queue empty
                     logger.finer(this + " uri null, active " + active);
-
                     if (!active) {
-                        // queue is empty
                         break;
-                    } else if (useQueueFile) {
-                        try {
-                            Thread.sleep(200);
-                        } catch (InterruptedException e) {
-                            // do nothing
-                            Thread.currentThread().interrupt();
-                        }
                     }
-
                     continue;
                 }
 
@@ -147,10 +127,9 @@ public class UriQueue extends Thread {
 
                 if (buffer.length == bufferIndex) {
                     logger.finest("submitting " + buffer.length);
-                    completionService.submit(factory.newTask(buffer));
+                    submit(buffer);
                     buffer = new String[buffer.length];
                     bufferIndex = 0;
-                    Thread.yield();
                 }
 
                 count++;
@@ -163,19 +142,53 @@ public class UriQueue extends Thread {
                 for (int i = bufferIndex; i < buffer.length; i++) {
                     buffer[i] = null;
                 }
-                completionService.submit(factory.newTask(buffer));
-                Thread.yield();
+                submit(buffer);
             }
 
-        } catch (SyncException e) {
+        } catch (SyncException | FatalException e) {
             // stop the world
             logger.logException("fatal error", e);
             System.exit(1);
         }
 
+        closeQueue();
         logger.finest("finished queuing " + count + " uris");
     }
 
+    /**
+     * @param buffer
+     * @throws SyncException
+     */
+    private void submit(String[] buffer) {
+        // count first, so the monitor never sees more results than tasks
+        monitor.incrementSubmittedCount();
+        completionService.submit(factory.newTask(buffer));
+    }
+
+    /**
+     * @return the next uri, or null if the queue is empty
+     */
+    protected String poll() {
+        synchronized (queueMutex) {
+            UriBlockQueue q = queue;
+            if (null == q) {
+                return null;
+            }
+            try {
+                String uri = q.poll();
+                if (!useQueueFile && q.isSpilling() && 0 == q.getFileSize()) {
+                    logger.fine("uri queue spill drained");
+                    q.stopSpilling();
+                }
+                // wake a blocked add()
+                queueMutex.notifyAll();
+                return uri;
+            } catch (IOException e) {
+                throw new FatalException("can't read uri queue file", e);
+            }
+        }
+    }
+
     public synchronized void shutdown() {
         // ignore multiple calls
         if (active) {
@@ -183,6 +196,8 @@ public class UriQueue extends Thread {
         }
         // graceful shutdown, draining the queue
         active = false;
+        // wake the queue thread, in case it is waiting on an empty queue
+        available.release();
     }
 
     /**
@@ -193,6 +208,10 @@ public class UriQueue extends Thread {
         logger.info("halting queue");
         queue = null;
         active = false;
+        synchronized (queueMutex) {
+            // wake a blocked add()
+            queueMutex.notifyAll();
+        }
         pool.shutdownNow();
         interrupt();
     }
@@ -201,19 +220,49 @@ public class UriQueue extends Thread {
      * @param uri
      */
     public void add(String uri) {
-        Thread.yield();
-        synchronized (queueFileMutex) {
-
-            if (!useQueueFile)
-                queue.add(uri);
-            else { 
-                addUriToFile(uri);
-                queueFileEntries++;
+        synchronized (queueMutex) {
+            try {
+                if (!useQueueFile) {
+                    addUriToMemory(uri);
+                } else {
+                    if (!queue.isSpilling()) {
+                        queue.spillTo(newQueueFile());
+                    }
+                    queue.add(uri);
+                }
+            } catch (IOException e) {
+                throw new FatalException("can't write uri queue file", e);
             }
 
             monitor.incrementTaskCount();
         }
-        Thread.yield();
+        available.release();
+    }
+
+    /**
+     * Add to the in-memory queue, unless that would exceed the memory
+     * budget: then block until there is room, or spill to the queue file.
+     * The caller must hold queueMutex.
+     *
+     * @param uri
+     * @throws IOException
+     */
+    private void addUriToMemory(String uri) throws IOException {
+        // always allow one uri, or we could wait forever
+        while (blockOnOverflow && null != queue && queue.size() > 0 && queue.getMemoryBytes() > memoryBudget) {
+            try {
+                queueMutex.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.logException("interrupted while waiting for queue space", e);
+                break;
+            }
+        }
+        if (!blockOnOverflow && !queue.isSpilling() && queue.getMemoryBytes() > memoryBudget) {
+            logger.info("uri queue exceeded " + memoryBudget + " B with " + queue.size() + " uris: spilling to disk");
+            queue.spillTo(newQueueFile());
+        }
+        queue.add(uri);
     }
 
     /**
@@ -226,7 +275,7 @@ public class UriQueue extends Thread {
     /**
      * @return
      */
-    public ThreadPoolExecutor getPool() {
+    public ExecutorService getPool() {
         return pool;
     }
 
@@ -241,10 +290,16 @@ public class UriQueue extends Thread {
      * @return
      */
     public int getQueueSize() {
-        if (useQueueFile)
-            return queueFileEntries;
-        else 
-            return queue.size();
+        UriBlockQueue q = queue;
+        return null == q ? 0 : q.size();
+    }
+
+    /**
+     * @return the number of queued uris that were spilled to disk
+     */
+    public int getSpilledSize() {
+        UriBlockQueue q = queue;
+        return null == q ? 0 : q.getFileSize();
     }
     
     /**
@@ -255,60 +310,43 @@ public class UriQueue extends Thread {
     }
 
     /**
-     * Add the uri to a temporary file
+     * @return the file for queued uris, used by every spill in this run
+     * @throws IOException
      */
-    private void addUriToFile(String uri) {
-
-        if (null == queueFile) {
-            try {
-                
-                if (configuration.getUriQueueFile() != null) {
-                    queueFile = new File(configuration.getUriQueueFile());
-                    if (queueFile.exists()) {
-                        queueFile.delete();
-                    }
-                    queueFile.createNewFile();
-                } else if (configuration.getTmpDir() != null) {
-                    queueFile = File.createTempFile("xqsync", ".txt", new File(configuration.getTmpDir()));
-                } else {
-                    queueFile = File.createTempFile("xqsync", ".txt");
-                }
-
-                if (!configuration.keepUriQueueFile()) {
-                    queueFile.deleteOnExit();
-                }
-                queueFileWriter = new PrintWriter(queueFile);
-                queueFileReader = new BufferedReader(new FileReader(queueFile));
-            } catch (Exception e) {
-                // stop the world
-                logger.logException("fatal error", e);
-                System.exit(1);
-            } 
+    private File newQueueFile() throws IOException {
+        if (null != queue.getFile()) {
+            return queue.getFile();
+        }
+        File queueFile;
+        if (configuration.getUriQueueFile() != null) {
+            queueFile = new File(configuration.getUriQueueFile());
+            if (queueFile.exists()) {
+                queueFile.delete();
+            }
+            queueFile.createNewFile();
+        } else if (configuration.getTmpDir() != null) {
+            queueFile = File.createTempFile("xqsync", ".uris", new File(configuration.getTmpDir()));
+        } else {
+            queueFile = File.createTempFile("xqsync", ".uris");
         }
 
-        queueFileWriter.println(uri);
-        queueFileWriter.flush();
+        if (!configuration.keepUriQueueFile()) {
+            queueFile.deleteOnExit();
+        }
+        return queueFile;
     }
 
-    /**
-     * @returns the uri from the queue file, or null if error or EOF
-     */
-    private String getUriFromFile() {
-
-        String uri = null;
-
-        synchronized (queueFileMutex) {
+    private void closeQueue() {
+        synchronized (queueMutex) {
+            UriBlockQueue q = queue;
+            if (null == q) {
+                return;
+            }
             try {
-                if (queueFileReader != null)
-                    uri = queueFileReader.readLine();    
-
-                if (null != uri)
-                    queueFileEntries--;
+                q.close();
             } catch (IOException e) {
-                logger.logException("can't read uri queue file", e);
+                logger.logException("can't close uri queue file", e);
             }
         }
-
-        return uri;
     }
 }
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c)2004-2022 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.marklogic.ps.timing.StageTimer;
+
+/**
+ * Merges the documents written by concurrent tasks into output
+ * transactions of OUTPUT_BATCH_SIZE documents or OUTPUT_BATCH_BYTES,
+ * whichever comes first, so that output transactions need not follow
+ * INPUT_BATCH_SIZE. A partial batch is written after OUTPUT_BATCH_MILLIS.
+ * Each task blocks in write() until the transaction holding its documents
+ * commits or fails, so its timed events still cover the write, and a
+ * failed transaction fails every task in it.
+ */
+public class WriteCoalescer implements WriterInterface {
+
+    protected final Configuration configuration;
+    protected final StageTimer<Stage> timer;
+    protected final int batchSize;
+    protected final long batchBytes;
+    protected final long batchMillis;
+    protected final ScheduledExecutorService flusher;
+
+    // guarded by this
+    private Batch current;
+    private boolean closed;
+
+    /**
+     * @param configuration
+     */
+    public WriteCoalescer(Configuration configuration) {
+        this.configuration = configuration;
+        timer = configuration.getStageTimer();
+        batchSize = configuration.getOutputBatchSize();
+        batchBytes = configuration.getOutputBatchBytes();
+        batchMillis = configuration.getOutputBatchMillis();
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "xqsync-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public int write(String outputUri, byte[] contentBytes, XQSyncDocumentMetadata metadata) throws SyncException {
+        return write(new String[] { outputUri }, new byte[][] { contentBytes },
+                new XQSyncDocumentMetadata[] { metadata });
+    }
+
+    /**
+     * Blocks until the documents are written.
+     *
+     * @return a share of the bytes written by the transaction, in
+     *         proportion to the size of these documents
+     */
+    @Override
+    public int write(String[] outputUri, byte[][] contentBytes, XQSyncDocumentMetadata[] metadata) throws SyncException {
+        Entry entry = new Entry(outputUri, contentBytes, metadata);
+        if (0 == entry.count) {
+            return 0;
+        }
+        Batch full = null;
+        synchronized (this) {
+            if (closed) {
+                throw new FatalException("write coalescer is closed");
+            }
+            if (null == current) {
+                Batch batch = new Batch();
+                batch.timeout = flusher.schedule(() -> expire(batch), batchMillis, TimeUnit.MILLISECONDS);
+                current = batch;
+            }
+            current.add(entry);
+            if (current.count >= batchSize || current.bytes >= batchBytes) {
+                full = current;
+                current = null;
+                full.timeout.cancel(false);
+            }
+        }
+        // the task that fills a batch writes it
+        if (null != full) {
+            flush(full);
+        }
+        return entry.await();
+    }
+
+    /**
+     * Write whatever is pending, and stop the timer.
+     */
+    public void close() {
+        Batch last;
+        synchronized (this) {
+            closed = true;
+            last = current;
+            current = null;
+        }
+        if (null != last) {
+            last.timeout.cancel(false);
+            flush(last);
+        }
+        flusher.shutdown();
+    }
+
+    private void expire(Batch batch) {
+        synchronized (this) {
+            if (current != batch) {
+                // already full, or closed
+                return;
+            }
+            current = null;
+        }
+        flush(batch);
+    }
+
+    private void flush(Batch batch) {
+        String[] uris = new String[batch.count];
+        byte[][] content = new byte[batch.count][];
+        XQSyncDocumentMetadata[] metadata = new XQSyncDocumentMetadata[batch.count];
+        int k = 0;
+        for (Entry entry : batch.entries) {
+            timer.record(Stage.WRITE_COALESCE, entry.start);
+            // skipped documents have no uri, and the writer ignores them
+            for (int i = 0; i < entry.uris.length; i++) {
+                if (null == entry.uris[i]) {
+                    continue;
+                }
+                uris[k] = entry.uris[i];
+                content[k] = entry.content[i];
+                metadata[k] = entry.metadata[i];
+                k++;
+            }
+        }
+        try {
+            // writers are not thread-safe, and flushes may overlap
+            long bytes = configuration.newWriter().write(uris, content, metadata);
+            for (Entry entry : batch.entries) {
+                entry.written.complete((int) (0 == batch.bytes ? 0 : bytes * entry.bytes / batch.bytes));
+            }
+        } catch (Throwable t) {
+            for (Entry entry : batch.entries) {
+                entry.written.completeExceptionally(t);
+            }
+        }
+    }
+
+    private static class Entry {
+
+        final String[] uris;
+        final byte[][] content;
+        final XQSyncDocumentMetadata[] metadata;
+        final long start = StageTimer.start();
+        final CompletableFuture<Integer> written = new CompletableFuture<>();
+        int count;
+        long bytes;
+
+        Entry(String[] uris, byte[][] content, XQSyncDocumentMetadata[] metadata) {
+            this.uris = uris;
+            this.content = content;
+            this.metadata = metadata;
+            for (int i = 0; i < uris.length; i++) {
+                if (null == uris[i]) {
+                    continue;
+                }
+                count++;
+                if (null != content[i]) {
+                    bytes += content[i].length;
+                }
+            }
+        }
+
+        int await() throws SyncException {
+            try {
+                return written.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SyncException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SyncException) {
+                    throw (SyncException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new SyncException(cause);
+            }
+        }
+    }
+
+    private static class Batch {
+
+        final List<Entry> entries = new ArrayList<>();
+        ScheduledFuture<?> timeout;
+        int count;
+        long bytes;
+
+        void add(Entry entry) {
+            entries.add(entry);
+            count += entry.count;
+            bytes += entry.bytes;
+        }
+    }
+}
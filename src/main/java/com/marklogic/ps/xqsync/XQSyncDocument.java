@@ -26,9 +26,12 @@ import java.io.Reader;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
 
 import com.marklogic.ps.SimpleLogger;
 import com.marklogic.ps.Utilities;
+import com.marklogic.ps.timing.StageTimer;
 
 /**
  * @author Michael Blakeley, MarkLogic Corporation
@@ -40,8 +43,10 @@ public class XQSyncDocument implements DocumentInterface {
     public static final String ENCODING = UTF_8;
     public static final String METADATA_EXT = ".metadata";
     public static final String METADATA_REGEX = "^.+\\" + XQSyncDocument.METADATA_EXT + "$";
+    public static final Pattern METADATA_PATTERN = Pattern.compile(METADATA_REGEX);
     protected final byte[][] contentBytes;
     protected final XQSyncDocumentMetadata[] metadata;
+    protected final boolean[] skipped;
     protected SimpleLogger logger = null;
     protected final WriterInterface writer;
     protected final ReaderInterface reader;
@@ -70,6 +75,7 @@ public class XQSyncDocument implements DocumentInterface {
 
         metadata = new XQSyncDocumentMetadata[inputUris.length];
         contentBytes = new byte[inputUris.length][];
+        skipped = new boolean[inputUris.length];
 
         composeOutputUris();
     }
@@ -119,10 +125,14 @@ public class XQSyncDocument implements DocumentInterface {
     private int write() throws SyncException {
         String uri = null;
         int len = 0;
+        int count = 0;
+        StageTimer<Stage> timer = configuration.getStageTimer();
+        long start = StageTimer.start();
         for (int i = 0; i < outputUris.length; i++) {
-            if (null == inputUris[i]) {
+            if (skipped[i] || null == inputUris[i]) {
                 continue;
             }
+            count++;
             uri = outputUris[i];
             if (null == contentBytes[i]) {
                 throw new NullPointerException("null content bytes at " + i + " (" + uri + "(");
@@ -132,20 +142,64 @@ public class XQSyncDocument implements DocumentInterface {
             }
 
             // check for and strip BOM
-            if (contentBytes[i].length > 2 && !metadata[i].isBinary()
-                    && (byte) 0xEF == contentBytes[i][0]
-                    && (byte) 0xBB == contentBytes[i][1]
-                    && (byte) 0xBF == contentBytes[i][2]) {
+            if (!metadata[i].isBinary() && hasBom(contentBytes[i])) {
                 logger.finer("stripping BOM from " + uri);
-                byte[] copy = new byte[contentBytes[i].length - 3];
-                System.arraycopy(contentBytes[i], 3, copy, 0, copy.length);
-                contentBytes[i] = copy;
+                contentBytes[i] = stripBom(contentBytes[i]);
             }
         }
-	      len = writer.write(outputUris, contentBytes, metadata);
+        start = timer.record(Stage.BOM, start);
+        if (0 == count) {
+            // every document was skipped
+            return 0;
+        }
+        String[] writeUris = outputUris;
+        byte[][] writeContent = contentBytes;
+        XQSyncDocumentMetadata[] writeMetadata = metadata;
+        if (count < outputUris.length) {
+            // writers expect the documents first, with no gaps
+            writeUris = new String[count];
+            writeContent = new byte[count][];
+            writeMetadata = new XQSyncDocumentMetadata[count];
+            int j = 0;
+            for (int i = 0; i < outputUris.length; i++) {
+                if (skipped[i] || null == inputUris[i]) {
+                    continue;
+                }
+                writeUris[j] = outputUris[i];
+                writeContent[j] = contentBytes[i];
+                writeMetadata[j] = metadata[i];
+                j++;
+            }
+        }
+        len = writer.write(writeUris, writeContent, writeMetadata);
+        timer.record(Stage.WRITE, start, len);
         return len;
     }
 
+    /**
+     * @param bytes
+     * @return true if the bytes start with a UTF-8 byte order mark
+     */
+    static boolean hasBom(byte[] bytes) {
+        return bytes.length > 2
+                && (byte) 0xEF == bytes[0]
+                && (byte) 0xBB == bytes[1]
+                && (byte) 0xBF == bytes[2];
+    }
+
+    /**
+     * @param bytes
+     * @return the bytes without a leading UTF-8 byte order mark
+     */
+    static byte[] stripBom(byte[] bytes) {
+        if (!hasBom(bytes)) {
+            return bytes;
+        }
+        byte[] copy = new byte[bytes.length - 3];
+        System.arraycopy(bytes, 3, copy, 0, copy.length);
+        return copy;
+    }
+
     /**
      * @throws SyncException
      */
@@ -154,11 +208,19 @@ public class XQSyncDocument implements DocumentInterface {
             return;
         }
 
+        long start = StageTimer.start();
         reader.read(inputUris, this);
+        long bytes = 0;
+        for (byte[] content : contentBytes) {
+            if (null != content) {
+                bytes += content.length;
+            }
+        }
+        configuration.getStageTimer().record(Stage.READ, start, bytes);
 
         // implement any configuration-mandated changes
         for (int i = 0; i < metadata.length; i++) {
-            if (null == inputUris[i]) {
+            if (null == inputUris[i] || skipped[i]) {
                 continue;
             }
             if (null == metadata[i]) {
@@ -255,6 +317,15 @@ public class XQSyncDocument implements DocumentInterface {
         }
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.marklogic.ps.xqsync.DocumentInterface#setSkipped(int)
+     */
+    public void setSkipped(int index) {
+        skipped[index] = true;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -287,7 +358,7 @@ public class XQSyncDocument implements DocumentInterface {
      */
     public void setContent(int index, Reader reader) throws SyncException {
         try {
-            contentBytes[index] = Utilities.cat(reader).getBytes();
+            contentBytes[index] = Utilities.cat(reader).getBytes(StandardCharsets.UTF_8);
         } catch (IOException e) {
             throw new SyncException(e);
         }
@@ -19,7 +19,11 @@
  */
 package com.marklogic.ps.xqsync;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -52,6 +56,69 @@ public class XQSyncDocumentMetadata implements MetadataInterface {
         return (XQSyncDocumentMetadata) xstream.fromXML(reader);
     }
 
+    /**
+     * @param out
+     *            receives a compact form, for a package manifest
+     * @throws IOException
+     */
+    public void write(DataOutput out) throws IOException {
+        writeString(out, getFormatName());
+        out.writeInt(quality);
+        writeString(out, properties);
+        writeString(out, hashValue);
+        out.writeInt(collectionsList.size());
+        for (String collection : collectionsList) {
+            writeString(out, collection);
+        }
+        out.writeInt(permissionsList.size());
+        for (ContentPermission permission : permissionsList) {
+            writeString(out, permission.getCapability().toString());
+            writeString(out, permission.getRole());
+        }
+    }
+
+    /**
+     * @param in
+     *            from write()
+     * @return
+     * @throws IOException
+     */
+    public static XQSyncDocumentMetadata read(DataInput in) throws IOException {
+        XQSyncDocumentMetadata metadata = new XQSyncDocumentMetadata();
+        metadata.setFormat(readString(in));
+        metadata.quality = in.readInt();
+        metadata.properties = readString(in);
+        metadata.hashValue = readString(in);
+        for (int i = in.readInt(); i > 0; i--) {
+            metadata.collectionsList.add(readString(in));
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            metadata.addPermission(readString(in), readString(in));
+        }
+        return metadata;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        // writeUTF() is limited to 64 kB, and has no null
+        if (null == value) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
     /**
      * @return
      */
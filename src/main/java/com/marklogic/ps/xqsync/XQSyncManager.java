@@ -20,23 +20,27 @@
 package com.marklogic.ps.xqsync;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletionService;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.marklogic.ps.FileFinder;
+import com.marklogic.ps.BoundedExecutor;
+import com.marklogic.ps.FileWalker;
 import com.marklogic.ps.Session;
 import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.VirtualThreads;
 import com.marklogic.ps.timing.TimedEvent;
 import com.marklogic.xcc.ContentbaseMetaData;
 import com.marklogic.xcc.Request;
@@ -107,8 +111,9 @@ public class XQSyncManager {
     private final Configuration configuration;
     private long itemsQueued;
     private UriQueue uriQueue;
-    private UriQueue lastUriQueue;
     private Monitor monitor;
+    private SyncManifest manifest;
+    private DeltaCheckpoint checkpoint;
 
     /**
      * @param config
@@ -124,23 +129,13 @@ public class XQSyncManager {
             // start your engines...
             int threads = configuration.getThreadCount();
             logger.finer("threads = " + threads);
-            BlockingQueue<Runnable> workQueue = null;
             inputSession = configuration.newInputSession();
-            int queueSize = configuration.getQueueSize();
-            logger.info("starting pool of " + threads
-                    + " threads, queue size = " + queueSize);
-            // an array queue should be somewhat lighter-weight
-            workQueue = new ArrayBlockingQueue<>(queueSize);
-
-            // CallerBlocksPolicy will automatically throttle the queue,
-            // except for runs that use input-connection.
-            RejectedExecutionHandler policy = new CallerBlocksPolicy();
-            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 16, TimeUnit.SECONDS, workQueue, policy);
-            CompletionService<TimedEvent[]> completionService = new ExecutorCompletionService<>(pool);
+            ExecutorService pool = newPool(threads);
 
             // to attempt to avoid starvation, run the monitor with higher
             // priority than the thread pool will have.
-            monitor = new Monitor(configuration, pool, completionService, configuration.isFatalErrors());
+            monitor = new Monitor(configuration, pool, configuration.isFatalErrors());
+            CompletionService<TimedEvent[]> completionService = monitor.getCompletionService();
             monitor.setPriority(1 + Thread.NORM_PRIORITY);
             monitor.start();
 
@@ -167,37 +162,22 @@ public class XQSyncManager {
                 itemsQueued = queueFromInputConnection();
             } else {
                 if (null != configuration.getInputPackagePath()) {
-                    itemsQueued = queueFromInputPackage(configuration.getInputPackagePath());
+                    itemsQueued = queueFromInputPackage(configuration.getInputPackagePath(), factory);
                 } else {
                     itemsQueued = queueFromInputPath(configuration.getInputPath());
                 }
             }
 
-            // no more tasks to queue - now we just wait
-            while (monitor.getTaskCount() != itemsQueued) {
-                Thread.sleep(125);
-                Thread.yield();
-                if (monitor.getTaskCount() > itemsQueued) {
-                    throw new FatalException("task count mismatch: "
-                            + itemsQueued + " < "
-                            + monitor.getTaskCount());
-                }
+            // no more tasks to queue - uriQueue.add() counts synchronously
+            if (monitor.getTaskCount() != itemsQueued) {
+                throw new FatalException("task count mismatch: "
+                        + itemsQueued + " != " + monitor.getTaskCount());
             }
             monitor.setFinalTaskCount(itemsQueued);
             logger.info("final queue count " + itemsQueued);
-            uriQueue.shutdown();
-
-            logger.fine("queue is shutdown with queue size "
-                    + uriQueue.getQueueSize());
-            // loop until all uri tasks have been queued
-            do {
-                /* Give the queue a chance to start, before testing it.
-                 * After that, the queue should fill much more quickly
-                 * than the thread pool can drain it.
-                 */
-                Thread.sleep(125);
-                Thread.yield();
-            } while (uriQueue.getQueueSize() > 0);
+
+            // wait until all uri tasks have been submitted
+            awaitUriQueue(uriQueue);
 
             /*
              * shut down the pool after queuing is complete and task count has
@@ -205,22 +185,39 @@ public class XQSyncManager {
              */
             logger.info("pool ready to shutdown, queue size " + uriQueue.getQueueSize());
             pool.shutdown();
+            monitor.noMoreTasks();
 
             logger.info("waiting for monitor to exit");
-            do {
-                logger.finest("waiting for monitor " + monitor + " " + (null != monitor) + " " + monitor.isAlive());
+            while (monitor.isAlive()) {
                 try {
-                    Thread.yield();
                     monitor.join();
                 } catch (InterruptedException e) {
                     // reset interrupt status and continue
                     Thread.interrupted();
                     logger.logException("interrupted", e);
                 }
-                logger.finest("waiting for monitor " + monitor + " " + (null != monitor) + " " + monitor.isAlive());
-            } while (null != monitor && monitor.isAlive());
+            }
+
+            if (null != manifest) {
+                if (monitor.isComplete()) {
+                    manifest.commit();
+                } else {
+                    manifest.abort();
+                }
+            }
+            if (null != checkpoint) {
+                if (monitor.isComplete()) {
+                    checkpoint.commit();
+                } else {
+                    logger.warning("not recording timestamp " + checkpoint.getTimestamp()
+                            + ": the run did not complete");
+                }
+            }
         } catch (Throwable t) {
             logger.logException("fatal error", t);
+            if (null != manifest) {
+                manifest.abort();
+            }
             // clean up
             // first, ensure no new new tasks are queued
             if (null != uriQueue) {
@@ -250,149 +247,118 @@ public class XQSyncManager {
         logger.fine("exiting");
     }
 
+    /**
+     * @param threads
+     * @return
+     */
+    private ExecutorService newPool(int threads) {
+        if (configuration.useVirtualThreads()) {
+            ThreadFactory threadFactory = VirtualThreads.newThreadFactory("xqsync-");
+            if (null != threadFactory) {
+                // virtual threads are cheap, so bound concurrency rather than
+                // pooling: the caller blocks until a permit is available
+                logger.info("starting virtual threads, concurrency = " + threads);
+                return new BoundedExecutor(threads, threadFactory);
+            }
+            logger.warning(Configuration.USE_VIRTUAL_THREADS_KEY
+                    + " requires a JVM with virtual threads: using a thread pool");
+        }
+
+        int queueSize = configuration.getQueueSize();
+        logger.info("starting pool of " + threads
+                + " threads, queue size = " + queueSize);
+        // an array queue should be somewhat lighter-weight
+        BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<>(queueSize);
+
+        // CallerBlocksPolicy will automatically throttle the queue,
+        // except for runs that use input-connection.
+        RejectedExecutionHandler policy = new CallerBlocksPolicy();
+        return new ThreadPoolExecutor(threads, threads, 16, TimeUnit.SECONDS, workQueue, policy);
+    }
+
     /**
      * @param completionService
      * @param pool
      * @param factory
      * @param monitor
      */
-    private void newUriQueue(CompletionService<TimedEvent[]> completionService, ThreadPoolExecutor pool, TaskFactory factory, Monitor monitor) {
-        uriQueue = new UriQueue(configuration, completionService, pool, factory, monitor, new LinkedBlockingQueue<>());
+    private void newUriQueue(CompletionService<TimedEvent[]> completionService, ExecutorService pool, TaskFactory factory, Monitor monitor) {
+        // the queue is active from construction, so shutdown cannot race start
+        uriQueue = new UriQueue(configuration, completionService, pool, factory, monitor);
+        monitor.setUriQueue(uriQueue);
         uriQueue.start();
-        // do not proceed until the uriQueue is running - fixes race
-        while (!uriQueue.isActive()) {
-            Thread.yield();
-        }
     }
 
     /**
-     * @return
-     * @throws IOException
-     * @throws SyncException
+     * Shut down the queue, and wait until it has submitted every task.
      *
+     * @param queue
+     * @throws InterruptedException
      */
-    private long queueFromInputPackage(String path) throws IOException,
-            SyncException {
-        logger.fine(path);
-        File file = new File(path);
-
-        if (!file.exists()) {
-            throw new IOException("missing expected input package path: " + path);
-        }
-
-        if (!file.canRead()) {
-            throw new IOException("cannot read from input package path: " + path);
-        }
-
-        if (file.isFile()) {
-            return queueFromInputPackageFile(file);
-        }
-
-        if (!file.isDirectory()) {
-            throw new IOException("unexpected file type: " + file.getCanonicalPath());
-        }
-
-        // directory, so look for zip children
-        long total = 0;
-        final String extension = Configuration.getPackageFileExtension();
-        FileFilter filter = pathname -> (pathname.isDirectory() || (pathname.isFile() && pathname.getName().endsWith(extension)));
-
-        File[] children = file.listFiles(filter);
-        Arrays.sort(children);
-
-        String childPath;
-        for (File child : children) {
-            childPath = child.getCanonicalPath();
-            total += queueFromInputPackage(childPath);
+    private void awaitUriQueue(UriQueue queue) throws InterruptedException {
+        if (null == queue) {
+            return;
         }
-        return total;
+        queue.shutdown();
+        logger.fine("waiting for " + queue + " with queue size " + queue.getQueueSize());
+        queue.join();
     }
 
     /**
      * @param path
+     *            a package, or a directory of packages
+     * @param factory
+     *            provides the writers for every package
      * @return
      * @throws IOException
-     * @throws SyncException
+     * @throws InterruptedException
      */
-    private long queueFromInputPackageFile(File path) throws IOException, SyncException {
-        // list contents of package
-        logger.fine("listing package " + path);
-
-        // allow up to two active uriQueues
-        while (null != lastUriQueue && 0 != lastUriQueue.getQueueSize()) {
-            try {
-                Thread.sleep(125);
-            } catch (InterruptedException e) {
-                // reset interrupt status and continue
-                Thread.currentThread().interrupt();
-                logger.warning("interrupted, will continue");
-            }
-        }
-
-        InputPackage inputPackage = new InputPackage(path.getCanonicalPath(), configuration);
-        // ensure that the package won't close while euing
-        inputPackage.addReference();
-        logger.fine("listing package " + path + " (" + inputPackage.size() + ")");
-
-        // create a new factory and queue for each input package
-        // shutdown may be called multiple times - that is ok
-        if (null != uriQueue) {
-            uriQueue.shutdown();
-        }
-        lastUriQueue = uriQueue;
-        newUriQueue(uriQueue, new PackageTaskFactory(configuration, monitor, inputPackage));
-        logger.fine("uriQueue = " + uriQueue + ", last = " + lastUriQueue);
-
-        Iterator<String> iter = inputPackage.list().iterator();
-        String inputPackagePath;
-        long count = 0;
-
-        while (iter.hasNext()) {
-            inputPackagePath = iter.next();
-            logger.finest("queuing " + count + ": " + inputPackagePath);
-            inputPackage.addReference();
-            uriQueue.add(inputPackagePath);
-            count++;
-        }
-
-        // clean up so that the package can be closed
-        uriQueue.shutdown();
-        inputPackage.closeReference();
-        logger.info("queued " + count + " from " + path);
-        return count;
-    }
-
-    /**
-     * @param old
-     * @param factory
-     */
-    private void newUriQueue(UriQueue old, TaskFactory factory) {
-        // copy from old to new
-        newUriQueue(old.getCompletionService(), old.getPool(), factory, old.getMonitor());
+    private long queueFromInputPackage(String path, TaskFactory factory) throws IOException, InterruptedException {
+        logger.fine(path);
+        List<File> packages = PackageScheduler.findPackages(new File(path));
+        return new PackageScheduler(configuration, monitor, factory).queue(packages);
     }
 
     /**
      * @throws XccException
      * @throws SyncException
      */
-    private long queueFromInputConnection() throws XccException {
+    private long queueFromInputConnection() throws XccException, IOException {
+        String deltaState = configuration.getInputDeltaState();
+        if (null != deltaState) {
+            checkpoint = new DeltaCheckpoint(Paths.get(deltaState));
+            checkpoint.load();
+            BigInteger timestamp = configuration.getTimestamp();
+            if (null == timestamp) {
+                timestamp = inputSession.getCurrentServerPointInTime();
+            }
+            checkpoint.setTimestamp(timestamp);
+            logger.info("delta run at timestamp " + timestamp);
+        }
+
+        long count;
         // use lexicon by default - this may throw an exception
         try {
-            return queueFromInputConnection(true);
+            count = queueFromInputConnection(true);
         } catch (XQueryException e) {
             // check to see if the exception was XDMP-URILXCNNOTFOUND
             String code = e.getCode();
-            if (ERROR_CODE_MISSING_URI_LEXICON.equals(code)) {
-                // try again, the hard way
-                logger.warning("Enable the document uri lexicon on "
-                        + inputSession.getContentBaseName()
-                        + " to speed up synchronization.");
-
-                return queueFromInputConnection(false);
+            if (!ERROR_CODE_MISSING_URI_LEXICON.equals(code)) {
+                logger.logException("error queuing from input connection", e);
+                throw e;
             }
-            logger.logException("error queuing from input connection", e);
-            throw e;
+            // try again, the hard way
+            logger.warning("Enable the document uri lexicon on "
+                    + inputSession.getContentBaseName()
+                    + " to speed up synchronization.");
+
+            count = queueFromInputConnection(false);
         }
+
+        if (null != checkpoint && configuration.isInputDeltaDeletes()) {
+            deleteVanished();
+        }
+        return count;
     }
 
     /**
@@ -405,6 +371,12 @@ public class XQSyncManager {
         String[] directoryUris = configuration.getInputDirectoryUris();
         String[] documentUris = configuration.getInputDocumentUris();
         String[] userQuery = configuration.getInputQuery();
+        BigInteger since = null == checkpoint ? null : checkpoint.getSince();
+        if (null != since && null != userQuery) {
+            logger.warning("ignoring " + Configuration.INPUT_QUERY_KEY
+                    + " for delta run: use " + Configuration.INPUT_DELTA_QUERY_KEY);
+            userQuery = null;
+        }
         // warn the user about incompatible combinations
         if (null != documentUris) {
             if (null != collectionUris
@@ -447,6 +419,10 @@ public class XQSyncManager {
         opts.setCacheResult(configuration.isInputQueryCachable());
         opts.setResultBufferSize(configuration.inputQueryBufferSize());
         logger.info("buffer size = " + opts.getResultBufferSize() + ", caching = " + opts.getCacheResult());
+        if (null != checkpoint) {
+            // list at the checkpoint, so the next run starts from there
+            opts.setEffectivePointInTime(checkpoint.getTimestamp());
+        }
 
         String uri;
         Request request;
@@ -474,7 +450,7 @@ public class XQSyncManager {
                 request = getRequest(null == collectionUris ? null
                         : collectionUris[i], null == directoryUris ? null
                         : directoryUris[i], null == userQuery ? null
-                        : userQuery[i], startPosition, useLexicon);
+                        : userQuery[i], startPosition, useLexicon, since);
                 request.setOptions(opts);
 
                 try (ResultSequence rs = inputSession.submitRequest(request)){
@@ -506,12 +482,20 @@ public class XQSyncManager {
      * @param userQuery
      * @param startPosition
      * @param useLexicon
+     * @param since
+     *            list only documents modified since this timestamp, or null
      * @return
      * @throws XccException
      */
-    private Request getRequest(String collectionUri, String directoryUri, String userQuery, Long startPosition, boolean useLexicon) throws XccException {
+    private Request getRequest(String collectionUri, String directoryUri, String userQuery, Long startPosition, boolean useLexicon, BigInteger since) throws XccException {
         boolean hasStart = (startPosition != null && startPosition > 1);
         Request request;
+        if (null != since) {
+            if (hasStart) {
+                logger.warning("ignoring start value for delta run");
+            }
+            return getDeltaRequest(collectionUri, directoryUri, since, useLexicon);
+        }
         // TODO allow limit by forest names? would only work with cts:uris()
         if (collectionUri != null) {
             request = getCollectionRequest(collectionUri, hasStart, useLexicon);
@@ -546,6 +530,152 @@ public class XQSyncManager {
         return request;
     }
 
+    /**
+     * @param collectionUri
+     * @param directoryUri
+     * @param since
+     * @param useLexicon
+     * @return a request listing documents modified since the timestamp
+     */
+    private Request getDeltaRequest(String collectionUri, String directoryUri, BigInteger since, boolean useLexicon) {
+        String deltaQuery = configuration.getInputDeltaQuery();
+        Request request;
+        if (null != deltaQuery) {
+            logger.info("listing changes since " + since + " with query: " + deltaQuery);
+            request = inputSession.newAdhocQuery(deltaQuery);
+        } else {
+            // needs maintain-last-modified, and a dateTime range index
+            // on prop:last-modified
+            logger.info("listing changes since " + since);
+            String scope = "";
+            if (null != collectionUri) {
+                scope = "cts:collection-query($uri),\n";
+            } else if (null != directoryUri) {
+                scope = "cts:directory-query($uri, 'infinity'),\n";
+            }
+            String query = Session.XQUERY_VERSION_1_0_ML
+                    + "declare variable $SINCE as xs:integer external;\n"
+                    + "declare variable $OVERLAP as xs:integer external;\n"
+                    + (scope.isEmpty() ? "" : "declare variable $uri as xs:string external;\n")
+                    + "declare variable $QUERY := cts:and-query((\n" + scope
+                    + "  cts:properties-query(cts:element-range-query(\n"
+                    + "    xs:QName('prop:last-modified'), '>=',\n"
+                    + "    xdmp:timestamp-to-wallclock(xs:unsignedLong($SINCE))\n"
+                    + "    - xs:dayTimeDuration(concat('PT', $OVERLAP, 'S'))))));\n";
+            if (useLexicon) {
+                query += "cts:uris('', 'document', $QUERY)\n";
+            } else {
+                query += "for $i in cts:search(doc(), $QUERY, 'unfiltered')\n"
+                        + "return string(xdmp:node-uri($i))\n";
+            }
+            logger.fine(query);
+            request = inputSession.newAdhocQuery(query);
+            if (null != collectionUri) {
+                request.setNewStringVariable("uri", collectionUri);
+            } else if (null != directoryUri) {
+                request.setNewStringVariable("uri", directoryUri.endsWith("/") ? directoryUri : directoryUri + "/");
+            }
+            request.setNewIntegerVariable("OVERLAP", configuration.getInputDeltaOverlapSeconds());
+        }
+        request.setNewIntegerVariable("SINCE", since.longValue());
+        return request;
+    }
+
+    /**
+     * Delete output documents that are not in the input, by merging the
+     * two sorted uri lexicons. Only uris are listed, not documents.
+     *
+     * @return the number of documents deleted
+     * @throws XccException
+     */
+    private long deleteVanished() throws XccException {
+        if (null != configuration.getInputCollectionUris()
+                || null != configuration.getInputDirectoryUris()
+                || null != configuration.getInputDocumentUris()
+                || null != configuration.getInputQuery()) {
+            logger.warning(Configuration.INPUT_DELTA_DELETES_KEY
+                    + " only applies to whole-database runs: skipping deletes");
+            return 0;
+        }
+        if (!isEmpty(configuration.getUriPrefix())
+                || !isEmpty(configuration.getUriSuffix())
+                || !isEmpty(configuration.getUriPrefixStrip())
+                || !isEmpty(configuration.getUriSuffixStrip())
+                || configuration.useRandomOutputUri()
+                || configuration.encodeOutputUri()) {
+            logger.warning(Configuration.INPUT_DELTA_DELETES_KEY
+                    + " requires identical input and output uris: skipping deletes");
+            return 0;
+        }
+
+        String query = Session.XQUERY_VERSION_1_0_ML + "cts:uris('', 'document')";
+        long deleted = 0;
+        String[] batch = new String[configuration.getInputBatchSize()];
+        int batchIndex = 0;
+        try (Session outputSession = configuration.newOutputSession();
+             Session deleteSession = configuration.newOutputSession()) {
+            if (null == outputSession) {
+                logger.warning(Configuration.INPUT_DELTA_DELETES_KEY + " requires "
+                        + Configuration.OUTPUT_CONNECTION_STRING_KEY + ": skipping deletes");
+                return 0;
+            }
+            logger.info("listing output uris to find deletes");
+            Request inputRequest = inputSession.newAdhocQuery(query);
+            inputRequest.setOptions(inputSession.getDefaultRequestOptions());
+            RequestOptions outputOptions = new RequestOptions();
+            outputOptions.setCacheResult(false);
+            Request outputRequest = outputSession.newAdhocQuery(query, outputOptions);
+            try (ResultSequence input = inputSession.submitRequest(inputRequest);
+                 ResultSequence output = outputSession.submitRequest(outputRequest)) {
+                String inputUri = input.hasNext() ? input.next().asString() : null;
+                while (output.hasNext()) {
+                    String outputUri = output.next().asString();
+                    while (null != inputUri && compareCodepoints(inputUri, outputUri) < 0) {
+                        inputUri = input.hasNext() ? input.next().asString() : null;
+                    }
+                    if (null == inputUri || !inputUri.equals(outputUri)) {
+                        logger.finest("deleting " + outputUri);
+                        batch[batchIndex++] = outputUri;
+                        deleted++;
+                        if (batch.length == batchIndex) {
+                            deleteSession.deleteDocuments(batch);
+                            batchIndex = 0;
+                        }
+                    }
+                }
+            }
+            if (batchIndex > 0) {
+                deleteSession.deleteDocuments(Arrays.copyOf(batch, batchIndex));
+            }
+        }
+        logger.info("deleted " + deleted + " output documents not in the input");
+        return deleted;
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return the comparison in codepoint order, as used by the uri lexicon
+     */
+    static int compareCodepoints(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int x = a.codePointAt(i);
+            int y = b.codePointAt(j);
+            if (x != y) {
+                return x < y ? -1 : 1;
+            }
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        return (a.length() - i) - (b.length() - j);
+    }
+
+    private static boolean isEmpty(String s) {
+        return null == s || s.isEmpty();
+    }
+
     /**
      * @param hasStart
      * @param useLexicon
@@ -622,25 +752,58 @@ public class XQSyncManager {
      * @throws IOException
      */
     private long queueFromInputPath(String inputPath) throws IOException {
-        // build documentList from a filesystem path
+        // stream files from a filesystem path, as they are found
         // exclude stuff that ends with '.metadata'
-        logger.info("listing from " + inputPath + ", excluding " + XQSyncDocument.METADATA_REGEX);
-        FileFinder ff = new FileFinder(inputPath, null, XQSyncDocument.METADATA_REGEX);
-        ff.find();
-
-        Iterator<File> iter = ff.list().iterator();
-        File file;
-        String canonicalPath;
-        long count = 0;
-        while (iter.hasNext()) {
-            count++;
-            file = iter.next();
-            canonicalPath = file.getCanonicalPath();
-            logger.finer("queuing " + count + ": " + canonicalPath);
-            uriQueue.add(canonicalPath);
+        int threads = configuration.getInputPathThreads();
+        logger.info("listing from " + inputPath + " with " + threads
+                + " thread(s), excluding " + XQSyncDocument.METADATA_REGEX);
+        FileWalker walker = new FileWalker(Paths.get(inputPath), null, XQSyncDocument.METADATA_PATTERN, threads);
+        String manifestPath = configuration.getInputPathManifest();
+        if (null == manifestPath) {
+            long count = walker.walk(path -> {
+                logger.finest("queuing " + path);
+                uriQueue.add(path.toString());
+            });
+            if (walker.getErrorCount() > 0) {
+                logger.warning("could not list " + walker.getErrorCount() + " directories under " + inputPath);
+            }
+            return count;
         }
 
-        return count;
+        // incremental: only queue what changed since the last clean run
+        manifest = new SyncManifest(Paths.get(manifestPath));
+        manifest.load();
+        AtomicLong count = new AtomicLong();
+        long total = walker.walk(path -> {
+            try {
+                if (!manifest.isChanged(path)) {
+                    return;
+                }
+            } catch (IOException e) {
+                // queue it anyway, and let the reader report any error
+                logger.logException("cannot check " + path, e);
+            }
+            logger.finest("queuing " + path);
+            uriQueue.add(path.toString());
+            count.incrementAndGet();
+        });
+        logger.info("queued " + count + " new or changed of " + total);
+        if (walker.getErrorCount() > 0) {
+            // unlisted files would look deleted
+            logger.warning("could not list " + walker.getErrorCount() + " directories under " + inputPath
+                    + ": the manifest will not be updated");
+            manifest.abort();
+            return count.get();
+        }
+        if (configuration.isInputPathManifestDeletes()) {
+            long deleted = manifest.forEachDeleted(path -> {
+                logger.finest("queuing delete " + path);
+                uriQueue.add(path);
+            });
+            logger.info("queued " + deleted + " deletes");
+            count.addAndGet(deleted);
+        }
+        return count.get();
     }
 
     /**
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2006-2022 MarkLogic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedExecutorTest {
+
+    private ThreadFactory newThreadFactory() {
+        ThreadFactory factory = VirtualThreads.newThreadFactory("test-");
+        return null == factory ? Executors.defaultThreadFactory() : factory;
+    }
+
+    @Test
+    public void testConcurrencyIsBounded() throws Exception {
+        final int concurrency = 3;
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maximum = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        BoundedExecutor executor = new BoundedExecutor(concurrency, newThreadFactory());
+        for (int i = 0; i < 50; i++) {
+            executor.execute(() -> {
+                int now = running.incrementAndGet();
+                maximum.accumulateAndGet(now, Math::max);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                completed.incrementAndGet();
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertTrue(executor.isTerminated());
+        assertEquals(50, completed.get());
+        assertTrue(maximum.get() <= concurrency);
+        assertEquals(0, executor.getActiveCount());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testRejectAfterShutdown() {
+        BoundedExecutor executor = new BoundedExecutor(1, newThreadFactory());
+        executor.shutdown();
+        executor.execute(() -> {
+        });
+    }
+
+    @Test
+    public void testPermitReleasedWhenThreadFails() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        final ThreadFactory delegate = newThreadFactory();
+        BoundedExecutor executor = new BoundedExecutor(1, task -> {
+            if (0 == created.getAndIncrement()) {
+                throw new OutOfMemoryError("unable to create native thread");
+            }
+            return delegate.newThread(task);
+        });
+        try {
+            executor.execute(() -> {
+            });
+        } catch (OutOfMemoryError e) {
+            // expected
+        }
+        // would block forever if the permit were lost
+        final AtomicInteger ran = new AtomicInteger();
+        executor.execute(ran::incrementAndGet);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, ran.get());
+    }
+}
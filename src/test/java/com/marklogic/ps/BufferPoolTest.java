@@ -0,0 +1,88 @@
+package com.marklogic.ps;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testSizes() {
+        assertEquals(0, BufferPool.index(1));
+        assertEquals(0, BufferPool.index(BufferPool.MIN_SIZE));
+        assertEquals(1, BufferPool.index(BufferPool.MIN_SIZE + 1));
+        assertEquals(1, BufferPool.index(2 * BufferPool.MIN_SIZE));
+        assertEquals(-1, BufferPool.index(BufferPool.MAX_SIZE + 1));
+
+        BufferPool pool = new BufferPool();
+        assertEquals(BufferPool.MIN_SIZE, pool.acquire(10).length);
+        assertEquals(4 * BufferPool.MIN_SIZE, pool.acquire(3 * BufferPool.MIN_SIZE).length);
+        assertEquals(BufferPool.MAX_SIZE + 1, pool.acquire(BufferPool.MAX_SIZE + 1).length);
+    }
+
+    @Test
+    public void testReuse() {
+        BufferPool pool = new BufferPool();
+        byte[] buffer = pool.acquire(1000);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(2000));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+
+        // foreign and oversized buffers are not kept
+        pool.release(new byte[1000]);
+        pool.release(new byte[BufferPool.MAX_SIZE + 1]);
+        assertNotSame(buffer, pool.acquire(1000));
+        assertEquals(1, pool.getHits());
+    }
+
+    @Test
+    public void testMaxBytes() {
+        BufferPool pool = new BufferPool(2 * BufferPool.MIN_SIZE);
+        byte[] a = pool.acquire(1);
+        byte[] b = pool.acquire(1);
+        byte[] c = pool.acquire(1);
+        byte[] large = pool.acquire(4 * BufferPool.MIN_SIZE);
+        pool.release(a);
+        pool.release(b);
+        // over the total, though the size class has room
+        pool.release(c);
+        pool.release(large);
+        assertEquals(2 * BufferPool.MIN_SIZE, pool.getFreeBytes());
+        pool.acquire(1);
+        pool.acquire(1);
+        assertEquals(0, pool.getFreeBytes());
+        assertEquals(2, pool.getHits());
+        assertNotSame(c, pool.acquire(1));
+    }
+
+    @Test
+    public void testSlice() throws Exception {
+        BufferPool pool = new BufferPool();
+        byte[] bytes = new byte[3 * BufferPool.MIN_SIZE + 5];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        try (ContentSlice slice = ContentSlice.read(new ByteArrayInputStream(bytes), 0, pool)) {
+            assertEquals(bytes.length, slice.getLength());
+            assertArrayEquals(bytes, slice.toByteArray());
+        }
+        // the growing buffers went back to the pool
+        pool.acquire(4 * BufferPool.MIN_SIZE);
+        assertEquals(1, pool.getHits());
+
+        // an exact hint reads in place, with no copy
+        try (ContentSlice slice = ContentSlice.read(new ByteArrayInputStream(bytes), bytes.length, pool)) {
+            assertSame(slice.getBuffer(), slice.toByteArray());
+        }
+        // a short hint still reads everything
+        try (ContentSlice slice = ContentSlice.read(new ByteArrayInputStream(bytes), 10, pool)) {
+            assertArrayEquals(bytes, slice.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2006-2022 MarkLogic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class FileWalkerTest {
+
+    private Path newTree() throws IOException {
+        Path root = Files.createTempDirectory("FileWalkerTest").toRealPath();
+        for (int i = 0; i < 5; i++) {
+            Path directory = Files.createDirectories(root.resolve("d" + i).resolve("e" + i));
+            for (int j = 0; j < 20; j++) {
+                Files.write(directory.resolve("f" + j + ".xml"), new byte[] { 'x' });
+                Files.write(directory.resolve("f" + j + ".xml.metadata"), new byte[] { 'm' });
+            }
+        }
+        Files.write(root.resolve("top.txt"), new byte[] { 't' });
+        return root;
+    }
+
+    @Test
+    public void testWalkExcludesMetadata() throws IOException {
+        Path root = newTree();
+        Set<Path> found = ConcurrentHashMap.newKeySet();
+        FileWalker walker = new FileWalker(root, null, Pattern.compile("^.+\\.metadata$"), 3);
+        assertEquals(101, walker.walk(found::add));
+        assertEquals(101, found.size());
+        assertEquals(0, walker.getErrorCount());
+        Set<String> names = new TreeSet<>();
+        for (Path path : found) {
+            assertEquals(root, path.getRoot().resolve(path.subpath(0, root.getNameCount())));
+            names.add(path.getFileName().toString());
+        }
+        assertEquals(21, names.size());
+    }
+
+    @Test
+    public void testWalkIncludes() throws IOException {
+        Path root = newTree();
+        Set<Path> found = ConcurrentHashMap.newKeySet();
+        FileWalker walker = new FileWalker(root, Pattern.compile(".+\\.txt"), null, 1);
+        assertEquals(1, walker.walk(found::add));
+        assertEquals(root.resolve("top.txt"), found.iterator().next());
+    }
+
+    @Test
+    public void testWalkFile() throws IOException {
+        Path root = newTree();
+        Set<Path> found = ConcurrentHashMap.newKeySet();
+        assertEquals(1, new FileWalker(Paths.get(root.toString(), "top.txt"), null, null, 2).walk(found::add));
+    }
+}
@@ -0,0 +1,68 @@
+package com.marklogic.ps;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PresetDictionaryTest {
+
+    private byte[] document(int i) {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<order xmlns=\"http://example.com/orders\" id=\"" + i + "\">\n"
+                + "  <customer><name>Customer " + (i * 7 % 101) + "</name><region>region-" + (i % 5)
+                + "</region></customer>\n"
+                + "  <line-items><line-item sku=\"SKU-" + (i * 13 % 997) + "\" quantity=\"" + (i % 9)
+                + "\"/></line-items>\n"
+                + "  <status>" + (0 == i % 2 ? "shipped" : "pending") + "</status>\n"
+                + "</order>\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private int deflatedSize(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(content);
+        deflater.finish();
+        byte[] buffer = new byte[content.length + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        deflater.end();
+        return length;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            samples.add(document(i));
+        }
+        PresetDictionary dictionary = PresetDictionary.train(samples, PresetDictionary.MAX_SIZE);
+        assertTrue(dictionary.getBytes().length > 0);
+        assertTrue(dictionary.getBytes().length <= PresetDictionary.MAX_SIZE);
+
+        int plain = 0;
+        int preset = 0;
+        for (int i = 50; i < 150; i++) {
+            byte[] content = document(i);
+            byte[] stream = dictionary.deflate(content);
+            assertArrayEquals(content, dictionary.inflate(stream, 0, stream.length, content.length));
+            plain += deflatedSize(content);
+            preset += stream.length;
+        }
+        // unseen documents, much smaller
+        assertTrue(preset + " vs " + plain, 2 * preset < plain);
+    }
+
+    @Test
+    public void testNothingInCommon() {
+        List<byte[]> samples = new ArrayList<>();
+        samples.add("abcdefghijklmnopqrstuvwxyz0123456789abcdefghijklmnopqrstuvwxyz0123456789".getBytes());
+        assertTrue(0 == PresetDictionary.train(samples, PresetDictionary.MAX_SIZE).getBytes().length);
+    }
+}
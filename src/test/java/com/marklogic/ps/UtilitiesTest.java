@@ -1,5 +1,8 @@
 package com.marklogic.ps;
 
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
 import com.marklogic.ps.xqsync.XQSyncManager;
 import junit.framework.TestCase;
 
@@ -15,4 +18,16 @@ public class UtilitiesTest extends TestCase {
     assertEquals(result, Utilities.buildModulePath(XQSyncManager.class.getPackage(), "XQSyncManager.xqy"));
   }
 
-}
\ No newline at end of file
+  public void testCatSizeHint() throws Exception {
+    byte[] bytes = new byte[100 * 1000];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    // unknown, exact, too small, and too large
+    for (int hint : new int[] { 0, bytes.length, 10, 2 * bytes.length }) {
+      assertTrue(Arrays.equals(bytes, Utilities.cat(new ByteArrayInputStream(bytes), hint)));
+    }
+    assertEquals(0, Utilities.cat(new ByteArrayInputStream(new byte[0]), 0).length);
+  }
+
+}
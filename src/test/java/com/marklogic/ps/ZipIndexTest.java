@@ -0,0 +1,149 @@
+package com.marklogic.ps;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZipIndexTest {
+
+    private static final int ENTRIES = 200;
+
+    private byte[] content(int i) {
+        byte[] bytes = new byte[i * 37];
+        for (int j = 0; j < bytes.length; j++) {
+            bytes[j] = (byte) (i + j % 7);
+        }
+        return bytes;
+    }
+
+    private File newPackage(int entries) throws Exception {
+        File file = Files.createTempFile("ZipIndexTest", ".zip").toFile();
+        file.deleteOnExit();
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < entries; i++) {
+                ZipEntry entry = new ZipEntry("/" + i + ".xml");
+                byte[] bytes = content(i % ENTRIES);
+                if (0 == i % 3) {
+                    // stored entries need their sizes up front
+                    CRC32 crc = new CRC32();
+                    crc.update(bytes);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(bytes.length);
+                    entry.setCrc(crc.getValue());
+                }
+                zos.putNextEntry(entry);
+                zos.write(bytes);
+                zos.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        ZipIndex index = new ZipIndex(newPackage(ENTRIES));
+        assertEquals(ENTRIES, index.size());
+        for (int i = 0; i < ENTRIES; i++) {
+            ZipIndex.Entry entry = index.entries().get(i);
+            assertEquals("/" + i + ".xml", entry.getName());
+            assertArrayEquals(content(i), index.read(entry));
+        }
+        assertNull(index.getEntry("/missing.xml"));
+        index.close();
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        ZipIndex index = new ZipIndex(newPackage(ENTRIES));
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int offset = t;
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < ENTRIES; i++) {
+                    int n = (i + offset * 25) % ENTRIES;
+                    if (!Arrays.equals(content(n), index.read(index.getEntry("/" + n + ".xml")))) {
+                        return false;
+                    }
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertEquals(Boolean.TRUE, result.get());
+        }
+        pool.shutdown();
+        index.close();
+    }
+
+    @Test
+    public void testShortLivedThreadsShareOneChannel() throws Exception {
+        ZipIndex index = new ZipIndex(newPackage(ENTRIES));
+        index.read(index.entries().get(0));
+        FileChannel shared = index.channel;
+        for (int t = 0; t < ENTRIES; t++) {
+            final int n = t;
+            boolean[] ok = new boolean[1];
+            Thread thread = new Thread(() -> {
+                try {
+                    ok[0] = Arrays.equals(content(n), index.read(index.getEntry("/" + n + ".xml")));
+                } catch (Exception e) {
+                    ok[0] = false;
+                }
+            });
+            thread.start();
+            thread.join();
+            assertTrue(ok[0]);
+        }
+        assertSame(shared, index.channel);
+        index.close();
+        assertNull(index.channel);
+    }
+
+    @Test
+    public void testReadAfterInterrupt() throws Exception {
+        ZipIndex index = new ZipIndex(newPackage(ENTRIES));
+        ZipIndex.Entry entry = index.entries().get(ENTRIES - 1);
+        Thread.currentThread().interrupt();
+        try {
+            index.read(entry);
+            fail("interrupted read should close the channel");
+        } catch (ClosedByInterruptException e) {
+            // expected
+        } finally {
+            Thread.interrupted();
+        }
+        assertArrayEquals(content(ENTRIES - 1), index.read(entry));
+        index.close();
+    }
+
+    @Test
+    public void testManyEntries() throws Exception {
+        // more than the 16-bit entry count in the end record
+        int entries = 70000;
+        ZipIndex index = new ZipIndex(newPackage(entries));
+        assertEquals(entries, index.size());
+        assertArrayEquals(content((entries - 1) % ENTRIES), index.read(index.getEntry("/" + (entries - 1) + ".xml")));
+        index.close();
+    }
+}
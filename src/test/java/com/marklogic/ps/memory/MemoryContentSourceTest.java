@@ -0,0 +1,427 @@
+/**
+ * Copyright (c) 2006-2022 MarkLogic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.memory;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import com.marklogic.ps.Connection;
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.xqsync.Configuration;
+import com.marklogic.ps.xqsync.CorpusGenerator;
+import com.marklogic.ps.xqsync.FilePathWriter;
+import com.marklogic.ps.xqsync.SessionReader;
+import com.marklogic.ps.xqsync.Stage;
+import com.marklogic.ps.xqsync.XQSync;
+import com.marklogic.ps.xqsync.XQSyncDocument;
+import com.marklogic.ps.xqsync.XQSyncManager;
+import com.marklogic.xcc.AdhocQuery;
+import com.marklogic.xcc.ContentCapability;
+import com.marklogic.xcc.ContentCreateOptions;
+import com.marklogic.xcc.ContentFactory;
+import com.marklogic.xcc.ContentPermission;
+import com.marklogic.xcc.Session;
+import com.marklogic.xcc.exceptions.ServerConnectionException;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryContentSourceTest {
+
+    @Test
+    public void testReadWithMetadata() throws Exception {
+        URI uri = new URI("mem://test@testReadWithMetadata");
+        MemoryDatabase.remove(uri.getHost());
+        Properties props = new Properties();
+        props.setProperty(SimpleLogger.LOG_LEVEL, "WARNING");
+        props.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        props.setProperty(Configuration.INPUT_CONNECTION_STRING_KEY, uri.toString());
+        props.setProperty(Configuration.OUTPUT_PATH_KEY, "/dev/null");
+        Connection connection = new Connection(uri);
+        try (Session sess = connection.newSession();
+             com.marklogic.ps.Session xqsyncSession = (com.marklogic.ps.Session) sess) {
+            assertEquals(0, xqsyncSession.getCount());
+            String documentUri = "/testReadWithMetadata.xml";
+            String documentString = "<test id=\"foo\"/>";
+            ContentCreateOptions createOptions = ContentCreateOptions.newXmlInstance();
+            createOptions.setCollections(new String[] { "a", "b" });
+            createOptions.setPermissions(new ContentPermission[] {
+                    new ContentPermission(ContentCapability.READ, "admin") });
+            createOptions.setQuality(3);
+            sess.insertContent(ContentFactory.newContent(documentUri, documentString, createOptions));
+            assertEquals(1, xqsyncSession.getCount());
+            assertTrue(xqsyncSession.existsDocument(documentUri));
+
+            Configuration config = new Configuration();
+            config.setLogger(SimpleLogger.getSimpleLogger());
+            config.setProperties(props);
+            config.configure();
+            SessionReader reader = new SessionReader(config);
+            FilePathWriter writer = new FilePathWriter(config);
+            XQSyncDocument doc = new XQSyncDocument(new String[] { documentUri }, reader, writer, config);
+            doc.read();
+            assertEquals(documentString, new String(doc.getContent(0)));
+            assertArrayEquals(new String[] { "a", "b" }, doc.getMetadata(0).getCollections());
+            ContentPermission[] permissions = doc.getMetadata(0).getPermissions();
+            assertEquals(1, permissions.length);
+            assertEquals(ContentCapability.READ, permissions[0].getCapability());
+            assertEquals("admin", permissions[0].getRole());
+            assertEquals(3, doc.getMetadata(0).getQuality());
+
+            xqsyncSession.deleteDocument(documentUri);
+            assertFalse(xqsyncSession.existsDocument(documentUri));
+            assertEquals(0, xqsyncSession.getCount());
+        }
+    }
+
+    @Test
+    public void testSynchronize() throws Exception {
+        MemoryDatabase.remove("testSynchronizeInput");
+        MemoryDatabase.remove("testSynchronizeOutput");
+        Properties props = new Properties();
+        props.setProperty(SimpleLogger.LOG_LEVEL, "WARNING");
+        props.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        props.setProperty(Configuration.INPUT_CONNECTION_STRING_KEY,
+                "mem://test@testSynchronizeInput?documents=1000&size=256");
+        props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY, "mem://test@testSynchronizeOutput");
+        props.setProperty(Configuration.THREADS_KEY, "4");
+        props.setProperty(Configuration.INPUT_BATCH_SIZE_KEY, "7");
+        Configuration config = XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props);
+        new XQSyncManager(config).run();
+
+        MemoryDatabase input = MemoryDatabase.getInstance("testSynchronizeInput");
+        MemoryDatabase output = MemoryDatabase.getInstance("testSynchronizeOutput");
+        assertEquals(1000, output.count());
+        String uri = MemoryDatabase.syntheticUri(999);
+        assertArrayEquals(input.get(uri).getContent(), output.get(uri).getContent());
+    }
+
+    @Test
+    public void testSynchronizeFromPath() throws Exception {
+        MemoryDatabase.remove("testSynchronizeFromPath");
+        File directory = Files.createTempDirectory("MemoryContentSourceTest").toFile();
+        Properties corpus = new Properties();
+        corpus.setProperty(Configuration.OUTPUT_PATH_KEY, directory.getPath());
+        corpus.setProperty(CorpusGenerator.DOCUMENTS_KEY, "200");
+        corpus.setProperty(CorpusGenerator.SIZE_MEDIAN_KEY, "100");
+        assertEquals(200, new CorpusGenerator(corpus).generate());
+
+        Properties props = new Properties();
+        props.setProperty(SimpleLogger.LOG_LEVEL, "WARNING");
+        props.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        props.setProperty(Configuration.INPUT_PATH_KEY, directory.getPath());
+        props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY, "mem://test@testSynchronizeFromPath");
+        props.setProperty(Configuration.THREADS_KEY, "4");
+        Configuration config = XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props);
+        new XQSyncManager(config).run();
+        assertEquals(200, MemoryDatabase.getInstance("testSynchronizeFromPath").count());
+    }
+
+    @Test
+    public void testSynchronizeFromPathBatches() throws Exception {
+        MemoryDatabase.remove("testSynchronizeFromPathBatches");
+        File directory = Files.createTempDirectory("MemoryContentSourceTest").toFile();
+        Properties corpus = new Properties();
+        corpus.setProperty(Configuration.OUTPUT_PATH_KEY, directory.getPath());
+        corpus.setProperty(CorpusGenerator.DOCUMENTS_KEY, "10");
+        corpus.setProperty(CorpusGenerator.SIZE_MEDIAN_KEY, "100");
+        assertEquals(10, new CorpusGenerator(corpus).generate());
+
+        // the last batch is partial
+        Properties props = new Properties();
+        props.setProperty(SimpleLogger.LOG_LEVEL, "WARNING");
+        props.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        props.setProperty(Configuration.INPUT_PATH_KEY, directory.getPath());
+        props.setProperty(Configuration.INPUT_BATCH_SIZE_KEY, "3");
+        props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY, "mem://test@testSynchronizeFromPathBatches");
+        Configuration config = XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props);
+        new XQSyncManager(config).run();
+        assertEquals(10, MemoryDatabase.getInstance("testSynchronizeFromPathBatches").count());
+    }
+
+    @Test
+    public void testSynchronizeFromPathIncremental() throws Exception {
+        MemoryDatabase.remove("testSynchronizeFromPathIncremental");
+        File directory = Files.createTempDirectory("MemoryContentSourceTest").toFile();
+        Properties corpus = new Properties();
+        corpus.setProperty(Configuration.OUTPUT_PATH_KEY, directory.getPath());
+        corpus.setProperty(CorpusGenerator.DOCUMENTS_KEY, "100");
+        corpus.setProperty(CorpusGenerator.SIZE_MEDIAN_KEY, "100");
+        assertEquals(100, new CorpusGenerator(corpus).generate());
+        File manifest = new File(Files.createTempDirectory("MemoryContentSourceTest").toFile(), "manifest");
+
+        Properties props = new Properties();
+        props.setProperty(SimpleLogger.LOG_LEVEL, "WARNING");
+        props.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        props.setProperty(Configuration.INPUT_PATH_KEY, directory.getPath());
+        props.setProperty(Configuration.INPUT_PATH_MANIFEST_KEY, manifest.getPath());
+        props.setProperty(Configuration.INPUT_PATH_MANIFEST_DELETES_KEY, "true");
+        props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY,
+                "mem://test@testSynchronizeFromPathIncremental");
+        XQSyncManager manager = new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props));
+        manager.run();
+        assertEquals(100, manager.getItemsQueued());
+        assertTrue(manifest.exists());
+        MemoryDatabase output = MemoryDatabase.getInstance("testSynchronizeFromPathIncremental");
+        assertEquals(100, output.count());
+
+        manager = new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props));
+        manager.run();
+        assertEquals(0, manager.getItemsQueued());
+
+        File removed;
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            removed = files.filter(p -> Files.isRegularFile(p) && !p.toString().endsWith(".metadata"))
+                    .findFirst().get().toRealPath().toFile();
+        }
+        assertTrue(output.exists(removed.getPath()));
+        assertTrue(removed.delete());
+        manager = new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props));
+        manager.run();
+        assertEquals(1, manager.getItemsQueued());
+        assertEquals(99, output.count());
+        assertFalse(output.exists(removed.getPath()));
+    }
+
+    @Test
+    public void testDeltaSynchronize() throws Exception {
+        MemoryDatabase.remove("testDeltaInput");
+        MemoryDatabase.remove("testDeltaOutput");
+        File state = new File(Files.createTempDirectory("MemoryContentSourceTest").toFile(), "delta.properties");
+        Properties props = new Properties();
+        props.setProperty(SimpleLogger.LOG_LEVEL, "WARNING");
+        props.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        props.setProperty(Configuration.INPUT_CONNECTION_STRING_KEY, "mem://test@testDeltaInput?documents=100");
+        props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY, "mem://test@testDeltaOutput");
+        props.setProperty(Configuration.INPUT_DELTA_STATE_KEY, state.getPath());
+        props.setProperty(Configuration.INPUT_DELTA_DELETES_KEY, "true");
+        XQSyncManager manager = new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props));
+        manager.run();
+        assertEquals(100, manager.getItemsQueued());
+        assertTrue(state.exists());
+        MemoryDatabase input = MemoryDatabase.getInstance("testDeltaInput");
+        MemoryDatabase output = MemoryDatabase.getInstance("testDeltaOutput");
+        assertEquals(100, output.count());
+
+        // one insert, one update, and one delete
+        String updated = MemoryDatabase.syntheticUri(5);
+        String deleted = MemoryDatabase.syntheticUri(7);
+        input.put(new MemoryDocument("/inserted.xml", MemoryDocument.KIND_ELEMENT,
+                "<inserted/>".getBytes("UTF-8"), null, null, 0, null));
+        input.put(new MemoryDocument(updated, MemoryDocument.KIND_ELEMENT,
+                "<updated/>".getBytes("UTF-8"), null, null, 0, null));
+        input.delete(deleted);
+        manager = new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props));
+        manager.run();
+        assertEquals(2, manager.getItemsQueued());
+        assertEquals(100, output.count());
+        assertTrue(output.exists("/inserted.xml"));
+        assertEquals("<updated/>", new String(output.get(updated).getContent(), "UTF-8"));
+        assertFalse(output.exists(deleted));
+
+        manager = new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props));
+        manager.run();
+        assertEquals(0, manager.getItemsQueued());
+
+        // deletes go in batches
+        for (int i = 10; i < 15; i++) {
+            input.delete(MemoryDatabase.syntheticUri(i));
+        }
+        props.setProperty(Configuration.INPUT_BATCH_SIZE_KEY, "2");
+        long requests = output.getRequestCount();
+        manager = new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props));
+        manager.run();
+        assertEquals(95, output.count());
+        assertFalse(output.exists(MemoryDatabase.syntheticUri(10)));
+        // the listing, and three batches
+        assertEquals(4, output.getRequestCount() - requests);
+    }
+
+    @Test
+    public void testSkipUnchanged() throws Exception {
+        MemoryDatabase.remove("testSkipUnchangedInput");
+        MemoryDatabase.remove("testSkipUnchangedOutput");
+        Properties props = new Properties();
+        props.setProperty(SimpleLogger.LOG_LEVEL, "WARNING");
+        props.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        props.setProperty(Configuration.INPUT_CONNECTION_STRING_KEY, "mem://test@testSkipUnchangedInput?documents=50");
+        props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY, "mem://test@testSkipUnchangedOutput");
+        props.setProperty(Configuration.INPUT_BATCH_SIZE_KEY, "8");
+        props.setProperty(Configuration.CHECKSUM_MODULE_KEY, "/checksum.xqy");
+        props.setProperty(Configuration.SKIP_UNCHANGED_KEY, "true");
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+        MemoryDatabase input = MemoryDatabase.getInstance("testSkipUnchangedInput");
+        MemoryDatabase output = MemoryDatabase.getInstance("testSkipUnchangedOutput");
+        assertEquals(50, output.count());
+
+        String updated = MemoryDatabase.syntheticUri(5);
+        input.put(new MemoryDocument(updated, MemoryDocument.KIND_ELEMENT,
+                "<updated/>".getBytes("UTF-8"), null, null, 0, null));
+        long timestamp = output.getTimestamp().longValue();
+        long bytesRead = input.getBytesRead();
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+        // only the updated document was read and written
+        assertEquals(timestamp + 1, output.getTimestamp().longValue());
+        assertEquals(bytesRead + "<updated/>".length(), input.getBytesRead());
+        assertEquals("<updated/>", new String(output.get(updated).getContent(), "UTF-8"));
+    }
+
+    @Test
+    public void testMetricsSnapshot() throws Exception {
+        MemoryDatabase.remove("testMetricsInput");
+        MemoryDatabase.remove("testMetricsOutput");
+        Path metrics = Files.createTempDirectory("testMetricsSnapshot").resolve("xqsync.prom");
+        Properties props = new Properties();
+        props.setProperty(SimpleLogger.LOG_LEVEL, "WARNING");
+        props.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        props.setProperty(Configuration.INPUT_CONNECTION_STRING_KEY, "mem://test@testMetricsInput?documents=100");
+        props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY, "mem://test@testMetricsOutput");
+        props.setProperty(Configuration.INPUT_BATCH_SIZE_KEY, "10");
+        props.setProperty(Configuration.METRICS_FILE_KEY, metrics.toString());
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+
+        // the monitor writes a last snapshot on exit
+        String text = new String(Files.readAllBytes(metrics), "UTF-8");
+        assertTrue(text, text.contains("\nxqsync_documents_total 100\n"));
+        assertTrue(text, text.contains("\nxqsync_failures_total 0\n"));
+        assertTrue(text, text.contains("\nxqsync_complete 1\n"));
+        assertTrue(text, text.contains("xqsync_stage_seconds_count{stage=\"read\"} 10\n"));
+    }
+
+    @Test
+    public void testOutputOutage() throws Exception {
+        MemoryDatabase.remove("testOutageInput");
+        MemoryDatabase.remove("testOutageOutput");
+        MemoryDatabase output = MemoryDatabase.getInstance("testOutageOutput");
+        Properties props = new Properties();
+        props.setProperty(SimpleLogger.LOG_LEVEL, "WARNING");
+        props.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        props.setProperty(Configuration.INPUT_CONNECTION_STRING_KEY, "mem://test@testOutageInput?documents=200");
+        props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY, "mem://test@testOutageOutput");
+        props.setProperty(Configuration.THREADS_KEY, "8");
+        props.setProperty(Configuration.INPUT_BATCH_SIZE_KEY, "5");
+        props.setProperty(Configuration.MAX_RETRIES_KEY, "3");
+        props.setProperty(Configuration.RETRY_BASE_MILLIS_KEY, "10");
+        // opens before any one task can use up its attempts
+        props.setProperty(Configuration.CIRCUIT_BREAKER_FAILURES_KEY, "2");
+        props.setProperty(Configuration.CIRCUIT_BREAKER_OPEN_MILLIS_KEY, "50");
+        Configuration config = XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props);
+
+        // the output host is down for longer than three attempts would last
+        output.setFailureRate(1);
+        Thread recovery = new Thread(() -> {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            output.setFailureRate(0);
+        });
+        recovery.start();
+        new XQSyncManager(config).run();
+        recovery.join();
+
+        // workers waited for the breaker instead of exhausting their retries
+        assertEquals(200, output.count());
+        assertEquals(0, config.getRetryPolicy().getOpenCount());
+        assertTrue(output.getFailureCount() < 50);
+    }
+
+    @Test
+    public void testInputStreamFailure() throws Exception {
+        MemoryDatabase.remove("testStreamInput");
+        MemoryDatabase.remove("testStreamOutput");
+        Properties props = new Properties();
+        props.setProperty(SimpleLogger.LOG_LEVEL, "SEVERE");
+        props.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        // half the batches drop the connection while their results stream
+        props.setProperty(Configuration.INPUT_CONNECTION_STRING_KEY,
+                "mem://test@testStreamInput?documents=200&streamFailures=0.5");
+        props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY, "mem://test@testStreamOutput");
+        props.setProperty(Configuration.THREADS_KEY, "4");
+        props.setProperty(Configuration.INPUT_BATCH_SIZE_KEY, "5");
+        props.setProperty(Configuration.MAX_RETRIES_KEY, "20");
+        props.setProperty(Configuration.RETRY_BASE_MILLIS_KEY, "1");
+        props.setProperty(Configuration.CIRCUIT_BREAKER_OPEN_MILLIS_KEY, "10");
+        Configuration config = XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props);
+        new XQSyncManager(config).run();
+
+        // every failed batch was retried
+        assertTrue(MemoryDatabase.getInstance("testStreamInput").getFailureCount() > 0);
+        assertEquals(200, MemoryDatabase.getInstance("testStreamOutput").count());
+    }
+
+    @Test
+    public void testOutputBatchSize() throws Exception {
+        MemoryDatabase.remove("testBatchInput");
+        MemoryDatabase.remove("testBatchOutput");
+        MemoryDatabase output = MemoryDatabase.getInstance("testBatchOutput");
+        Properties props = new Properties();
+        props.setProperty(SimpleLogger.LOG_LEVEL, "WARNING");
+        props.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        props.setProperty(Configuration.INPUT_CONNECTION_STRING_KEY, "mem://test@testBatchInput?documents=200");
+        props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY, "mem://test@testBatchOutput");
+        props.setProperty(Configuration.THREADS_KEY, "8");
+        props.setProperty(Configuration.INPUT_BATCH_SIZE_KEY, "5");
+        props.setProperty(Configuration.OUTPUT_BATCH_SIZE_KEY, "20");
+        props.setProperty(Configuration.OUTPUT_BATCH_MILLIS_KEY, "1000");
+        Configuration config = XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props);
+        new XQSyncManager(config).run();
+
+        assertEquals(200, output.count());
+        // forty read batches, written in fewer, larger transactions
+        long transactions = config.getStageTimer().getHistogram(Stage.WRITE_INSERT).getCount();
+        assertTrue("transactions " + transactions, transactions < 40);
+        assertEquals(40, config.getStageTimer().getHistogram(Stage.WRITE_COALESCE).getCount());
+    }
+
+    @Test
+    public void testOutputBatchTimeout() throws Exception {
+        MemoryDatabase.remove("testBatchTimeoutInput");
+        MemoryDatabase.remove("testBatchTimeoutOutput");
+        MemoryDatabase output = MemoryDatabase.getInstance("testBatchTimeoutOutput");
+        Properties props = new Properties();
+        props.setProperty(SimpleLogger.LOG_LEVEL, "SEVERE");
+        props.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        props.setProperty(Configuration.INPUT_CONNECTION_STRING_KEY, "mem://test@testBatchTimeoutInput?documents=10");
+        props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY, "mem://test@testBatchTimeoutOutput");
+        props.setProperty(Configuration.THREADS_KEY, "2");
+        props.setProperty(Configuration.OUTPUT_BATCH_SIZE_KEY, "100");
+        props.setProperty(Configuration.OUTPUT_BATCH_MILLIS_KEY, "5");
+        Configuration config = XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props);
+        new XQSyncManager(config).run();
+
+        // every task waits for its batch, so only the timeout writes them
+        assertEquals(10, output.count());
+    }
+
+    @Test(expected = ServerConnectionException.class)
+    public void testInjectedFailure() throws Exception {
+        MemoryContentSource source = new MemoryContentSource(new URI("mem://testInjectedFailure?failures=1"));
+        Session session = source.newSession();
+        AdhocQuery query = session.newAdhocQuery("xdmp:estimate(doc())");
+        session.submitRequest(query);
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2022 MarkLogic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.timing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class HistogramTest {
+
+    @Test
+    public void empty() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        long[] values = { 0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE };
+        for (long value : values) {
+            int index = Histogram.index(value);
+            assertTrue(value + " above its bucket", value <= Histogram.upperBound(index));
+            if (index > 0) {
+                assertTrue(value + " below its bucket", value > Histogram.upperBound(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        Histogram histogram = new Histogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.add(i * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getMean());
+        assertEquals(1000000, histogram.getMax());
+        assertWithin(500000, histogram.getPercentile(50));
+        assertWithin(990000, histogram.getPercentile(99));
+        assertEquals(1000000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void addHistogram() {
+        Histogram a = new Histogram();
+        Histogram b = new Histogram();
+        a.add(10);
+        b.add(20);
+        b.add(30);
+        a.add(b);
+        assertEquals(3, a.getCount());
+        assertEquals(60, a.getSum());
+        assertEquals(30, a.getMax());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " is not within 12.5% of " + expected,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2022 MarkLogic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.timing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class StageTimerTest {
+
+    enum TestStage { FIRST, SECOND, UNUSED }
+
+    @Test
+    public void recordStages() {
+        StageTimer<TestStage> timer = new StageTimer<>(TestStage.class);
+        assertEquals("", timer.getProgressMessage());
+        assertEquals("", timer.getSummary());
+
+        long start = StageTimer.start();
+        long next = timer.record(TestStage.FIRST, start, 2048);
+        assertTrue(next >= start);
+        timer.record(TestStage.SECOND, next);
+        timer.record(TestStage.SECOND, next);
+
+        assertEquals(1, timer.getHistogram(TestStage.FIRST).getCount());
+        assertEquals(2, timer.getHistogram(TestStage.SECOND).getCount());
+        assertEquals(0, timer.getHistogram(TestStage.UNUSED).getCount());
+        assertEquals(2048, timer.getBytes(TestStage.FIRST));
+        assertEquals(0, timer.getBytes(TestStage.SECOND));
+
+        String progress = timer.getProgressMessage();
+        assertTrue(progress, progress.startsWith("FIRST "));
+        assertTrue(progress, progress.contains(", SECOND "));
+        assertFalse(progress, progress.contains("UNUSED"));
+        assertEquals(2, timer.getSummary().split("\n").length);
+    }
+}
@@ -0,0 +1,70 @@
+package com.marklogic.ps.xqsync;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.marklogic.ps.SimpleLogger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpenProbeClose() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 100, 1000, 0, SimpleLogger.getSimpleLogger());
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // the first caller after the open interval is the probe
+        long start = System.currentTimeMillis();
+        breaker.await();
+        assertTrue(System.currentTimeMillis() - start >= 90);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        // other callers wait for the probe
+        AtomicBoolean resumed = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            try {
+                breaker.await();
+                resumed.set(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        Thread.sleep(20);
+        assertFalse(resumed.get());
+        breaker.onSuccess();
+        waiter.join(1000);
+        assertTrue(resumed.get());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testFailedProbeReopens() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 50, 1000, 0, SimpleLogger.getSimpleLogger());
+        breaker.onFailure();
+        assertTrue(breaker.await());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        // open twice as long this time
+        long start = System.currentTimeMillis();
+        breaker.await();
+        assertTrue(System.currentTimeMillis() - start >= 90);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 0, 50, 1000, 0, SimpleLogger.getSimpleLogger());
+        for (int i = 0; i < 100; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
@@ -51,6 +51,7 @@ public class ConfigurationTest {
         assertTrue(configuration.isValidConnectionString("xcc://" + uriSuffix));
         assertTrue(configuration.isValidConnectionString("xccs://" + uriSuffix));
         assertTrue(configuration.isValidConnectionString("xdbc://" + uriSuffix));
+        assertTrue(configuration.isValidConnectionString("mem://" + uriSuffix));
         assertFalse(configuration.isValidConnectionString("http://" + uriSuffix));
     }
 
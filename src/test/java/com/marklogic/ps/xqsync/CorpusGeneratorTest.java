@@ -0,0 +1,85 @@
+package com.marklogic.ps.xqsync;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+
+import com.marklogic.ps.SimpleLogger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CorpusGeneratorTest {
+
+    private Properties newProperties(String key, String value) {
+        Properties properties = new Properties();
+        properties.setProperty(key, value);
+        properties.setProperty(CorpusGenerator.DOCUMENTS_KEY, "25");
+        properties.setProperty(CorpusGenerator.SIZE_MEDIAN_KEY, "200");
+        properties.setProperty(CorpusGenerator.THREADS_KEY, "2");
+        return properties;
+    }
+
+    @Test
+    public void testReproducible() {
+        Properties properties = newProperties(Configuration.OUTPUT_PATH_KEY, "/dev/null");
+        CorpusGenerator a = new CorpusGenerator(properties);
+        CorpusGenerator b = new CorpusGenerator(properties);
+        properties.setProperty(CorpusGenerator.SEED_KEY, "1");
+        CorpusGenerator c = new CorpusGenerator(properties);
+        for (long i = 0; i < 25; i++) {
+            CorpusGenerator.Document document = a.newDocument(i);
+            assertEquals(document.uri, b.newDocument(i).uri);
+            assertArrayEquals(document.content, b.newDocument(i).content);
+            assertArrayEquals(document.metadata.getCollections(), b.newDocument(i).metadata.getCollections());
+            assertFalse(Arrays.equals(document.content, c.newDocument(i).content));
+        }
+    }
+
+    @Test
+    public void testPackages() throws Exception {
+        File directory = Files.createTempDirectory("CorpusGeneratorTest").toFile();
+        Properties properties = newProperties(Configuration.OUTPUT_PACKAGE_KEY,
+                new File(directory, "corpus.zip").getPath());
+        // 10 documents per package
+        properties.setProperty(CorpusGenerator.PACKAGE_ENTRIES_KEY, "20");
+        assertEquals(25, new CorpusGenerator(properties).generate());
+
+        File[] packages = directory.listFiles();
+        Arrays.sort(packages);
+        assertEquals(3, packages.length);
+        Configuration configuration = new Configuration();
+        configuration.setLogger(SimpleLogger.getSimpleLogger());
+        int count = 0;
+        for (File file : packages) {
+            InputPackage pkg = new InputPackage(file.getPath(), configuration);
+            pkg.addReference();
+            for (String path : pkg.list()) {
+                assertTrue(null != pkg.getMetadataEntry(path));
+                count++;
+            }
+            pkg.closeReference();
+            file.deleteOnExit();
+        }
+        assertEquals(25, count);
+        directory.deleteOnExit();
+    }
+
+    @Test
+    public void testFiles() throws Exception {
+        File directory = Files.createTempDirectory("CorpusGeneratorTest").toFile();
+        Properties properties = newProperties(Configuration.OUTPUT_PATH_KEY, directory.getPath());
+        CorpusGenerator generator = new CorpusGenerator(properties);
+        assertEquals(25, generator.generate());
+        for (long i = 0; i < 25; i++) {
+            CorpusGenerator.Document document = generator.newDocument(i);
+            File file = new File(directory, document.uri);
+            assertArrayEquals(document.content, Files.readAllBytes(file.toPath()));
+            assertTrue(XQSyncDocument.getMetadataFile(file).exists());
+        }
+    }
+}
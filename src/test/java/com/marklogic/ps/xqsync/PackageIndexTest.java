@@ -0,0 +1,106 @@
+package com.marklogic.ps.xqsync;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.ZipIndex;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PackageIndexTest {
+
+    private static final int DOCUMENTS = 20;
+
+    private File newPackage(File directory) throws Exception {
+        Configuration configuration = new Configuration();
+        configuration.setLogger(SimpleLogger.getSimpleLogger());
+        File file = new File(directory, "out.zip");
+        PackageCatalog catalog = new PackageCatalog(PackageCatalog.getFile(file.getPath()));
+        OutputPackage pkg = new OutputPackage(file, configuration, catalog);
+        // written out of order
+        for (int i = DOCUMENTS - 1; i >= 0; i--) {
+            XQSyncDocumentMetadata metadata = new XQSyncDocumentMetadata();
+            metadata.addCollection(0 == i % 2 ? "even" : "odd");
+            pkg.write(String.format("/doc/%03d.xml", i), ("<doc>" + i + "</doc>").getBytes("UTF-8"), metadata);
+        }
+        pkg.close();
+        pkg.awaitClose();
+        catalog.write();
+        return file;
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        File directory = Files.createTempDirectory("PackageIndexTest").toFile();
+        File file = newPackage(directory);
+        PackageIndex index = PackageIndex.read(file);
+        assertEquals(DOCUMENTS, index.size());
+        assertEquals("/doc/000.xml", index.getEntries().get(0).getUri());
+        assertEquals("/doc/019.xml", index.getEntries().get(DOCUMENTS - 1).getUri());
+
+        // the offsets read the same entries as the central directory
+        ZipIndex fromIndex = index.newZipIndex(file);
+        ZipIndex fromArchive = new ZipIndex(file);
+        for (PackageIndex.Entry entry : index.getEntries()) {
+            String metadataPath = XQSyncDocument.getMetadataPath(entry.getUri());
+            assertArrayEquals(fromArchive.read(fromArchive.getEntry(entry.getUri())),
+                    fromIndex.read(fromIndex.getEntry(entry.getUri())));
+            assertArrayEquals(fromArchive.read(fromArchive.getEntry(metadataPath)),
+                    fromIndex.read(fromIndex.getEntry(metadataPath)));
+        }
+        fromIndex.close();
+        fromArchive.close();
+
+        List<String> selected = index.select(new PackageFilter(null, new String[] { "/doc/01" },
+                new String[] { "odd" }));
+        assertEquals(Arrays.asList("/doc/011.xml", "/doc/013.xml", "/doc/015.xml", "/doc/017.xml",
+                "/doc/019.xml"), selected);
+        // overlapping prefixes select each document once
+        selected = index.select(new PackageFilter(null, new String[] { "/doc/01", "/doc/019", "/doc/00" }, null));
+        assertEquals(DOCUMENTS, selected.size());
+        assertEquals("/doc/000.xml", selected.get(0));
+        assertEquals("/doc/019.xml", selected.get(DOCUMENTS - 1));
+        assertEquals(Arrays.asList("/doc/002.xml", "/doc/004.xml"),
+                index.select(new PackageFilter(new String[] { "/doc/004.xml", "/doc/002.xml", "/doc/003.xml",
+                    "/doc/999.xml" }, null, new String[] { "even" })));
+
+        for (File child : directory.listFiles()) {
+            child.deleteOnExit();
+        }
+        directory.deleteOnExit();
+    }
+
+    @Test
+    public void testCatalog() throws Exception {
+        File directory = Files.createTempDirectory("PackageIndexTest").toFile();
+        File file = newPackage(directory);
+        Map<File, PackageCatalog.Summary> catalog = PackageCatalog.load(Collections.singletonList(file));
+        PackageCatalog.Summary summary = catalog.get(file.getCanonicalFile());
+        assertEquals(DOCUMENTS, summary.count);
+
+        assertTrue(new PackageFilter(new String[] { "/doc/005.xml" }, null, null)
+                .mayMatch(summary.first, summary.last, summary.collections));
+        assertFalse(new PackageFilter(new String[] { "/other.xml" }, null, null)
+                .mayMatch(summary.first, summary.last, summary.collections));
+        assertTrue(new PackageFilter(null, new String[] { "/" }, null)
+                .mayMatch(summary.first, summary.last, summary.collections));
+        assertFalse(new PackageFilter(null, new String[] { "/e" }, null)
+                .mayMatch(summary.first, summary.last, summary.collections));
+        assertFalse(new PackageFilter(null, null, new String[] { "none" })
+                .mayMatch(summary.first, summary.last, summary.collections));
+
+        for (File child : directory.listFiles()) {
+            child.deleteOnExit();
+        }
+        directory.deleteOnExit();
+    }
+}
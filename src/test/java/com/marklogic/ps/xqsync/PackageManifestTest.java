@@ -0,0 +1,109 @@
+package com.marklogic.ps.xqsync;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.ZipIndex;
+import com.marklogic.xcc.ContentPermission;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class PackageManifestTest {
+
+    private static final int DOCUMENTS = 20;
+
+    private Configuration newConfiguration() {
+        Configuration configuration = new Configuration();
+        configuration.setLogger(SimpleLogger.getSimpleLogger());
+        Properties properties = new Properties();
+        properties.setProperty(Configuration.OUTPUT_PACKAGE_METADATA_KEY,
+                Configuration.OUTPUT_PACKAGE_METADATA_MANIFEST);
+        configuration.load(properties);
+        return configuration;
+    }
+
+    private XQSyncDocumentMetadata newMetadata(int i) {
+        XQSyncDocumentMetadata metadata = new XQSyncDocumentMetadata();
+        metadata.setFormat(0 == i % 3 ? "binary" : "xml");
+        metadata.addCollection("/collection/" + i % 4);
+        metadata.addCollection("/all");
+        metadata.addPermission(ContentPermission.READ.toString(), "reader");
+        metadata.addPermission(ContentPermission.UPDATE.toString(), "writer");
+        metadata.setQuality(i);
+        if (0 == i % 2) {
+            metadata.setProperties("<prop:properties xmlns:prop=\"http://marklogic.com/xdmp/property\"/>");
+        }
+        return metadata;
+    }
+
+    @Test
+    public void testManifest() throws Exception {
+        File directory = Files.createTempDirectory("PackageManifestTest").toFile();
+        File file = new File(directory, "out.zip");
+        Configuration configuration = newConfiguration();
+        OutputPackage pkg = new OutputPackage(file, configuration);
+        for (int i = 0; i < DOCUMENTS; i++) {
+            pkg.write("/doc/" + i + ".xml", ("<doc>" + i + "</doc>").getBytes("UTF-8"), newMetadata(i));
+        }
+        pkg.close();
+        pkg.awaitClose();
+
+        // one entry per document, and the manifest
+        ZipIndex index = new ZipIndex(file);
+        assertEquals(DOCUMENTS + 1, index.size());
+        assertNull(index.getEntry(XQSyncDocument.getMetadataPath("/doc/0.xml")));
+        index.close();
+
+        InputPackage input = new InputPackage(file.getPath(), configuration);
+        input.addReference();
+        List<String> paths = input.list();
+        assertEquals(DOCUMENTS, paths.size());
+        assertFalse(paths.contains(PackageManifest.ENTRY_NAME));
+        for (int i = 0; i < DOCUMENTS; i++) {
+            String path = "/doc/" + i + ".xml";
+            XQSyncDocumentMetadata expected = newMetadata(i);
+            XQSyncDocumentMetadata metadata = input.getMetadataEntry(path);
+            assertEquals(expected.getFormatName(), metadata.getFormatName());
+            assertArrayEquals(expected.getCollections(), metadata.getCollections());
+            assertEquals(Arrays.toString(expected.getPermissions()), Arrays.toString(metadata.getPermissions()));
+            assertEquals(expected.getQuality(), metadata.getQuality());
+            assertEquals(expected.getProperties(), metadata.getProperties());
+            assertArrayEquals(("<doc>" + i + "</doc>").getBytes("UTF-8"), input.getContent(path));
+        }
+        input.closeReference();
+
+        for (File child : directory.listFiles()) {
+            child.deleteOnExit();
+        }
+        directory.deleteOnExit();
+    }
+
+    @Test
+    public void testNoFragments() throws Exception {
+        File directory = Files.createTempDirectory("PackageManifestTest").toFile();
+        File file = new File(directory, "out.zip");
+        OutputPackage pkg = new OutputPackage(file, newConfiguration());
+        for (int i = 0; i < DOCUMENTS; i++) {
+            pkg.write("/doc/" + i + ".xml", ("<doc>" + i + "</doc>").getBytes("UTF-8"), newMetadata(i));
+        }
+        pkg.close();
+        pkg.awaitClose();
+
+        // the manifest cannot be split, so nothing is written
+        new FragmentZipFiles.FragmentTask(file).run();
+        assertFalse(new File(directory, "out-0000.zip").exists());
+
+        for (File child : directory.listFiles()) {
+            child.deleteOnExit();
+        }
+        directory.deleteOnExit();
+    }
+}
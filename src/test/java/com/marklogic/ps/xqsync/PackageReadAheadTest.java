@@ -0,0 +1,100 @@
+package com.marklogic.ps.xqsync;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import com.marklogic.ps.SimpleLogger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PackageReadAheadTest {
+
+    private static final int ENTRIES = 50;
+
+    private byte[] content(int i) {
+        byte[] bytes = new byte[1000];
+        Arrays.fill(bytes, (byte) i);
+        return bytes;
+    }
+
+    private File newPackage() throws Exception {
+        return newPackage(-1);
+    }
+
+    private File newPackage(int dictionaryPosition) throws Exception {
+        File file = Files.createTempFile("PackageReadAheadTest", ".zip").toFile();
+        file.deleteOnExit();
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < ENTRIES; i++) {
+                if (i == dictionaryPosition) {
+                    zos.putNextEntry(new ZipEntry(OutputPackage.DICTIONARY_ENTRY_NAME));
+                    zos.write(content(ENTRIES));
+                    zos.closeEntry();
+                }
+                zos.putNextEntry(new ZipEntry("/" + i + ".xml"));
+                zos.write(content(i));
+                zos.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void testSequential() throws Exception {
+        File file = newPackage();
+        try (ZipFile zip = new ZipFile(file)) {
+            // room for a few entries at a time
+            PackageReadAhead readAhead = new PackageReadAhead(zip, file, 3000, SimpleLogger.getSimpleLogger());
+            readAhead.start();
+            for (int i = 0; i < ENTRIES; i++) {
+                assertArrayEquals(content(i), readAhead.take("/" + i + ".xml"));
+            }
+            assertEquals(0, readAhead.getBufferedBytes());
+            // already taken, or never there
+            assertNull(readAhead.take("/0.xml"));
+            assertNull(readAhead.take("/missing.xml"));
+            readAhead.close();
+        }
+    }
+
+    @Test
+    public void testOutOfOrder() throws Exception {
+        File file = newPackage();
+        try (ZipFile zip = new ZipFile(file)) {
+            PackageReadAhead readAhead = new PackageReadAhead(zip, file, 3000, SimpleLogger.getSimpleLogger());
+            readAhead.start();
+            // too far ahead: the scan stalls with a full buffer
+            assertNull(readAhead.take("/" + (ENTRIES - 1) + ".xml"));
+            for (int i = 0; i < ENTRIES - 1; i++) {
+                assertArrayEquals(content(i), readAhead.take("/" + i + ".xml"));
+            }
+            // the scan passed the entry that was read elsewhere
+            assertEquals(0, readAhead.getBufferedBytes());
+            readAhead.close();
+        }
+    }
+
+    @Test
+    public void testPackageEntry() throws Exception {
+        File file = newPackage(ENTRIES / 2);
+        try (ZipFile zip = new ZipFile(file)) {
+            PackageReadAhead readAhead = new PackageReadAhead(zip, file, 3000, SimpleLogger.getSimpleLogger());
+            readAhead.start();
+            for (int i = 0; i < ENTRIES; i++) {
+                assertArrayEquals(content(i), readAhead.take("/" + i + ".xml"));
+            }
+            // the dictionary was never buffered
+            assertEquals(0, readAhead.getBufferedBytes());
+            assertNull(readAhead.take(OutputPackage.DICTIONARY_ENTRY_NAME));
+            readAhead.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.marklogic.ps.xqsync;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.memory.MemoryDatabase;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PackageSchedulerTest {
+
+    private File newPackages(int documents) throws Exception {
+        File directory = Files.createTempDirectory("PackageSchedulerTest").toFile();
+        Properties properties = new Properties();
+        properties.setProperty(Configuration.OUTPUT_PACKAGE_KEY, new File(directory, "corpus.zip").getPath());
+        properties.setProperty(CorpusGenerator.DOCUMENTS_KEY, Integer.toString(documents));
+        properties.setProperty(CorpusGenerator.SIZE_MEDIAN_KEY, "200");
+        properties.setProperty(CorpusGenerator.THREADS_KEY, "2");
+        // 10 documents per package
+        properties.setProperty(CorpusGenerator.PACKAGE_ENTRIES_KEY, "20");
+        assertEquals(documents, new CorpusGenerator(properties).generate());
+        for (File file : directory.listFiles()) {
+            file.deleteOnExit();
+        }
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    private Properties newProperties(File input) {
+        Properties props = new Properties();
+        props.setProperty(SimpleLogger.LOG_LEVEL, "WARNING");
+        props.setProperty(SimpleLogger.LOG_HANDLER, "CONSOLE");
+        props.setProperty(Configuration.INPUT_PACKAGE_KEY, input.getPath());
+        props.setProperty(Configuration.THREADS_KEY, "4");
+        props.setProperty(Configuration.INPUT_BATCH_SIZE_KEY, "3");
+        props.setProperty(Configuration.INPUT_PACKAGE_OPEN_MAX_KEY, "2");
+        return props;
+    }
+
+    @Test
+    public void testManyPackages() throws Exception {
+        File input = newPackages(95);
+        assertEquals(10, PackageScheduler.findPackages(input).size());
+        MemoryDatabase.remove("testManyPackages");
+        MemoryDatabase output = MemoryDatabase.getInstance("testManyPackages");
+        Properties props = newProperties(input);
+        props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY, "mem://test@testManyPackages");
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+        assertEquals(95, output.count());
+    }
+
+    @Test
+    public void testSharedWriters() throws Exception {
+        File input = newPackages(95);
+        File output = Files.createTempDirectory("PackageSchedulerTest").toFile();
+        Properties props = newProperties(input);
+        props.setProperty(Configuration.OUTPUT_PACKAGE_KEY, new File(output, "out.zip").getPath());
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+
+        // every document, in the writers of the one factory
+        List<File> packages = PackageScheduler.findPackages(output);
+        assertTrue(packages.size() <= Math.min(Runtime.getRuntime().availableProcessors(), 4));
+        Configuration configuration = new Configuration();
+        configuration.setLogger(SimpleLogger.getSimpleLogger());
+        int count = 0;
+        for (File file : packages) {
+            InputPackage pkg = new InputPackage(file.getPath(), configuration);
+            pkg.addReference();
+            count += pkg.list().size();
+            pkg.closeReference();
+            file.deleteOnExit();
+        }
+        assertEquals(95, count);
+        output.deleteOnExit();
+    }
+
+    @Test
+    public void testSelectiveRestore() throws Exception {
+        File input = newPackages(95);
+        File exported = Files.createTempDirectory("PackageSchedulerTest").toFile();
+        Properties props = newProperties(input);
+        props.setProperty(Configuration.OUTPUT_PACKAGE_KEY, new File(exported, "out.zip").getPath());
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+        List<File> packages = PackageScheduler.findPackages(exported);
+        assertTrue(new File(exported, "out" + PackageCatalog.EXTENSION).exists());
+
+        // a few uris from each end of one package
+        PackageIndex index = PackageIndex.read(packages.get(0));
+        assertTrue(index.size() > 4);
+        String[] uris = { index.getEntries().get(0).getUri(), index.getEntries().get(1).getUri(),
+                index.getEntries().get(index.size() - 1).getUri() };
+        String collection = index.getEntries().get(0).getCollections()[0];
+
+        MemoryDatabase.remove("testSelectiveRestore");
+        MemoryDatabase output = MemoryDatabase.getInstance("testSelectiveRestore");
+        props = newProperties(exported);
+        props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY, "mem://test@testSelectiveRestore");
+        props.setProperty(Configuration.INPUT_DOCUMENT_URIS_KEY, String.join(" ", uris));
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+        assertEquals(3, output.count());
+
+        // by collection, from indexes, and the hard way
+        MemoryDatabase.remove("testSelectiveRestore");
+        output = MemoryDatabase.getInstance("testSelectiveRestore");
+        props.remove(Configuration.INPUT_DOCUMENT_URIS_KEY);
+        props.setProperty(Configuration.INPUT_COLLECTION_URI_KEY, collection);
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+        long count = output.count();
+        assertTrue(count > 0);
+        MemoryDatabase.remove("testSelectiveRestore");
+        output = MemoryDatabase.getInstance("testSelectiveRestore");
+        props.setProperty(Configuration.INPUT_PACKAGE_KEY, input.getPath());
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+        assertEquals(count, output.count());
+
+        for (File file : exported.listFiles()) {
+            file.deleteOnExit();
+        }
+        exported.deleteOnExit();
+    }
+
+    @Test
+    public void testManifestRestore() throws Exception {
+        File input = newPackages(95);
+        File exported = Files.createTempDirectory("PackageSchedulerTest").toFile();
+        Properties props = newProperties(input);
+        props.setProperty(Configuration.OUTPUT_PACKAGE_KEY, new File(exported, "out.zip").getPath());
+        props.setProperty(Configuration.OUTPUT_PACKAGE_METADATA_KEY, Configuration.OUTPUT_PACKAGE_METADATA_MANIFEST);
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+
+        MemoryDatabase.remove("testManifestRestore");
+        MemoryDatabase output = MemoryDatabase.getInstance("testManifestRestore");
+        props = newProperties(exported);
+        props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY, "mem://test@testManifestRestore");
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+        assertEquals(95, output.count());
+
+        // selected by collection, from the index and the manifest
+        String collection = PackageIndex.read(PackageScheduler.findPackages(exported).get(0)).getEntries().get(0)
+                .getCollections()[0];
+        MemoryDatabase.remove("testManifestRestore");
+        output = MemoryDatabase.getInstance("testManifestRestore");
+        props.setProperty(Configuration.INPUT_COLLECTION_URI_KEY, collection);
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+        long count = output.count();
+        assertTrue(count > 0);
+        MemoryDatabase.remove("testManifestRestore");
+        output = MemoryDatabase.getInstance("testManifestRestore");
+        props.setProperty(Configuration.INPUT_PACKAGE_KEY, input.getPath());
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+        assertEquals(count, output.count());
+
+        for (File file : exported.listFiles()) {
+            file.deleteOnExit();
+        }
+        exported.deleteOnExit();
+    }
+
+    @Test
+    public void testDictionary() throws Exception {
+        File input = newPackages(95);
+        File plain = Files.createTempDirectory("PackageSchedulerTest").toFile();
+        File preset = Files.createTempDirectory("PackageSchedulerTest").toFile();
+        Properties props = newProperties(input);
+        props.setProperty(Configuration.THREADS_KEY, "1");
+        props.setProperty(Configuration.OUTPUT_PACKAGE_KEY, new File(plain, "out.zip").getPath());
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+        props.setProperty(Configuration.OUTPUT_PACKAGE_KEY, new File(preset, "out.zip").getPath());
+        props.setProperty(Configuration.OUTPUT_PACKAGE_DICTIONARY_SAMPLES_KEY, "20");
+        new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+        File plainPackage = PackageScheduler.findPackages(plain).get(0);
+        File presetPackage = PackageScheduler.findPackages(preset).get(0);
+        assertTrue(presetPackage.length() + " vs " + plainPackage.length(),
+                presetPackage.length() < plainPackage.length());
+
+        // read back, with and without the read-ahead
+        for (String readAhead : new String[] { "0", "1048576" }) {
+            MemoryDatabase.remove("testDictionary");
+            MemoryDatabase output = MemoryDatabase.getInstance("testDictionary");
+            props = newProperties(preset);
+            props.setProperty(Configuration.INPUT_PACKAGE_READ_AHEAD_BYTES_KEY, readAhead);
+            props.setProperty(Configuration.OUTPUT_CONNECTION_STRING_KEY, "mem://test@testDictionary");
+            new XQSyncManager(XQSync.initConfiguration(SimpleLogger.getSimpleLogger(), props)).run();
+            assertEquals(95, output.count());
+        }
+
+        for (File directory : new File[] { plain, preset }) {
+            for (File file : directory.listFiles()) {
+                file.deleteOnExit();
+            }
+            directory.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.marklogic.ps.xqsync;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.xcc.exceptions.RequestException;
+import com.marklogic.xcc.exceptions.ServerConnectionException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testBackoff() {
+        RetryPolicy policy = new RetryPolicy(SimpleLogger.getSimpleLogger(), 5, 100, 1000, 0.2, 10, 5, 100, 1000, 100);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(policy.backoffMillis(1) <= 100);
+            assertTrue(policy.backoffMillis(3) <= 400);
+            assertTrue(policy.backoffMillis(40) <= 1000);
+        }
+    }
+
+    @Test
+    public void testAttemptsAndBudget() {
+        RetryPolicy policy = new RetryPolicy(SimpleLogger.getSimpleLogger(), 3, 1, 1, 0.5, 2, 5, 100, 1000, 1);
+        assertFalse(policy.shouldRetry(3));
+        assertTrue(policy.shouldRetry(1));
+        assertTrue(policy.shouldRetry(1));
+        // the reserve is spent
+        assertFalse(policy.shouldRetry(1));
+        // two successes earn one retry
+        policy.onSuccess(null);
+        policy.onSuccess(null);
+        assertTrue(policy.shouldRetry(1));
+        assertFalse(policy.shouldRetry(1));
+    }
+
+    @Test
+    public void testHostFailure() {
+        assertTrue(RetryPolicy.isHostFailure(new ServerConnectionException("down", null)));
+        assertFalse(RetryPolicy.isHostFailure(new RequestException("bad request", null)));
+    }
+}
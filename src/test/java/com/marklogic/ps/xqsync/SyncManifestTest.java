@@ -0,0 +1,100 @@
+package com.marklogic.ps.xqsync;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyncManifestTest {
+
+    private Path write(Path directory, String name, String content, long mtime) throws Exception {
+        Path file = directory.resolve(name);
+        Files.write(file, content.getBytes("UTF-8"));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(mtime));
+        return file;
+    }
+
+    @Test
+    public void testIncremental() throws Exception {
+        Path directory = Files.createTempDirectory("SyncManifestTest");
+        Path manifestPath = Files.createTempDirectory("SyncManifestTest").resolve("manifest");
+        Path a = write(directory, "a.xml", "<a/>", 1000);
+        Path b = write(directory, "b.xml", "<b/>", 1000);
+        Path c = write(directory, "c.xml", "<c/>", 1000);
+        write(directory, "c.xml.metadata", "<metadata/>", 1000);
+
+        SyncManifest manifest = new SyncManifest(manifestPath);
+        manifest.load();
+        assertEquals(0, manifest.getPreviousSize());
+        assertTrue(manifest.isChanged(a));
+        assertTrue(manifest.isChanged(b));
+        assertTrue(manifest.isChanged(c));
+        manifest.commit();
+
+        // nothing changed
+        manifest = new SyncManifest(manifestPath);
+        manifest.load();
+        assertEquals(3, manifest.getPreviousSize());
+        assertFalse(manifest.isChanged(a));
+        assertFalse(manifest.isChanged(b));
+        assertFalse(manifest.isChanged(c));
+        manifest.commit();
+
+        // touched, modified in place, metadata modified, and deleted
+        write(directory, "a.xml", "<a/>", 2000);
+        write(directory, "b.xml", "<B/>", 2000);
+        write(directory, "c.xml.metadata", "<metadata></metadata>", 1000);
+        Files.delete(directory.resolve("b.xml"));
+        b = write(directory, "b.xml", "<B/>", 2000);
+        Path d = write(directory, "d.xml", "<d/>", 1000);
+        manifest = new SyncManifest(manifestPath);
+        manifest.load();
+        // the first touch hashes, and the hash was not yet known
+        assertTrue(manifest.isChanged(a));
+        assertTrue(manifest.isChanged(b));
+        assertTrue(manifest.isChanged(c));
+        manifest.commit();
+
+        write(directory, "a.xml", "<a/>", 3000);
+        Files.delete(b);
+        manifest = new SyncManifest(manifestPath);
+        manifest.load();
+        assertFalse(manifest.isChanged(a));
+        assertFalse(manifest.isChanged(c));
+        assertTrue(manifest.isChanged(d));
+        List<String> deleted = new ArrayList<>();
+        assertEquals(1, manifest.forEachDeleted(deleted::add));
+        assertEquals(b.toString(), deleted.get(0));
+        manifest.commit();
+
+        manifest = new SyncManifest(manifestPath);
+        manifest.load();
+        assertEquals(3, manifest.getPreviousSize());
+        manifest.abort();
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        Path directory = Files.createTempDirectory("SyncManifestTest");
+        Path manifestPath = directory.resolve("manifest");
+        Path a = write(directory, "a.xml", "<a/>", 1000);
+        SyncManifest manifest = new SyncManifest(manifestPath);
+        manifest.load();
+        assertTrue(manifest.isChanged(a));
+        manifest.abort();
+        assertFalse(Files.exists(manifestPath));
+        assertFalse(Files.exists(directory.resolve("manifest" + SyncManifest.TEMP_SUFFIX)));
+
+        manifest = new SyncManifest(manifestPath);
+        manifest.load();
+        assertTrue(manifest.isChanged(a));
+        manifest.commit();
+    }
+}
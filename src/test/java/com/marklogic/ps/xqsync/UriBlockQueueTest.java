@@ -0,0 +1,93 @@
+package com.marklogic.ps.xqsync;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UriBlockQueueTest {
+
+    private static List<String> uris(int count) {
+        List<String> uris = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // shared prefixes, shrinking and growing, and multi-byte chars
+            uris.add("/medline/2024/" + (i % 7 == 0 ? "\u00e9t\u00e9/" : "") + i + (i % 3 == 0 ? "/a-longer-suffix" : "") + ".xml");
+        }
+        return uris;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        UriBlockQueue queue = new UriBlockQueue();
+        List<String> uris = uris(1000);
+        for (String uri : uris) {
+            queue.add(uri);
+        }
+        assertEquals(1000, queue.size());
+        // front coding should beat two bytes per char
+        long chars = 0;
+        for (String uri : uris) {
+            chars += uri.length();
+        }
+        assertTrue(queue.getMemoryBytes() < chars);
+        for (String uri : uris) {
+            assertEquals(uri, queue.poll());
+        }
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.getMemoryBytes());
+    }
+
+    @Test
+    public void testInterleaved() throws Exception {
+        UriBlockQueue queue = new UriBlockQueue();
+        List<String> uris = uris(1000);
+        int next = 0;
+        for (int i = 0; i < uris.size(); i++) {
+            queue.add(uris.get(i));
+            if (i % 3 == 0) {
+                assertEquals(uris.get(next++), queue.poll());
+            }
+        }
+        while (next < uris.size()) {
+            assertEquals(uris.get(next++), queue.poll());
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        File file = File.createTempFile("UriBlockQueueTest", ".uris");
+        file.deleteOnExit();
+        UriBlockQueue queue = new UriBlockQueue();
+        List<String> uris = uris(2000);
+        for (int i = 0; i < 600; i++) {
+            queue.add(uris.get(i));
+        }
+        queue.spillTo(file);
+        for (int i = 600; i < 1500; i++) {
+            queue.add(uris.get(i));
+        }
+        assertTrue(queue.getFileSize() > 0);
+        int next = 0;
+        while (queue.getFileSize() > 0) {
+            assertEquals(uris.get(next++), queue.poll());
+        }
+        queue.stopSpilling();
+        assertFalse(queue.isSpilling());
+        for (int i = 1500; i < 2000; i++) {
+            queue.add(uris.get(i));
+        }
+        while (next < uris.size()) {
+            assertEquals(uris.get(next++), queue.poll());
+        }
+        assertNull(queue.poll());
+        queue.close();
+    }
+}
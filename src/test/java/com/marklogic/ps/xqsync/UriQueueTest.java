@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2007-2022 MarkLogic Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.ps.xqsync;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.marklogic.ps.SimpleLogger;
+import com.marklogic.ps.timing.TimedEvent;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UriQueueTest {
+
+    private Configuration newConfiguration() throws Exception {
+        return newConfiguration(new Properties());
+    }
+
+    private Configuration newConfiguration(Properties properties) throws Exception {
+        Configuration config = new Configuration();
+        properties.setProperty(Configuration.INPUT_PATH_KEY, "/dev/null");
+        properties.setProperty(Configuration.OUTPUT_PATH_KEY, "/dev/null");
+        properties.setProperty(Configuration.INPUT_BATCH_SIZE_KEY, "3");
+        config.setLogger(SimpleLogger.getSimpleLogger());
+        config.setProperties(properties);
+        config.configure();
+        return config;
+    }
+
+    private long sync(int count) throws Exception {
+        return sync(count, newConfiguration());
+    }
+
+    private long sync(int count, Configuration config) throws Exception {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 16, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        Monitor monitor = new Monitor(config, pool, false);
+        monitor.start();
+
+        final AtomicLong synced = new AtomicLong();
+        TaskFactory factory = new TaskFactory(config, monitor) {
+            @Override
+            public Callable<TimedEvent[]> newTask(String[] uris) {
+                return () -> {
+                    TimedEvent[] events = new TimedEvent[uris.length];
+                    for (int i = 0; i < uris.length; i++) {
+                        if (null != uris[i]) {
+                            synced.incrementAndGet();
+                            events[i] = new TimedEvent();
+                            events[i].stop();
+                            events[i].setDescription(uris[i]);
+                        }
+                    }
+                    return events;
+                };
+            }
+        };
+
+        UriQueue queue = new UriQueue(config, monitor.getCompletionService(), pool, factory, monitor);
+        queue.start();
+        for (int i = 0; i < count; i++) {
+            queue.add("/test/" + i + ".xml");
+        }
+        monitor.setFinalTaskCount(count);
+        queue.shutdown();
+        queue.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(queue.isAlive());
+        pool.shutdown();
+        monitor.noMoreTasks();
+        monitor.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(monitor.isAlive());
+        return synced.get();
+    }
+
+    @Test
+    public void testEmptyQueue() throws Exception {
+        assertEquals(0, sync(0));
+    }
+
+    @Test
+    public void testPartialBatch() throws Exception {
+        assertEquals(1001, sync(1001));
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(Configuration.URI_QUEUE_MEMORY_BYTES_KEY, "1000");
+        assertEquals(10007, sync(10007, newConfiguration(properties)));
+    }
+
+    @Test
+    public void testSpillOrder() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(Configuration.URI_QUEUE_MEMORY_BYTES_KEY, "1000");
+        Configuration config = newConfiguration(properties);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 16, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        Monitor monitor = new Monitor(config, pool, false);
+        UriQueue queue = new UriQueue(config, monitor.getCompletionService(), pool, new TaskFactory(config, monitor), monitor);
+        // without the queue thread, nothing is taken until poll()
+        int next = 0;
+        boolean spilled = false;
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 1000; i++) {
+                queue.add("/test/" + (round * 1000 + i) + ".xml");
+            }
+            spilled |= queue.getSpilledSize() > 0;
+            for (int i = 0; i < 600; i++) {
+                assertEquals("/test/" + next++ + ".xml", queue.poll());
+            }
+        }
+        assertTrue(spilled);
+        while (next < 3000) {
+            assertEquals("/test/" + next++ + ".xml", queue.poll());
+        }
+        assertNull(queue.poll());
+        assertEquals(0, queue.getQueueSize());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(Configuration.URI_QUEUE_MEMORY_BYTES_KEY, "1000");
+        properties.setProperty(Configuration.URI_QUEUE_OVERFLOW_KEY, Configuration.URI_QUEUE_OVERFLOW_BLOCK);
+        assertEquals(10007, sync(10007, newConfiguration(properties)));
+    }
+
+    @Test
+    public void testShutdownBeforeStart() throws Exception {
+        Configuration config = newConfiguration();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 16, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        Monitor monitor = new Monitor(config, pool, false);
+        UriQueue queue = new UriQueue(config, monitor.getCompletionService(), pool, new TaskFactory(config, monitor), monitor);
+        queue.shutdown();
+        queue.start();
+        queue.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(queue.isAlive());
+        pool.shutdown();
+    }
+}
@@ -18,6 +18,9 @@
  */
 package com.marklogic.ps.xqsync;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
 import com.marklogic.ps.SimpleLogger;
@@ -27,6 +30,7 @@ import com.marklogic.ps.xqsync.FilePathWriter;
 import com.marklogic.ps.xqsync.XQSyncDocument;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Michael Blakeley, MarkLogic Corporation
@@ -54,4 +58,58 @@ public class XQSyncDocumentTest {
         // assertEquals(testString, expected);
     }
 
+    @Test
+    public void testSkippedAreNotWritten() throws Exception {
+        Configuration config = new Configuration();
+        Properties properties = new Properties();
+        properties.setProperty(Configuration.INPUT_PATH_KEY, "/dev/null");
+        properties.setProperty(Configuration.OUTPUT_PATH_KEY, "/dev/null");
+        config.setLogger(SimpleLogger.getSimpleLogger());
+        config.setProperties(properties);
+        config.configure();
+        ReaderInterface reader = new ReaderInterface() {
+            public void read(String[] uris, DocumentInterface document) throws SyncException {
+                for (int i = 0; i < uris.length; i++) {
+                    if (null == uris[i]) {
+                        continue;
+                    }
+                    if (uris[i].startsWith("/skip")) {
+                        document.setSkipped(i);
+                    } else {
+                        document.setContent(i, uris[i].getBytes());
+                        document.setMetadata(i, new XQSyncDocumentMetadata());
+                    }
+                }
+            }
+
+            public void close() {
+            }
+        };
+        final List<String[]> written = new ArrayList<>();
+        WriterInterface writer = new WriterInterface() {
+            public int write(String outputUri, byte[] contentBytes, XQSyncDocumentMetadata metadata) {
+                return write(new String[] { outputUri }, new byte[][] { contentBytes },
+                        new XQSyncDocumentMetadata[] { metadata });
+            }
+
+            public int write(String[] outputUri, byte[][] contentBytes, XQSyncDocumentMetadata[] metadata) {
+                assertEquals(outputUri.length, contentBytes.length);
+                assertEquals(outputUri.length, metadata.length);
+                written.add(outputUri);
+                return 0;
+            }
+        };
+
+        // skipped first and in the middle, and a partial batch
+        new XQSyncDocument(new String[] { "/skip/0.xml", "/1.xml", "/skip/2.xml", "/3.xml", null }, reader,
+                writer, config).sync();
+        assertEquals(1, written.size());
+        assertEquals(Arrays.asList("/1.xml", "/3.xml"), Arrays.asList(written.get(0)));
+
+        // nothing left to write
+        written.clear();
+        new XQSyncDocument(new String[] { "/skip/0.xml", "/skip/1.xml" }, reader, writer, config).sync();
+        assertTrue(written.isEmpty());
+    }
+
 }
@@ -20,6 +20,9 @@ package com.marklogic.ps.xqsync;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 /**
  *
  */
@@ -32,4 +35,17 @@ public class XQSyncManagerTest {
     public void getItemsQueued() throws Exception {
     }
 
+    @Test
+    public void compareCodepoints() {
+        assertEquals(0, XQSyncManager.compareCodepoints("/a", "/a"));
+        assertTrue(XQSyncManager.compareCodepoints("/a", "/b") < 0);
+        assertTrue(XQSyncManager.compareCodepoints("/a", "/a/b") < 0);
+        assertTrue(XQSyncManager.compareCodepoints("/a/b", "/a") > 0);
+        // a supplementary character sorts after U+FFFD by codepoint,
+        // but before it by UTF-16 code unit
+        String supplementary = new String(Character.toChars(0x1F600));
+        assertTrue(supplementary.compareTo("\uFFFD") < 0);
+        assertTrue(XQSyncManager.compareCodepoints(supplementary, "\uFFFD") > 0);
+    }
+
 }
\ No newline at end of file